@@ -54,12 +54,16 @@ import javax.servlet.http.HttpServletResponse;
  *     <li><code>api.server.error_template</code> - path of error template ; no default. It should be set to a template
  *     which is not directly accessible, as <code>/WEB-INF/error.json</code>.</li>
  * </ul>
+ * <p>Templates should write model values with the streaming JSON serializer, available as <code>$serializer</code>
+ * (see {@link JsonRenderer}), rather than building them as text:</p>
+ * <pre><code>{ "book": $serializer.write($book), "authors": $serializer.write($book.authors) }</code></pre>
  */
 
 public class ApiServlet extends VelocityViewServlet
 {
     public static final String CONTENT_TYPE = "api.server.content_type";
     public static final String ERROR_TEMPLATE = "api.server.error_template";
+    public static final String SERIALIZER_KEY = "serializer";
 
     private static final String DEFAULT_CONTENT_TYPE = "application/json;charset=UTF-8";
 
@@ -97,6 +101,13 @@ public class ApiServlet extends VelocityViewServlet
         lockResources(request);
     }
 
+    @Override
+    protected void fillContext(Context context, HttpServletRequest request)
+    {
+        super.fillContext(context, request);
+        context.put(SERIALIZER_KEY, jsonRenderer);
+    }
+
     @Override
     protected void setContentType(HttpServletRequest request, HttpServletResponse response)
     {
@@ -247,6 +258,7 @@ public class ApiServlet extends VelocityViewServlet
     private ReadWriteLock lock = new ReentrantReadWriteLock();
     private String contentType = null;
     private String errorTemplate = null;
+    private final JsonRenderer jsonRenderer = new JsonRenderer();
 
 }
 
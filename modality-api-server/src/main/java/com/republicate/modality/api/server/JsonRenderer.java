@@ -0,0 +1,65 @@
+package com.republicate.modality.api.server;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.JsonSerializer;
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.Renderable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+
+/**
+ * <p>Context helper of the API servlet, which gives JSON templates access to the streaming serializer:
+ * <code>$serializer.write($book.authors)</code> writes an instance, a rowset iterator, a map, a collection
+ * or a plain value straight into the template output, row by row, without building any intermediate string.</p>
+ */
+
+public class JsonRenderer
+{
+    /**
+     * Get a renderable serializing a value as JSON when rendered
+     * @param value value
+     * @return renderable value
+     */
+    public Renderable write(Object value)
+    {
+        return new Renderable()
+        {
+            @Override
+            public boolean render(InternalContextAdapter context, Writer writer) throws IOException
+            {
+                JsonSerializer serializer = new JsonSerializer(writer);
+                try
+                {
+                    serializer.writeValue(value);
+                }
+                catch (SQLException sqle)
+                {
+                    throw new VelocityException("could not serialize value", sqle);
+                }
+                serializer.flush();
+                return true;
+            }
+        };
+    }
+}
@@ -19,16 +19,23 @@ package com.republicate.modality;
  * under the License.
  */
 
+import com.republicate.modality.config.ConfigurationException;
 import com.republicate.modality.impl.AttributeHolder;
 import com.republicate.modality.impl.PostgresqlCopyManager;
+import com.republicate.modality.impl.WriteBehindQueue;
 import com.republicate.modality.sql.ConnectionWrapper;
 import com.republicate.modality.sql.PooledStatement;
 import com.republicate.modality.sql.StatementPool;
+import com.republicate.modality.util.ConfigUtils;
 
 import java.io.Serializable;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 public class Action extends Attribute
@@ -41,17 +48,78 @@ public class Action extends Attribute
 
     public long perform(Serializable... params) throws SQLException
     {
-        return performImpl(getParamValues(params));
+        return performOrEnqueue(getParamValues(params));
     }
 
     public long perform(Map source) throws SQLException
     {
-        return performImpl(getParamValues(source));
+        return performOrEnqueue(getParamValues(source));
     }
 
     public long perform(Map source, Serializable... params) throws SQLException
     {
-        return performImpl(getParamValues(source, params));
+        return performOrEnqueue(getParamValues(source, params));
+    }
+
+    /**
+     * Perform the action, or enqueue it for a write-behind action called outside of any transaction,
+     * in which case the returned count is zero.
+     */
+    private long performOrEnqueue(Serializable[] paramValues) throws SQLException
+    {
+        if (async == AsyncMode.COALESCE && StatementPool.getCurrentTransactionConnection(getModel().getModelId()) == null)
+        {
+            getWriteBehindQueue().enqueue(paramValues);
+            return 0;
+        }
+        return performImpl(paramValues);
+    }
+
+    /**
+     * Perform the action once per source, as a single JDBC batch
+     * @param sources parameter values sources
+     * @return updated rows count for each source, or <code>Statement.SUCCESS_NO_INFO</code> when the driver doesn't report it
+     * @throws SQLException
+     */
+    public int[] performBatch(List<? extends Map> sources) throws SQLException
+    {
+        if (sources.isEmpty())
+        {
+            return new int[0];
+        }
+        List<Serializable[]> paramValuesList = new ArrayList<>(sources.size());
+        for (Map source : sources)
+        {
+            paramValuesList.add(getParamValues(source));
+        }
+        return performBatchImpl(paramValuesList);
+    }
+
+    /**
+     * Perform a batch of calls within a single transaction
+     */
+    private void performBatchTransaction(List<Serializable[]> paramValuesList) throws SQLException
+    {
+        getModel().attempt(() -> performBatchImpl(paramValuesList));
+    }
+
+    protected int[] performBatchImpl(List<Serializable[]> paramValuesList) throws SQLException
+    {
+        PooledStatement statement = null;
+        try
+        {
+            statement = getModel().prepareUpdate(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            return statement.executeBatch(getBinders(), paramValuesList);
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
     }
 
     protected long performImpl(Serializable... paramValues) throws SQLException
@@ -79,9 +147,9 @@ public class Action extends Attribute
             try
             {
 
-                statement = getModel().prepareUpdate(getQuery());
+                statement = getModel().prepareUpdate(getQuery(), getPrepareHint());
                 statement.getConnection().enterBusyState();
-                ret = statement.executeUpdate(paramValues);
+                ret = statement.executeUpdate(getBinders(), paramValues);
                 if (ret == 1 && generatedKeyColumn != null)
                 {
                     ret = statement.getLastInsertID(generatedKeyColumn);
@@ -107,11 +175,116 @@ public class Action extends Attribute
 
     public void setGeneratedKeyColumn(String generatedKeyColumn)
     {
+        if (generatedKeyColumn != null && async != AsyncMode.NONE)
+        {
+            throw new ConfigurationException("action " + getName() + ": asynchronous actions cannot return generated keys");
+        }
         this.generatedKeyColumn = generatedKeyColumn;
     }
 
+    /**
+     * Asynchronous mode: <code>none</code>, or <code>coalesce</code> for a write-behind action, whose calls
+     * outside of transactions are enqueued and performed by batches. Since an enqueued call returns 0,
+     * asynchronous actions cannot return generated keys.
+     * @param async asynchronous mode
+     */
+    protected void setAsync(String async)
+    {
+        try
+        {
+            this.async = AsyncMode.valueOf(async.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ConfigurationException("action " + getName() + ": invalid async mode, expecting none or coalesce: " + async);
+        }
+        if (this.async != AsyncMode.NONE && this instanceof Transaction)
+        {
+            throw new ConfigurationException("action " + getName() + ": transactions cannot be performed asynchronously");
+        }
+        if (this.async != AsyncMode.NONE && generatedKeyColumn != null)
+        {
+            throw new ConfigurationException("action " + getName() + ": asynchronous actions cannot return generated keys");
+        }
+    }
+
+    /**
+     * Write-behind flush interval, in milliseconds, or with an explicit <code>ms</code>, <code>s</code>, <code>m</code>
+     * or <code>h</code> unit
+     * @param flushInterval flush interval
+     */
+    protected void setFlushInterval(String flushInterval)
+    {
+        this.flushInterval = ConfigUtils.parseDuration(flushInterval, TimeUnit.MILLISECONDS);
+        if (this.flushInterval <= 0)
+        {
+            throw new ConfigurationException("action " + getName() + ": invalid flush interval: " + flushInterval);
+        }
+    }
+
+    /**
+     * Write-behind queue capacity
+     * @param queueSize maximum number of pending calls
+     */
+    protected void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Write-behind batches size, which also triggers a flush when reached by pending calls
+     * @param batchSize maximum number of calls per batch
+     */
+    protected void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the write-behind queue of this action, which exposes queue depth and flush latency metrics
+     * @return write-behind queue, or null
+     */
+    public WriteBehindQueue getWriteBehindQueue()
+    {
+        if (async == AsyncMode.COALESCE && writeBehindQueue == null)
+        {
+            synchronized (this)
+            {
+                if (writeBehindQueue == null)
+                {
+                    WriteBehindQueue queue = new WriteBehindQueue(getName(), queueSize, batchSize, flushInterval, this::performBatchTransaction);
+                    getModel().addWriteBehindQueue(queue);
+                    writeBehindQueue = queue;
+                }
+            }
+        }
+        return writeBehindQueue;
+    }
+
+    /**
+     * Copies are performed synchronously, since the write-behind queue of their source performs its own query
+     * @return attribute copy
+     * @throws SQLException if the attribute cannot be copied
+     */
+    @Override
+    protected Action copy() throws SQLException
+    {
+        Action copy = (Action)super.copy();
+        copy.async = AsyncMode.NONE;
+        copy.writeBehindQueue = null;
+        return copy;
+    }
+
+    public enum AsyncMode { NONE, COALESCE }
+
     private String generatedKeyColumn = null;
 
+    private AsyncMode async = AsyncMode.NONE;
+    private long flushInterval = 200;
+    private int queueSize = 10000;
+    private int batchSize = 1000;
+    private volatile WriteBehindQueue writeBehindQueue = null;
+
     // for postgresql COPY FROM STDIN
     protected PostgresqlCopyManager postgresqlCopyManager = null;
 
@@ -0,0 +1,473 @@
+package com.republicate.modality;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.impl.RowMapper;
+import com.republicate.modality.util.SlotMap;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>Column oriented result of a rowset query: each column is stored in its own array, primitive for unfiltered
+ * integral and floating point columns, along with a null bitmap.</p>
+ * <p>Columns are grown by fixed size chunks while reading the result set, so that values are never copied.
+ * For compatibility, rows can still be accessed as read-only maps, which are views on the columns.</p>
+ */
+
+public class ColumnarResult implements Iterable<Map<String, Serializable>>, Serializable
+{
+    /**
+     * Number of rows per column chunk
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    ColumnarResult(RowMapper mapper)
+    {
+        int count = mapper.getColumnCount();
+        names = new ArrayList<>(count);
+        indices = new HashMap<>();
+        columns = new Column[count];
+        for (int col = 0; col < count; ++col)
+        {
+            String name = mapper.getKey(col);
+            names.add(name);
+            indices.putIfAbsent(name, col);
+            if (mapper.isIntegral(col))
+            {
+                columns[col] = new LongColumn(name);
+            }
+            else if (mapper.isFloating(col))
+            {
+                columns[col] = new DoubleColumn(name);
+            }
+            else
+            {
+                columns[col] = new ObjectColumn(name);
+            }
+        }
+        names = Collections.unmodifiableList(names);
+    }
+
+    void readRow(ResultSet resultSet, RowMapper mapper) throws SQLException
+    {
+        for (int col = 0; col < columns.length; ++col)
+        {
+            columns[col].read(resultSet, mapper, col);
+        }
+        ++rowCount;
+    }
+
+    public List<String> getColumnNames()
+    {
+        return names;
+    }
+
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public Column getColumn(int index)
+    {
+        return columns[index];
+    }
+
+    /**
+     * Get a column by name
+     * @param name column name
+     * @return column, or null if not found
+     */
+    public Column getColumn(String name)
+    {
+        Integer index = indices.get(name);
+        return index == null ? null : columns[index];
+    }
+
+    /**
+     * Get a read-only view on a row
+     * @param row row index
+     * @return row view
+     */
+    public Map<String, Serializable> getRow(int row)
+    {
+        if (row < 0 || row >= rowCount)
+        {
+            throw new IndexOutOfBoundsException("row " + row + " out of [0, " + rowCount + "[");
+        }
+        return new RowView(row);
+    }
+
+    /**
+     * Get a list view on rows
+     * @return rows list view
+     */
+    public List<Map<String, Serializable>> asList()
+    {
+        return new AbstractList<Map<String, Serializable>>()
+        {
+            @Override
+            public Map<String, Serializable> get(int index)
+            {
+                return getRow(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return rowCount;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map<String, Serializable>> iterator()
+    {
+        return asList().iterator();
+    }
+
+    /**
+     * Values of a result column
+     */
+    public static abstract class Column implements Serializable
+    {
+        protected Column(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isNull(int row)
+        {
+            return nulls.get(row);
+        }
+
+        /**
+         * Get the value of a row, boxed if needed
+         * @param row row index
+         * @return value, or null
+         */
+        public abstract Serializable get(int row);
+
+        /**
+         * Get the value of a row as a long
+         * @param row row index
+         * @return value, or zero if null
+         */
+        public long getLong(int row)
+        {
+            Serializable value = get(row);
+            return value == null ? 0L : ((Number)value).longValue();
+        }
+
+        /**
+         * Get the value of a row as a double
+         * @param row row index
+         * @return value, or zero if null
+         */
+        public double getDouble(int row)
+        {
+            Serializable value = get(row);
+            return value == null ? 0.0 : ((Number)value).doubleValue();
+        }
+
+        /**
+         * Copy values to a single array: a <code>long[]</code>, a <code>double[]</code> or a <code>Serializable[]</code>,
+         * depending on the column kind. Null values are zero in primitive arrays.
+         * @return values array
+         */
+        public abstract Object toArray();
+
+        public int size()
+        {
+            return size;
+        }
+
+        final void read(ResultSet resultSet, RowMapper mapper, int col) throws SQLException
+        {
+            readValue(resultSet, mapper, col, size++);
+        }
+
+        protected abstract void readValue(ResultSet resultSet, RowMapper mapper, int col, int row) throws SQLException;
+
+        private final String name;
+        protected int size = 0;
+        protected final BitSet nulls = new BitSet();
+    }
+
+    private static final class LongColumn extends Column
+    {
+        LongColumn(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected void readValue(ResultSet resultSet, RowMapper mapper, int col, int row) throws SQLException
+        {
+            int chunk = row / CHUNK_SIZE;
+            if (chunk == chunks.size())
+            {
+                chunks.add(new long[CHUNK_SIZE]);
+            }
+            long value = resultSet.getLong(col + 1);
+            if (resultSet.wasNull())
+            {
+                nulls.set(row);
+            }
+            else
+            {
+                chunks.get(chunk)[row % CHUNK_SIZE] = value;
+            }
+        }
+
+        @Override
+        public Serializable get(int row)
+        {
+            return isNull(row) ? null : getLong(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return chunks.get(row / CHUNK_SIZE)[row % CHUNK_SIZE];
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return getLong(row);
+        }
+
+        @Override
+        public Object toArray()
+        {
+            int rows = size;
+            long[] array = new long[rows];
+            for (int chunk = 0, offset = 0; offset < rows; ++chunk, offset += CHUNK_SIZE)
+            {
+                System.arraycopy(chunks.get(chunk), 0, array, offset, Math.min(CHUNK_SIZE, rows - offset));
+            }
+            return array;
+        }
+
+        private final List<long[]> chunks = new ArrayList<>();
+    }
+
+    private static final class DoubleColumn extends Column
+    {
+        DoubleColumn(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected void readValue(ResultSet resultSet, RowMapper mapper, int col, int row) throws SQLException
+        {
+            int chunk = row / CHUNK_SIZE;
+            if (chunk == chunks.size())
+            {
+                chunks.add(new double[CHUNK_SIZE]);
+            }
+            double value = resultSet.getDouble(col + 1);
+            if (resultSet.wasNull())
+            {
+                nulls.set(row);
+            }
+            else
+            {
+                chunks.get(chunk)[row % CHUNK_SIZE] = value;
+            }
+        }
+
+        @Override
+        public Serializable get(int row)
+        {
+            return isNull(row) ? null : getDouble(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return (long)getDouble(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return chunks.get(row / CHUNK_SIZE)[row % CHUNK_SIZE];
+        }
+
+        @Override
+        public Object toArray()
+        {
+            int rows = size;
+            double[] array = new double[rows];
+            for (int chunk = 0, offset = 0; offset < rows; ++chunk, offset += CHUNK_SIZE)
+            {
+                System.arraycopy(chunks.get(chunk), 0, array, offset, Math.min(CHUNK_SIZE, rows - offset));
+            }
+            return array;
+        }
+
+        private final List<double[]> chunks = new ArrayList<>();
+    }
+
+    private static final class ObjectColumn extends Column
+    {
+        ObjectColumn(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected void readValue(ResultSet resultSet, RowMapper mapper, int col, int row) throws SQLException
+        {
+            int chunk = row / CHUNK_SIZE;
+            if (chunk == chunks.size())
+            {
+                chunks.add(new Serializable[CHUNK_SIZE]);
+            }
+            Serializable value = mapper.read(resultSet, col);
+            if (value == null)
+            {
+                nulls.set(row);
+            }
+            else
+            {
+                chunks.get(chunk)[row % CHUNK_SIZE] = value;
+            }
+        }
+
+        @Override
+        public Serializable get(int row)
+        {
+            return chunks.get(row / CHUNK_SIZE)[row % CHUNK_SIZE];
+        }
+
+        @Override
+        public Object toArray()
+        {
+            int rows = size;
+            Serializable[] array = new Serializable[rows];
+            for (int chunk = 0, offset = 0; offset < rows; ++chunk, offset += CHUNK_SIZE)
+            {
+                System.arraycopy(chunks.get(chunk), 0, array, offset, Math.min(CHUNK_SIZE, rows - offset));
+            }
+            return array;
+        }
+
+        private final List<Serializable[]> chunks = new ArrayList<>();
+    }
+
+    /**
+     * Read-only row view, only holding the row index
+     */
+    private final class RowView extends AbstractMap<String, Serializable> implements SlotMap
+    {
+        RowView(int row)
+        {
+            this.row = row;
+        }
+
+        @Override
+        public Serializable get(Object key)
+        {
+            Integer index = indices.get(key);
+            return index == null ? null : columns[index].get(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return indices.containsKey(key);
+        }
+
+        @Override
+        public int size()
+        {
+            return columns.length;
+        }
+
+        @Override
+        public Set<Entry<String, Serializable>> entrySet()
+        {
+            return new AbstractSet<Entry<String, Serializable>>()
+            {
+                @Override
+                public Iterator<Entry<String, Serializable>> iterator()
+                {
+                    return new Iterator<Entry<String, Serializable>>()
+                    {
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return col < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, Serializable> next()
+                        {
+                            if (col >= columns.length)
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            Column column = columns[col++];
+                            return new SimpleImmutableEntry<>(column.getName(), column.get(row));
+                        }
+
+                        private int col = 0;
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return columns.length;
+                }
+            };
+        }
+
+        private final int row;
+    }
+
+    private List<String> names;
+    // index of each column name
+    private final Map<String, Integer> indices;
+    private final Column[] columns;
+    private int rowCount = 0;
+}
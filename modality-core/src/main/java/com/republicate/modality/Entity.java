@@ -19,17 +19,27 @@ package com.republicate.modality;
  * under the License.
  */
 
+import com.republicate.modality.cache.NegativeCache;
 import com.republicate.modality.impl.BaseEntity;
+import com.republicate.modality.impl.RowMapper;
+import com.republicate.modality.util.BeanProperty;
+import com.republicate.modality.util.SlotArrayMap;
 import com.republicate.modality.util.TypeUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class Entity extends BaseEntity implements Iterable<Instance>
 {
@@ -49,6 +59,17 @@ public class Entity extends BaseEntity implements Iterable<Instance>
         return getIterateAttribute().query();
     }
 
+    /**
+     * Iterate over instances, only loading the given columns along with the primary key
+     * @param columns loaded columns
+     * @return iterator over partial instances
+     * @throws SQLException
+     */
+    public Iterator<Instance> iterate(String... columns) throws SQLException
+    {
+        return getIterateAttribute(Arrays.asList(columns)).query();
+    }
+
     public Iterator<Instance> iterator()
     {
         try
@@ -82,15 +103,277 @@ public class Entity extends BaseEntity implements Iterable<Instance>
         return getFetchAttribute().retrieve(key);
     }
 
+    /**
+     * Fetch an instance, only loading the given columns along with the primary key
+     * @param key primary key values
+     * @param columns loaded columns
+     * @return partial instance, or null
+     * @throws SQLException
+     */
+    public Instance fetch(Serializable[] key, String... columns) throws SQLException
+    {
+        List<String> projection = Arrays.asList(columns);
+        getLogger().trace("fetch {} columns {}", getName(), projection);
+        if (getFetchAttribute() == null)
+        {
+            throw new SQLException("Cannot fetch entity " + getName() + ": no primary key");
+        }
+        return getFetchAttribute(projection).retrieve(key);
+    }
+
+    public Instance fetch(Map key, String... columns) throws SQLException
+    {
+        List<String> projection = Arrays.asList(columns);
+        getLogger().trace("fetch {} columns {}", getName(), projection);
+        if (getFetchAttribute() == null)
+        {
+            throw new SQLException("Cannot fetch entity " + getName() + ": no primary key");
+        }
+        return getFetchAttribute(projection).retrieve(key);
+    }
+
+    /**
+     * Insert instances, grouped by inserted columns mask: each group is sent as a single JDBC batch, and all groups
+     * are inserted within the current transaction, or within a new one. Instances whose key is generated by the
+     * database, rather than by the id generator of the entity, are inserted one by one.
+     * @param instances new instances of this entity
+     * @return inserted rows count of each instance, in iteration order, or <code>Statement.SUCCESS_NO_INFO</code>
+     * when the driver doesn't report it
+     * @throws SQLException
+     */
+    public int[] insertAll(Collection<? extends Instance> instances) throws SQLException
+    {
+        List<Instance> sources = new ArrayList<>(instances);
+        for (Instance instance : sources)
+        {
+            checkOwnInstance(instance);
+            instance.checkInsert();
+        }
+        int[] counts = new int[sources.size()];
+        runInTransaction(() ->
+        {
+            Map<BitSet, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < sources.size(); ++i)
+            {
+                Instance instance = sources.get(i);
+                prepareInsert(instance);
+                BitSet mask = getInsertMask(instance);
+                if (hasKnownKey(mask))
+                {
+                    groups.computeIfAbsent(mask, m -> new ArrayList<>()).add(i);
+                }
+                else
+                {
+                    insert(instance);
+                    counts[i] = 1;
+                }
+            }
+            getLogger().trace("insert {} instances of {} in {} batches", sources.size(), getName(), groups.size());
+            for (Map.Entry<BitSet, List<Integer>> group : groups.entrySet())
+            {
+                List<Integer> indices = group.getValue();
+                List<Instance> batch = indices.stream().map(sources::get).collect(Collectors.toList());
+                int[] batchCounts = insertBatch(group.getKey(), batch);
+                for (int i = 0; i < batchCounts.length; ++i)
+                {
+                    counts[indices.get(i)] = batchCounts[i];
+                }
+            }
+        });
+        sources.forEach(Instance::setInserted);
+        return counts;
+    }
+
+    /**
+     * Update instances, grouped by dirty columns mask: each group is sent as a single JDBC batch, and all groups
+     * are updated within the current transaction, or within a new one.
+     * @param instances instances of this entity
+     * @return updated rows count of each instance, in iteration order: 0 for clean instances, and
+     * <code>Statement.SUCCESS_NO_INFO</code> when the driver doesn't report it
+     * @throws SQLException
+     */
+    public int[] updateAll(Collection<? extends Instance> instances) throws SQLException
+    {
+        List<Instance> sources = new ArrayList<>(instances);
+        Map<BitSet, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < sources.size(); ++i)
+        {
+            Instance instance = sources.get(i);
+            checkOwnInstance(instance);
+            instance.checkUpdate();
+            if (instance.isDirty())
+            {
+                groups.computeIfAbsent((BitSet)instance.getDirtyFlags().clone(), mask -> new ArrayList<>()).add(i);
+            }
+        }
+        int[] counts = new int[sources.size()];
+        if (groups.isEmpty())
+        {
+            return counts;
+        }
+        getLogger().trace("update {} instances of {} in {} batches", sources.size(), getName(), groups.size());
+        Serializable[] newVersions = new Serializable[sources.size()];
+        runInTransaction(() ->
+        {
+            for (Map.Entry<BitSet, List<Integer>> group : groups.entrySet())
+            {
+                List<Integer> indices = group.getValue();
+                List<Instance> batch = indices.stream().map(sources::get).collect(Collectors.toList());
+                Serializable[] batchVersions = new Serializable[batch.size()];
+                int[] batchCounts = updateBatch(group.getKey(), batch, batchVersions);
+                for (int i = 0; i < batchCounts.length; ++i)
+                {
+                    counts[indices.get(i)] = batchCounts[i];
+                    newVersions[indices.get(i)] = batchVersions[i];
+                }
+            }
+        });
+        // versions are only bumped once the whole transaction succeeded
+        for (int i = 0; i < newVersions.length; ++i)
+        {
+            if (newVersions[i] != null)
+            {
+                storeVersion(sources.get(i), newVersions[i]);
+            }
+        }
+        return counts;
+    }
+
+    private void checkOwnInstance(Instance instance) throws SQLException
+    {
+        if (instance.getEntity() != this)
+        {
+            throw new SQLException("instance of entity " + instance.getEntity().getName() + " is not an instance of entity " + getName());
+        }
+    }
+
+    /**
+     * Get a copy of a cached instance, or the shared frozen instance if frozen instances are enabled
+     * @param keyValues primary key values, as sent to the database
+     * @return cached instance or null
+     */
+    protected Instance getCachedInstance(Serializable[] keyValues) throws SQLException
+    {
+        Serializable[] key = getCacheKey(keyValues);
+        if (key == null)
+        {
+            return null;
+        }
+        Instance frozen = getFrozenInstance(key);
+        if (frozen != null)
+        {
+            return frozen;
+        }
+        Serializable[] row;
+        try
+        {
+            row = getRowStore().get(key);
+        }
+        catch (IOException ioe)
+        {
+            throw new SQLException("could not read cached row of entity " + getName(), ioe);
+        }
+        if (row == null)
+        {
+            return null;
+        }
+        Instance instance = newInstance();
+        instance.restoreValues(row);
+        return shareFrozenInstance(key, instance);
+    }
+
+    /**
+     * Cache an instance read from the database
+     * @param instance instance
+     * @return given instance, or the shared frozen instance if frozen instances are enabled
+     * @throws SQLException
+     */
+    protected Instance cacheInstance(Instance instance) throws SQLException
+    {
+        Serializable[] key = getCacheKey(instance);
+        if (key == null)
+        {
+            return instance;
+        }
+        List<String> columnNames = getColumnNames();
+        Serializable[] row = new Serializable[columnNames.size()];
+        for (int col = 0; col < row.length; ++col)
+        {
+            row[col] = instance.get(columnNames.get(col));
+        }
+        try
+        {
+            getRowStore().put(key, row);
+        }
+        catch (IOException ioe)
+        {
+            getLogger().warn("could not cache instance of entity {}", getName(), ioe);
+        }
+        return shareFrozenInstance(key, instance);
+    }
+
+    /**
+     * Read again an instance from the database, bypassing caches
+     * @param key primary key values
+     * @return fresh instance, or null
+     */
+    protected Instance reload(Serializable... key) throws SQLException
+    {
+        return getFetchAttribute().retrieveRow(key);
+    }
+
+    @Override
+    protected ScalarAttribute getLobAttribute(String columnName)
+    {
+        return super.getLobAttribute(columnName);
+    }
+
+    @Override
+    protected Instance getIdentified(Serializable[] keyValues)
+    {
+        return super.getIdentified(keyValues);
+    }
+
+    @Override
+    protected Instance identify(Instance instance) throws SQLException
+    {
+        return super.identify(instance);
+    }
+
+    @Override
+    protected boolean isKnownMissing(Serializable[] keyValues)
+    {
+        return super.isKnownMissing(keyValues);
+    }
+
+    @Override
+    protected void rememberMissing(Serializable[] keyValues)
+    {
+        super.rememberMissing(keyValues);
+    }
+
+    @Override
+    protected void addNegativeCache(NegativeCache attributeNegativeCache)
+    {
+        super.addNegativeCache(attributeNegativeCache);
+    }
+
+    @Override
+    protected SlotArrayMap.Layout getColumnLayout()
+    {
+        return super.getColumnLayout();
+    }
+
     @Override
-    protected Map<String, Method> getWrappedInstanceGetters()
+    protected Map<String, BeanProperty> getWrappedInstanceProperties()
     {
-        return super.getWrappedInstanceGetters();
+        return super.getWrappedInstanceProperties();
     }
 
-    protected Map<String, Pair<Method, Class>> getWrappedInstanceSetters()
+    @Override
+    protected BeanProperty[] getWrappedInstanceBindings(RowMapper mapper)
     {
-        return super.getWrappedInstanceSetters();
+        return super.getWrappedInstanceBindings(mapper);
     }
 
 
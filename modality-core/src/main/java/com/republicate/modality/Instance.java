@@ -21,16 +21,20 @@ package com.republicate.modality;
 
 import com.republicate.modality.filter.Filter;
 import com.republicate.modality.filter.ValueFilters;
+import com.republicate.modality.impl.RowMapper;
 import com.republicate.modality.sql.RowValues;
+import com.republicate.modality.sql.SqlUtils;
 import com.republicate.modality.util.ChainedMap;
-import com.republicate.modality.util.SlotTreeMap;
+import com.republicate.modality.util.SlotArrayMap;
 import com.republicate.modality.util.TypeUtils;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
@@ -42,21 +46,27 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Consumer;
 
-public class Instance extends SlotTreeMap
+public class Instance extends SlotArrayMap
 {
     public Instance(Model model)
     {
-        this.model = model;
-        this.dirtyFlags = new BitSet();
-        this.canWrite = model.getWriteAccess() != Model.WriteAccess.NONE;
+        this(model, Layout.EMPTY);
     }
 
     protected Instance(Entity entity)
     {
-        this(entity.getModel());
+        this(entity.getModel(), entity.getColumnLayout());
         this.entity = entity;
     }
 
+    private Instance(Model model, Layout layout)
+    {
+        super(layout);
+        this.model = model;
+        this.dirtyFlags = new BitSet();
+        this.canWrite = model.getWriteAccess() != Model.WriteAccess.NONE;
+    }
+
     public void readValues(RowValues values) throws SQLException
     {
         ValueFilters filters = getModel().getFilters().getReadFilters();
@@ -67,12 +77,42 @@ public class Instance extends SlotTreeMap
             {
                 value = filters.filter(value);
             }
-            readValue(key, values.get(key));
+            readValue(key, value);
         }
         setClean();
         persisted = lookupPersisted();
     }
 
+    /**
+     * Read the current row of a result set
+     * @param resultSet result set
+     * @param mapper row mapper compiled for this result set
+     * @throws SQLException
+     */
+    public void readValues(ResultSet resultSet, RowMapper mapper) throws SQLException
+    {
+        readColumns(resultSet, mapper);
+        bindLobs();
+        loadedColumns = mapper.getLoadedColumns();
+        setClean();
+        persisted = lookupPersisted();
+    }
+
+    /**
+     * Store the columns of the current row of a result set
+     * @param resultSet result set
+     * @param mapper row mapper compiled for this result set
+     * @throws SQLException
+     */
+    protected void readColumns(ResultSet resultSet, RowMapper mapper) throws SQLException
+    {
+        for (int col = 0; col < mapper.getColumnCount(); ++col)
+        {
+            // always put the value, even null
+            putImpl(mapper.getKey(col), mapper.read(resultSet, col));
+        }
+    }
+
     public void readValue(String key, Serializable value) throws SQLException
     {
         // get column if any
@@ -98,6 +138,232 @@ public class Instance extends SlotTreeMap
         super.put(colName, value);
     }
 
+    /**
+     * Restore column values from an entity cache row, without applying read filters again.
+     * @param values column values, in column index order
+     */
+    protected void restoreValues(Serializable[] values)
+    {
+        for (int col = 0; col < values.length; ++col)
+        {
+            Entity.Column column = entity.getColumn(col);
+            putImpl(column.name, column.intern(values[col]));
+        }
+        loadedColumns = null;
+        bindLobs();
+        setClean();
+        persisted = lookupPersisted();
+    }
+
+    /**
+     * Freeze this instance, so that it can be shared between threads: any further modification is rejected.
+     * @return this instance
+     */
+    public Instance freeze()
+    {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Get a modifiable copy of this instance. Column values are not copied: the storage is shared until
+     * either instance is modified.
+     * @return modifiable copy
+     */
+    public Instance fork()
+    {
+        Instance fork = entity == null ? new Instance(getModel()) : entity.newInstance();
+        fork.forkValues(this);
+        return fork;
+    }
+
+    /**
+     * Initialize a fork from its source instance
+     * @param source source instance
+     */
+    protected void forkValues(Instance source)
+    {
+        shareValues(source);
+        dirtyFlags = (BitSet)source.dirtyFlags.clone();
+        loadedColumns = source.loadedColumns;
+        persisted = source.persisted;
+        bindLobs();
+    }
+
+    @Override
+    protected void beforeWrite()
+    {
+        checkNotFrozen();
+        super.beforeWrite();
+    }
+
+    protected final void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new UnsupportedOperationException("instance is frozen, use fork() to get a modifiable copy");
+        }
+    }
+
+    /**
+     * Whether this instance was read by a projection query, and misses some columns
+     * @return partial flag
+     */
+    public boolean isPartial()
+    {
+        return loadedColumns != null;
+    }
+
+    /**
+     * Whether a column of the entity has been loaded
+     * @param column column name
+     * @return loaded flag
+     */
+    public boolean isLoaded(String column)
+    {
+        Entity.Column col = entity == null ? null : entity.getColumn(column);
+        return col == null ? containsKey(column) : isLoaded(col.getIndex());
+    }
+
+    private boolean isLoaded(int col)
+    {
+        return loadedColumns == null || loadedColumns.get(col);
+    }
+
+    /**
+     * Load the columns of a partial instance which were left out by its projection query
+     * @throws SQLException
+     */
+    public void complete() throws SQLException
+    {
+        if (loadedColumns == null)
+        {
+            return;
+        }
+        ensurePersisted();
+        Instance complete = entity.fetch(getPrimaryKey());
+        if (complete == null)
+        {
+            throw new SQLException("could not complete instance of " + entity.getName() + ": row not found");
+        }
+        List<String> columnNames = entity.getColumnNames();
+        for (int col = 0; col < columnNames.size(); ++col)
+        {
+            if (!loadedColumns.get(col))
+            {
+                String columnName = columnNames.get(col);
+                putImpl(columnName, complete.get(columnName));
+            }
+        }
+        loadedColumns = null;
+        bindLobs();
+    }
+
+    /**
+     * Lazily complete a partial instance, or reject the access, when a missing column is requested
+     * @param key column name
+     */
+    private void ensureLoaded(Object key)
+    {
+        Entity.Column column = entity == null ? null : entity.getColumn(String.valueOf(key));
+        if (column == null || loadedColumns.get(column.getIndex()))
+        {
+            return;
+        }
+        if (!entity.isLazyCompletion())
+        {
+            throw new IllegalStateException("column " + entity.getName() + "." + column.name + " was not loaded, use complete() to load it");
+        }
+        try
+        {
+            complete();
+        }
+        catch (SQLException sqle)
+        {
+            throw new ModelException("could not complete instance of " + entity.getName(), sqle);
+        }
+    }
+
+    /**
+     * Get a column value. On a partial instance, requesting a column which was not loaded is rejected
+     * with an <code>IllegalStateException</code>, unless the entity has lazy completion enabled: the
+     * remaining columns are then fetched from the database, and a failure is reported as an unchecked
+     * <code>ModelException</code>.
+     * @param key column name
+     * @return column value
+     */
+    @Override
+    public Serializable get(Object key)
+    {
+        if (loadedColumns != null)
+        {
+            ensureLoaded(key);
+        }
+        return super.get(key);
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue)
+    {
+        if (loadedColumns != null)
+        {
+            ensureLoaded(key);
+        }
+        return super.getLong(key, defaultValue);
+    }
+
+    @Override
+    public double getDouble(String key, double defaultValue)
+    {
+        if (loadedColumns != null)
+        {
+            ensureLoaded(key);
+        }
+        return super.getDouble(key, defaultValue);
+    }
+
+    @Override
+    public Timestamp getTimestamp(String key)
+    {
+        if (loadedColumns != null)
+        {
+            ensureLoaded(key);
+        }
+        return super.getTimestamp(key);
+    }
+
+    /**
+     * Bind lazy LOB handles to this instance, and give a handle to lazy LOB columns left out of the query.
+     */
+    private void bindLobs()
+    {
+        if (entity == null || !entity.hasLazyLobs())
+        {
+            return;
+        }
+        for (Entity.Column column : entity.getColumns())
+        {
+            if (column.isLazy())
+            {
+                // do not trigger the completion of partial instances
+                Serializable value = super.get(column.name);
+                if (value instanceof LobHandle)
+                {
+                    putImpl(column.name, ((LobHandle)value).bind(this));
+                }
+                else if (!column.isIterated() && !containsKey(column.name) && Arrays.stream(getPrimaryKey()).allMatch(Objects::nonNull))
+                {
+                    putImpl(column.name, new LobHandle(column.name, SqlUtils.isBinaryLobType(column.type)).bind(this));
+                }
+            }
+        }
+    }
+
     public Serializable evaluate(String name, Map params) throws SQLException
     {
         return entity.evaluate(name, params == null ? (Map)this : new ChainedMap(this, params));
@@ -343,6 +609,7 @@ public class Instance extends SlotTreeMap
 
     protected void setClean()
     {
+        checkNotFrozen();
         dirtyFlags.clear();
     }
 
@@ -374,13 +641,18 @@ public class Instance extends SlotTreeMap
 
     public void refresh() throws SQLException
     {
+        checkNotFrozen();
         ensurePersisted();
-        Instance myself = getEntity().fetch(getPrimaryKey());
+        getEntity().evictFromCache(this);
+        Instance myself = getEntity().reload(getPrimaryKey());
         super.putAll(myself);
+        loadedColumns = null;
+        bindLobs();
     }
 
     public void delete() throws SQLException
     {
+        checkNotFrozen();
         if (!canWrite)
         {
             throw new SQLException("instance is read-only");
@@ -392,12 +664,30 @@ public class Instance extends SlotTreeMap
 
     public void insert() throws SQLException
     {
+        checkInsert();
+        entity.insert(this);
+        setInserted();
+    }
+
+    /**
+     * Check that this instance can be inserted
+     * @throws SQLException if the instance is read-only or already persisted
+     */
+    protected void checkInsert() throws SQLException
+    {
+        checkNotFrozen();
         if (!canWrite)
         {
             throw new SQLException("instance is read-only");
         }
         ensureNotPersisted();
-        entity.insert(this);
+    }
+
+    /**
+     * Mark this instance as persisted and clean after its insertion
+     */
+    protected void setInserted()
+    {
         persisted = lookupPersisted();
         // the next call is necessary for the following use case:
         // $book.put(...)
@@ -408,11 +698,7 @@ public class Instance extends SlotTreeMap
 
     public void update() throws SQLException
     {
-        if (!canWrite)
-        {
-            throw new SQLException("instance is read-only");
-        }
-        ensurePersisted();
+        checkUpdate();
         if (!isDirty())
         {
             return;
@@ -420,8 +706,23 @@ public class Instance extends SlotTreeMap
         entity.update(this);
     }
 
+    /**
+     * Check that this instance can be updated
+     * @throws SQLException if the instance is read-only or not persisted
+     */
+    protected void checkUpdate() throws SQLException
+    {
+        checkNotFrozen();
+        if (!canWrite)
+        {
+            throw new SQLException("instance is read-only");
+        }
+        ensurePersisted();
+    }
+
     public void upsert() throws SQLException
     {
+        checkNotFrozen();
         if (!canWrite)
         {
             throw new SQLException("instance is read-only");
@@ -432,6 +733,10 @@ public class Instance extends SlotTreeMap
         {
             // TODO - some vendors support upsert
             Instance prev = entity.fetch(getPrimaryKey());
+            if (prev != null && prev.isFrozen())
+            {
+                prev = prev.fork();
+            }
             if (prev == null)
             {
                 persisted = false;
@@ -469,7 +774,7 @@ public class Instance extends SlotTreeMap
                 .filter(col ->
                 {
                     String colName = entity.getColumn(col).name;
-                    return !Objects.equals(get(colName), map.get(colName));
+                    return isLoaded(col) && !Objects.equals(get(colName), map.get(colName));
                 })
                 .forEach(col -> dirtyFlags.set(col));
         }
@@ -507,7 +812,7 @@ public class Instance extends SlotTreeMap
                 .filter(col ->
                 {
                     String colName = entity.getColumn(col).name;
-                    return !Objects.equals(get(colName), map.get(colName));
+                    return isLoaded(col) && !Objects.equals(get(colName), map.get(colName));
                 })
                 .forEach(col -> dirtyFlags.set(col));
         }
@@ -523,6 +828,15 @@ public class Instance extends SlotTreeMap
     public final Serializable put(String key, Serializable value)
     {
         Serializable ret = putImpl(key, value);
+        if (loadedColumns != null)
+        {
+            Optional.ofNullable(entity.getColumn(key)).filter(column -> !loadedColumns.get(column.getIndex())).ifPresent(column ->
+            {
+                // the mask is shared with other rows
+                loadedColumns = (BitSet)loadedColumns.clone();
+                loadedColumns.set(column.getIndex());
+            });
+        }
         if (persisted)
         {
             Entity.Column column = entity.getColumn(key);
@@ -613,6 +927,15 @@ public class Instance extends SlotTreeMap
             {
                 throw new IOException("could not deserialize instance: entity '" + entityName + "' not found");
             }
+            try
+            {
+                // share the entity layout, as forks do
+                rebindLayout(entity.getColumnLayout());
+            }
+            catch (IllegalArgumentException iae)
+            {
+                throw new IOException("could not deserialize instance: columns of entity '" + entityName + "' have changed", iae);
+            }
             if (persisted)
             {
                 try
@@ -647,6 +970,10 @@ public class Instance extends SlotTreeMap
 
     private boolean persisted = false;
 
+    private BitSet loadedColumns = null; // null when all columns are loaded
+
+    private transient boolean frozen = false;
+
     private static final long serialVersionUID = -6234576437555893893L;
 
     private class LazyModelSetter implements Consumer<Model>
@@ -662,7 +989,12 @@ public class Instance extends SlotTreeMap
             setModel(model);
             if (entityName != null)
             {
-                setEntity(model.getEntity(entityName));
+                Entity entity = model.getEntity(entityName);
+                setEntity(entity);
+                if (entity != null && getLayout().isEquivalent(entity.getColumnLayout()))
+                {
+                    rebindLayout(entity.getColumnLayout());
+                }
             }
         }
 
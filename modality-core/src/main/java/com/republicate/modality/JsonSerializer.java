@@ -0,0 +1,676 @@
+package com.republicate.modality;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.impl.RowMapper;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>Streaming JSON serializer, writing rows straight from result sets, without building intermediate instances.</p>
+ * <p>Output is UTF-8 encoded in a fixed size buffer, flushed towards the underlying stream or writer when full,
+ * so that the memory needed does not depend on the number of rows. Property names are encoded once per result set shape.</p>
+ * <p>Numbers are written as JSON numbers (non finite ones as <code>null</code>), dates, times and timestamps as ISO-8601 strings,
+ * binary values as base64 strings. Large objects, binary or character, are streamed by chunks, from the current row
+ * of the result set or from their lazy handle.</p>
+ */
+
+public class JsonSerializer implements Flushable
+{
+    /**
+     * Default buffer size
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public JsonSerializer(OutputStream out)
+    {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonSerializer(OutputStream out, int bufferSize)
+    {
+        this(out, null, bufferSize);
+    }
+
+    public JsonSerializer(Writer writer)
+    {
+        this(writer, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Build a serializer towards a writer. The buffer is only flushed on character boundaries.
+     * @param writer target writer
+     * @param bufferSize buffer size, in bytes
+     */
+    public JsonSerializer(Writer writer, int bufferSize)
+    {
+        this(null, writer, bufferSize);
+    }
+
+    private JsonSerializer(OutputStream out, Writer writer, int bufferSize)
+    {
+        if (bufferSize < MIN_BUFFER_SIZE)
+        {
+            throw new IllegalArgumentException("buffer size must be at least " + MIN_BUFFER_SIZE);
+        }
+        this.out = out;
+        this.writer = writer;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Write all remaining rows of a result set as an array of objects
+     * @param resultSet result set
+     * @param mapper row mapper compiled for this result set
+     * @return number of written rows
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long writeRows(ResultSet resultSet, RowMapper mapper) throws SQLException, IOException
+    {
+        long rows = 0;
+        writeByte('[');
+        while (resultSet.next())
+        {
+            if (rows++ > 0)
+            {
+                writeByte(',');
+            }
+            writeRow(resultSet, mapper);
+        }
+        writeByte(']');
+        return rows;
+    }
+
+    /**
+     * Write the current row of a result set as an object
+     * @param resultSet result set
+     * @param mapper row mapper compiled for this result set
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void writeRow(ResultSet resultSet, RowMapper mapper) throws SQLException, IOException
+    {
+        byte[][] names = getEncodedNames(mapper);
+        writeByte('{');
+        for (int col = 0; col < names.length; ++col)
+        {
+            writeBytes(names[col]);
+            if (mapper.isIntegral(col))
+            {
+                long value = resultSet.getLong(col + 1);
+                if (resultSet.wasNull())
+                {
+                    writeBytes(NULL);
+                }
+                else
+                {
+                    writeLong(value);
+                }
+            }
+            else if (mapper.isFloating(col))
+            {
+                double value = resultSet.getDouble(col + 1);
+                if (resultSet.wasNull())
+                {
+                    writeBytes(NULL);
+                }
+                else
+                {
+                    writeDouble(value);
+                }
+            }
+            else if (mapper.isBinaryLob(col))
+            {
+                // handles read by the mapper are not bound to any instance, stream the current row content instead
+                try (InputStream stream = resultSet.getBinaryStream(col + 1))
+                {
+                    writeBinaryStream(stream);
+                }
+            }
+            else if (mapper.isCharacterLob(col))
+            {
+                try (Reader reader = resultSet.getCharacterStream(col + 1))
+                {
+                    writeCharacterStream(reader);
+                }
+            }
+            else
+            {
+                writeValue(mapper.read(resultSet, col));
+            }
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Write a value: null, string, number, boolean, date, binary, large object, map, collection or array
+     * @param value value
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void writeValue(Object value) throws SQLException, IOException
+    {
+        if (value == null)
+        {
+            writeBytes(NULL);
+        }
+        else if (value instanceof String)
+        {
+            writeString((String)value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            writeLong(((Number)value).longValue());
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            writeDouble(((Number)value).doubleValue());
+        }
+        else if (value instanceof BigDecimal)
+        {
+            writeAscii(((BigDecimal)value).toPlainString());
+        }
+        else if (value instanceof Number)
+        {
+            writeAscii(value.toString());
+        }
+        else if (value instanceof Boolean)
+        {
+            writeBytes((Boolean)value ? TRUE : FALSE);
+        }
+        else if (value instanceof Timestamp)
+        {
+            writeQuotedAscii(((Timestamp)value).toLocalDateTime().toString());
+        }
+        else if (value instanceof java.sql.Date || value instanceof Time)
+        {
+            // yyyy-mm-dd and hh:mm:ss
+            writeQuotedAscii(value.toString());
+        }
+        else if (value instanceof Date)
+        {
+            writeQuotedAscii(((Date)value).toInstant().toString());
+        }
+        else if (value instanceof Calendar)
+        {
+            writeQuotedAscii(((Calendar)value).toInstant().toString());
+        }
+        else if (value instanceof byte[])
+        {
+            writeQuotedAscii(Base64.getEncoder().encodeToString((byte[])value));
+        }
+        else if (value instanceof LobHandle)
+        {
+            writeLob((LobHandle)value);
+        }
+        else if (value instanceof Map)
+        {
+            writeMap((Map<?, ?>)value);
+        }
+        else if (value instanceof Collection)
+        {
+            writeIterator(((Collection<?>)value).iterator());
+        }
+        else if (value instanceof Iterator)
+        {
+            writeIterator((Iterator<?>)value);
+        }
+        else if (value instanceof Object[])
+        {
+            Object[] array = (Object[])value;
+            writeByte('[');
+            for (int i = 0; i < array.length; ++i)
+            {
+                if (i > 0)
+                {
+                    writeByte(',');
+                }
+                writeValue(array[i]);
+            }
+            writeByte(']');
+        }
+        else
+        {
+            writeString(value.toString());
+        }
+    }
+
+    /**
+     * Write a map, like an instance, as an object
+     * @param map map
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void writeMap(Map<?, ?> map) throws SQLException, IOException
+    {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet())
+        {
+            if (!first)
+            {
+                writeByte(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Write the remaining elements of an iterator, like a rowset iterator, as an array
+     * @param iterator iterator
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void writeIterator(Iterator<?> iterator) throws SQLException, IOException
+    {
+        writeByte('[');
+        boolean first = true;
+        while (iterator.hasNext())
+        {
+            if (!first)
+            {
+                writeByte(',');
+            }
+            first = false;
+            writeValue(iterator.next());
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Flush the buffer and the underlying stream or writer
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        if (out != null)
+        {
+            out.flush();
+        }
+        else
+        {
+            writer.flush();
+        }
+    }
+
+    private void writeLob(LobHandle lob) throws SQLException, IOException
+    {
+        if (lob.isBinary())
+        {
+            try (InputStream stream = lob.getBinaryStream())
+            {
+                writeBinaryStream(stream);
+            }
+        }
+        else
+        {
+            try (Reader reader = lob.getCharacterStream())
+            {
+                writeCharacterStream(reader);
+            }
+        }
+    }
+
+    /**
+     * Write binary content as a base64 string, encoding it by chunks of whole base64 quanta
+     */
+    private void writeBinaryStream(InputStream stream) throws IOException
+    {
+        if (stream == null)
+        {
+            writeBytes(NULL);
+            return;
+        }
+        Base64.Encoder encoder = Base64.getEncoder();
+        writeByte('"');
+        byte[] chunk = new byte[3 * 1024];
+        int len;
+        do
+        {
+            len = 0;
+            int read;
+            while (len < chunk.length && (read = stream.read(chunk, len, chunk.length - len)) != -1)
+            {
+                len += read;
+            }
+            if (len > 0)
+            {
+                writeBytes(encoder.encode(len == chunk.length ? chunk : Arrays.copyOf(chunk, len)));
+            }
+        }
+        while (len == chunk.length);
+        writeByte('"');
+    }
+
+    private void writeCharacterStream(Reader reader) throws IOException
+    {
+        if (reader == null)
+        {
+            writeBytes(NULL);
+            return;
+        }
+        writeByte('"');
+        char[] chars = new char[1024];
+        int len, pending = -1;
+        while ((len = reader.read(chars)) != -1)
+        {
+            for (int i = 0; i < len; ++i)
+            {
+                char c = chars[i];
+                if (pending != -1)
+                {
+                    writeCodePoint(Character.isLowSurrogate(c) ? Character.toCodePoint((char)pending, c) : pending);
+                    pending = -1;
+                    if (Character.isLowSurrogate(c))
+                    {
+                        continue;
+                    }
+                }
+                if (Character.isHighSurrogate(c))
+                {
+                    pending = c;
+                }
+                else
+                {
+                    writeCodePoint(c);
+                }
+            }
+        }
+        if (pending != -1)
+        {
+            writeCodePoint(pending);
+        }
+        writeByte('"');
+    }
+
+    private byte[][] getEncodedNames(RowMapper mapper)
+    {
+        if (mapper != namesMapper)
+        {
+            byte[][] names = new byte[mapper.getColumnCount()][];
+            for (int col = 0; col < names.length; ++col)
+            {
+                StringBuilder name = new StringBuilder();
+                if (col > 0)
+                {
+                    name.append(',');
+                }
+                appendQuoted(name, mapper.getKey(col));
+                name.append(':');
+                names[col] = name.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            encodedNames = names;
+            namesMapper = mapper;
+        }
+        return encodedNames;
+    }
+
+    private static void appendQuoted(StringBuilder builder, String str)
+    {
+        builder.append('"');
+        for (int i = 0; i < str.length(); ++i)
+        {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                builder.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    private void writeString(String str) throws IOException
+    {
+        writeByte('"');
+        int len = str.length();
+        for (int i = 0; i < len;)
+        {
+            int codePoint = str.codePointAt(i);
+            writeCodePoint(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write an escaped code point. The buffer is only flushed before a code point.
+     */
+    private void writeCodePoint(int c) throws IOException
+    {
+        if (pos + 6 > buffer.length)
+        {
+            flushBuffer();
+        }
+        if (c < 0x80)
+        {
+            switch (c)
+            {
+                case '"': buffer[pos++] = '\\'; buffer[pos++] = '"'; break;
+                case '\\': buffer[pos++] = '\\'; buffer[pos++] = '\\'; break;
+                case '\n': buffer[pos++] = '\\'; buffer[pos++] = 'n'; break;
+                case '\r': buffer[pos++] = '\\'; buffer[pos++] = 'r'; break;
+                case '\t': buffer[pos++] = '\\'; buffer[pos++] = 't'; break;
+                default:
+                    if (c < 0x20)
+                    {
+                        buffer[pos++] = '\\';
+                        buffer[pos++] = 'u';
+                        buffer[pos++] = '0';
+                        buffer[pos++] = '0';
+                        buffer[pos++] = HEX[c >> 4];
+                        buffer[pos++] = HEX[c & 0xF];
+                    }
+                    else
+                    {
+                        buffer[pos++] = (byte)c;
+                    }
+                    break;
+            }
+        }
+        else if (c < 0x800)
+        {
+            buffer[pos++] = (byte)(0xC0 | (c >> 6));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else if (c < 0x10000)
+        {
+            if (Character.isSurrogate((char)c))
+            {
+                // lone surrogate
+                c = 0xFFFD;
+            }
+            buffer[pos++] = (byte)(0xE0 | (c >> 12));
+            buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else
+        {
+            buffer[pos++] = (byte)(0xF0 | (c >> 18));
+            buffer[pos++] = (byte)(0x80 | ((c >> 12) & 0x3F));
+            buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeLong(long value) throws IOException
+    {
+        if (pos + 20 > buffer.length)
+        {
+            flushBuffer();
+        }
+        if (value == Long.MIN_VALUE)
+        {
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        if (value < 0)
+        {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do
+        {
+            buffer[pos++] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+        // digits were written in reverse order
+        for (int i = start, j = pos - 1; i < j; ++i, --j)
+        {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void writeDouble(double value) throws IOException
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            writeBytes(NULL);
+        }
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            writeLong((long)value);
+        }
+        else
+        {
+            writeAscii(String.valueOf(value));
+        }
+    }
+
+    private void writeQuotedAscii(String str) throws IOException
+    {
+        writeByte('"');
+        writeAscii(str);
+        writeByte('"');
+    }
+
+    private void writeAscii(String str) throws IOException
+    {
+        int len = str.length();
+        for (int i = 0; i < len;)
+        {
+            if (pos == buffer.length)
+            {
+                flushBuffer();
+            }
+            int chunk = Math.min(len - i, buffer.length - pos);
+            for (int end = i + chunk; i < end; ++i)
+            {
+                buffer[pos++] = (byte)str.charAt(i);
+            }
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException
+    {
+        if (pos + bytes.length > buffer.length)
+        {
+            flushBuffer();
+            if (bytes.length > buffer.length)
+            {
+                // only property names can be that long, they are plain UTF-8
+                writeEncoded(bytes, 0, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void writeByte(char c) throws IOException
+    {
+        if (pos == buffer.length)
+        {
+            flushBuffer();
+        }
+        buffer[pos++] = (byte)c;
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (pos > 0)
+        {
+            writeEncoded(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void writeEncoded(byte[] bytes, int offset, int len) throws IOException
+    {
+        if (out != null)
+        {
+            out.write(bytes, offset, len);
+        }
+        else
+        {
+            writer.write(new String(bytes, offset, len, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final int MIN_BUFFER_SIZE = 32;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final Writer writer;
+    private final byte[] buffer;
+    private int pos = 0;
+
+    private RowMapper namesMapper = null;
+    private byte[][] encodedNames = null;
+}
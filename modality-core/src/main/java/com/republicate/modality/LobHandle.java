@@ -0,0 +1,181 @@
+package com.republicate.modality;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.sql.SQLException;
+
+/**
+ * <p>Placeholder for the value of a lazy large object column, which content is only read on demand,
+ * by fetching it again using the primary key of its instance.</p>
+ * <p>Streams returned by {@link #getBinaryStream()} and {@link #getCharacterStream()} hold a database
+ * statement and must be closed.</p>
+ * <p>The content is only read by explicit calls: {@link #toString()} merely gives the column name.</p>
+ */
+
+public class LobHandle implements Serializable
+{
+    /**
+     * Build an unbound handle
+     * @param column column name
+     * @param binary whether column holds binary content
+     */
+    public LobHandle(String column, boolean binary)
+    {
+        this.column = column;
+        this.binary = binary;
+    }
+
+    /**
+     * Get a handle bound to the given instance
+     * @param owner instance holding the large object
+     * @return bound handle
+     */
+    protected LobHandle bind(Instance owner)
+    {
+        if (this.owner == owner)
+        {
+            return this;
+        }
+        LobHandle handle = this.owner == null ? this : new LobHandle(column, binary);
+        handle.owner = owner;
+        return handle;
+    }
+
+    public String getColumn()
+    {
+        return column;
+    }
+
+    public boolean isBinary()
+    {
+        return binary;
+    }
+
+    /**
+     * Stream the large object content
+     * @return binary stream, or null
+     * @throws SQLException
+     */
+    public InputStream getBinaryStream() throws SQLException
+    {
+        return getLobAttribute().evaluateBinaryStream(owner);
+    }
+
+    /**
+     * Stream the large object content
+     * @return character stream, or null
+     * @throws SQLException
+     */
+    public Reader getCharacterStream() throws SQLException
+    {
+        return getLobAttribute().evaluateCharacterStream(owner);
+    }
+
+    /**
+     * Read the whole large object content
+     * @return content bytes, or null
+     * @throws SQLException
+     */
+    public byte[] getBytes() throws SQLException
+    {
+        try (InputStream stream = getBinaryStream())
+        {
+            if (stream == null)
+            {
+                return null;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = stream.read(buffer)) != -1)
+            {
+                content.write(buffer, 0, len);
+            }
+            return content.toByteArray();
+        }
+        catch (IOException ioe)
+        {
+            throw new SQLException("could not read column " + column, ioe);
+        }
+    }
+
+    /**
+     * Read the whole large object content
+     * @return content string, or null
+     * @throws SQLException
+     */
+    public String getString() throws SQLException
+    {
+        try (Reader reader = getCharacterStream())
+        {
+            if (reader == null)
+            {
+                return null;
+            }
+            StringWriter content = new StringWriter();
+            char[] buffer = new char[8192];
+            int len;
+            while ((len = reader.read(buffer)) != -1)
+            {
+                content.write(buffer, 0, len);
+            }
+            return content.toString();
+        }
+        catch (IOException ioe)
+        {
+            throw new SQLException("could not read column " + column, ioe);
+        }
+    }
+
+    /**
+     * Placeholder rendering, which doesn't access the database: use {@link #getString()} to read the content.
+     * @return column name between brackets
+     */
+    @Override
+    public String toString()
+    {
+        return "[" + column + "]";
+    }
+
+    private ScalarAttribute getLobAttribute() throws SQLException
+    {
+        if (owner == null)
+        {
+            throw new SQLException("column " + column + ": handle is not bound to any instance");
+        }
+        Entity entity = owner.getEntity();
+        ScalarAttribute lobAttribute = entity == null ? null : entity.getLobAttribute(column);
+        if (lobAttribute == null)
+        {
+            throw new SQLException("column " + column + " is not a lazy LOB column");
+        }
+        return lobAttribute;
+    }
+
+    private final String column;
+    private final boolean binary;
+    private transient Instance owner = null;
+}
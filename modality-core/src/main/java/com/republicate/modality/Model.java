@@ -20,8 +20,10 @@ package com.republicate.modality;
  */
 
 import com.republicate.modality.impl.BaseModel;
+import com.republicate.modality.impl.WriteBehindQueue;
 import com.republicate.modality.sql.ConnectionWrapper;
 import com.republicate.modality.sql.PooledStatement;
+import com.republicate.modality.sql.PrepareHint;
 import com.republicate.modality.sql.StatementPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,9 +55,21 @@ public class Model extends BaseModel
      * @return the pooled prepared statement corresponding to the query
      */
     protected PooledStatement prepareQuery(String query) throws SQLException
+    {
+        return prepareQuery(query, null);
+    }
+
+    /**
+     * Prepare a query.
+     *
+     * @param query an sql query
+     * @param hint server or client side preparation hint, or null
+     * @return the pooled prepared statement corresponding to the query
+     */
+    protected PooledStatement prepareQuery(String query, PrepareHint hint) throws SQLException
     {
         checkInitialized();
-        return getStatementPool().prepareQuery(query);
+        return getStatementPool().prepareQuery(query, hint);
     }
 
     /**
@@ -65,9 +79,21 @@ public class Model extends BaseModel
      * @return the pooled prepared statement corresponding to the query
      */
     protected PooledStatement prepareUpdate(String query) throws SQLException
+    {
+        return prepareUpdate(query, null);
+    }
+
+    /**
+     * Prepare an update query.
+     *
+     * @param query an sql query
+     * @param hint server or client side preparation hint, or null
+     * @return the pooled prepared statement corresponding to the query
+     */
+    protected PooledStatement prepareUpdate(String query, PrepareHint hint) throws SQLException
     {
         checkInitialized();
-        return getStatementPool().prepareUpdate(query);
+        return getStatementPool().prepareUpdate(query, hint);
     }
 
     /**
@@ -82,6 +108,12 @@ public class Model extends BaseModel
         return super.getTransactionConnection();
     }
 
+    @Override
+    protected void addWriteBehindQueue(WriteBehindQueue queue)
+    {
+        super.addWriteBehindQueue(queue);
+    }
+
     /**
      * Perform operations inside a transaction connection
      */
@@ -94,11 +126,20 @@ public class Model extends BaseModel
             connection = getModel().getTransactionConnection();
             connection.enterBusyState();
             StatementPool.setCurrentTransactionConnection(getModelId(), connection);
-            operation.run();
+            if (isIdentityMap())
+            {
+                withIdentityMap(operation);
+            }
+            else
+            {
+                operation.run();
+            }
             connection.commit();
         }
         catch (SQLException sqle)
         {
+            // known instances may reflect rolled back changes
+            clearIdentityMap();
             try
             {
                 getLogger().error("initiating transaction rollback upon error", sqle);
@@ -122,4 +163,25 @@ public class Model extends BaseModel
             }
         }
     }
+
+    /**
+     * Perform operations inside an identity map: within it, fetching several times the same row
+     * gives back the same instance.
+     */
+    public void withIdentityMap(ModelRunnable operation) throws SQLException
+    {
+        checkInitialized();
+        boolean opened = openIdentityMap();
+        try
+        {
+            operation.run();
+        }
+        finally
+        {
+            if (opened)
+            {
+                closeIdentityMap();
+            }
+        }
+    }
 }
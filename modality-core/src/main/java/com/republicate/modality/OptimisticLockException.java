@@ -0,0 +1,74 @@
+package com.republicate.modality;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Thrown when the update or the deletion of a row of a versioned entity affects no row: the row has been
+ * modified or deleted since its version was read. The caller may fetch the row again and retry.
+ */
+public class OptimisticLockException extends SQLException
+{
+    private static final long serialVersionUID = -3265781519371804215L;
+
+    /**
+     * SQL state of serialization failures
+     */
+    public static final String SQL_STATE = "40001";
+
+    /**
+     * @param entityName entity name
+     * @param key primary key values of the row
+     * @param version expected version of the row
+     */
+    public OptimisticLockException(String entityName, Serializable[] key, Serializable version)
+    {
+        super("entity " + entityName + ": row " + Arrays.toString(key) + " was modified or deleted since version " + version, SQL_STATE);
+        this.entityName = entityName;
+        this.key = key;
+        this.version = version;
+    }
+
+    public String getEntityName()
+    {
+        return entityName;
+    }
+
+    public Serializable[] getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Get the version the row was expected to have
+     * @return expected version
+     */
+    public Serializable getVersion()
+    {
+        return version;
+    }
+
+    private final String entityName;
+    private final Serializable[] key;
+    private final Serializable version;
+}
@@ -19,13 +19,17 @@ package com.republicate.modality;
  * under the License.
  */
 
+import com.republicate.modality.cache.NegativeCache;
 import com.republicate.modality.impl.AttributeHolder;
 import com.republicate.modality.sql.PooledStatement;
+import com.republicate.modality.util.ConfigUtils;
 
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class RowAttribute extends Attribute
 {
@@ -34,6 +38,30 @@ public class RowAttribute extends Attribute
         super(name, parent);
     }
 
+    @Override
+    protected void initializeCaches()
+    {
+        if (negativeCacheTtl > 0 && !isKeyLookup())
+        {
+            negativeCache = new NegativeCache(negativeCacheTtl);
+            Entity resultEntity = getResultEntity();
+            if (resultEntity != null)
+            {
+                resultEntity.addNegativeCache(negativeCache);
+            }
+        }
+    }
+
+    /**
+     * Remember for the given duration the parameter values for which this attribute did not find any row.
+     * Expressed in seconds, or with an explicit <code>ms</code>, <code>s</code>, <code>m</code> or <code>h</code> unit.
+     * @param negativeCacheTtl time to live of misses
+     */
+    protected void setNegativeCacheTtl(String negativeCacheTtl)
+    {
+        this.negativeCacheTtl = ConfigUtils.parseDuration(negativeCacheTtl, TimeUnit.SECONDS);
+    }
+
     public Instance retrieve(Serializable... paramValues) throws SQLException
     {
         return retrieveImpl(getParamValues(paramValues));
@@ -49,19 +77,89 @@ public class RowAttribute extends Attribute
         return retrieveImpl(getParamValues(source, params));
     }
 
+    /**
+     * Read a row from the database, bypassing caches
+     * @param params parameter values
+     * @return instance or null
+     * @throws SQLException
+     */
+    protected Instance retrieveRow(Serializable... params) throws SQLException
+    {
+        return readRow(getParamValues(params));
+    }
+
     protected Instance retrieveImpl(Serializable... paramValues) throws SQLException
+    {
+        Entity resultEntity = getResultEntity();
+        boolean keyLookup = isKeyLookup() && resultEntity != null;
+        boolean useCache = false;
+        if (keyLookup)
+        {
+            Instance known = resultEntity.getIdentified(paramValues);
+            if (known != null)
+            {
+                return known;
+            }
+            if (resultEntity.isKnownMissing(paramValues))
+            {
+                return null;
+            }
+            if (resultEntity.isCached())
+            {
+                Instance cached = resultEntity.getCachedInstance(paramValues);
+                if (cached != null)
+                {
+                    return resultEntity.identify(cached);
+                }
+                useCache = true;
+            }
+        }
+        else if (negativeCache != null && negativeCache.contains(Arrays.asList(paramValues)))
+        {
+            return null;
+        }
+        Instance instance = coalesce(paramValues, () -> readRow(paramValues), this::copyInstance);
+        if (instance == null)
+        {
+            if (keyLookup)
+            {
+                resultEntity.rememberMissing(paramValues);
+            }
+            else if (negativeCache != null)
+            {
+                negativeCache.put(Arrays.asList(paramValues));
+            }
+        }
+        else if (resultEntity != null)
+        {
+            if (useCache)
+            {
+                instance = resultEntity.cacheInstance(instance);
+            }
+            instance = resultEntity.identify(instance);
+        }
+        return instance;
+    }
+
+    private Instance copyInstance(Instance instance)
+    {
+        // values are only copied if modified
+        return instance.fork();
+    }
+
+    private Instance readRow(Serializable... paramValues) throws SQLException
     {
         Instance instance = null;
         PooledStatement statement = null;
         try
         {
-            statement = getModel().prepareQuery(getQuery());
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
             statement.getConnection().enterBusyState();
-            ResultSet result = statement.executeQuery(paramValues);
+            ResultSet result = statement.executeQuery(getBinders(), paramValues);
             if (result.next())
             {
                 instance = newResultInstance();
-                instance.readValues(statement);
+                instance.readValues(result, getRowMapper(result));
             }
         }
         finally
@@ -80,4 +178,20 @@ public class RowAttribute extends Attribute
         return "retrieve";
     }
 
+    /**
+     * Copies don't share the negative cache of their source, whose misses may not apply to their query
+     * @return attribute copy
+     * @throws SQLException if the attribute cannot be copied
+     */
+    @Override
+    protected RowAttribute copy() throws SQLException
+    {
+        RowAttribute copy = (RowAttribute)super.copy();
+        copy.negativeCache = null;
+        return copy;
+    }
+
+    private long negativeCacheTtl = 0;
+    private NegativeCache negativeCache = null;
+
 }
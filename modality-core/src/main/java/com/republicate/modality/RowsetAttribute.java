@@ -21,12 +21,17 @@ package com.republicate.modality;
 
 import com.republicate.modality.impl.AttributeHolder;
 import com.republicate.modality.impl.RowIterator;
+import com.republicate.modality.impl.RowMapper;
 import com.republicate.modality.sql.PooledStatement;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 
 public class RowsetAttribute extends Attribute
@@ -53,15 +58,29 @@ public class RowsetAttribute extends Attribute
 
     protected Iterator<Instance> queryImpl(Serializable... params) throws SQLException
     {
+        if (isCoalesce())
+        {
+            // coalesced rowsets are shared, hence fully read
+            List<Instance> rows = coalesce(params, () -> readRows(params), this::copyRows);
+            Entity resultEntity = getResultEntity();
+            if (resultEntity != null)
+            {
+                for (ListIterator<Instance> it = rows.listIterator(); it.hasNext();)
+                {
+                    it.set(resultEntity.identify(it.next()));
+                }
+            }
+            return rows.iterator();
+        }
         Iterator<Instance> iterator = null;
         PooledStatement statement = null;
         ResultSet result = null;
         try
         {
-            statement = getModel().prepareQuery(getQuery());
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
             statement.getConnection().enterBusyState();
-            result = statement.executeQuery(params);
-            iterator = new RowIterator(getParent(), statement, result, getResultEntity());
+            result = statement.executeQuery(getBinders(), params);
+            iterator = new RowIterator(getParent(), statement, result, getResultEntity(), getRowMapper(result));
         }
         finally
         {
@@ -77,6 +96,135 @@ public class RowsetAttribute extends Attribute
         return iterator;
     }
 
+    /**
+     * Read all rows in a column oriented result
+     * @param params query parameters
+     * @return columnar result
+     * @throws SQLException
+     */
+    public ColumnarResult queryColumnar(Serializable... params) throws SQLException
+    {
+        return queryColumnarImpl(getParamValues(params));
+    }
+
+    public ColumnarResult queryColumnar(Map source) throws SQLException
+    {
+        return queryColumnarImpl(getParamValues(source));
+    }
+
+    public ColumnarResult queryColumnar(Map source, Serializable... params) throws SQLException
+    {
+        return queryColumnarImpl(getParamValues(source, params));
+    }
+
+    protected ColumnarResult queryColumnarImpl(Serializable... params) throws SQLException
+    {
+        PooledStatement statement = null;
+        try
+        {
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            ResultSet result = statement.executeQuery(getBinders(), params);
+            RowMapper mapper = getRowMapper(result);
+            ColumnarResult columnar = new ColumnarResult(mapper);
+            while (result.next())
+            {
+                columnar.readRow(result, mapper);
+            }
+            return columnar;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
+    }
+
+    /**
+     * Stream all rows as a JSON array, without building instances
+     * @param serializer JSON serializer
+     * @param params query parameters
+     * @return number of rows
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long queryJson(JsonSerializer serializer, Serializable... params) throws SQLException, IOException
+    {
+        return queryJsonImpl(serializer, getParamValues(params));
+    }
+
+    public long queryJson(JsonSerializer serializer, Map source) throws SQLException, IOException
+    {
+        return queryJsonImpl(serializer, getParamValues(source));
+    }
+
+    public long queryJson(JsonSerializer serializer, Map source, Serializable... params) throws SQLException, IOException
+    {
+        return queryJsonImpl(serializer, getParamValues(source, params));
+    }
+
+    protected long queryJsonImpl(JsonSerializer serializer, Serializable... params) throws SQLException, IOException
+    {
+        PooledStatement statement = null;
+        try
+        {
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            ResultSet result = statement.executeQuery(getBinders(), params);
+            return serializer.writeRows(result, getRowMapper(result));
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
+    }
+
+    private List<Instance> readRows(Serializable... params) throws SQLException
+    {
+        List<Instance> rows = new ArrayList<>();
+        PooledStatement statement = null;
+        try
+        {
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            ResultSet result = statement.executeQuery(getBinders(), params);
+            RowMapper mapper = getRowMapper(result);
+            while (result.next())
+            {
+                Instance row = newResultInstance();
+                row.readValues(result, mapper);
+                rows.add(row);
+            }
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
+        return rows;
+    }
+
+    private List<Instance> copyRows(List<Instance> rows)
+    {
+        List<Instance> copies = new ArrayList<>(rows.size());
+        for (Instance row : rows)
+        {
+            // values are only copied if modified
+            copies.add(row.fork());
+        }
+        return copies;
+    }
+
     public String getQueryMethodName()
     {
         return "query";
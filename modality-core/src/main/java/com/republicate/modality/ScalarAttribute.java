@@ -23,9 +23,15 @@ import com.republicate.modality.impl.AttributeHolder;
 import com.republicate.modality.sql.PooledStatement;
 import com.republicate.modality.util.TypeUtils;
 
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Date;
 import java.util.Map;
 
 public class ScalarAttribute extends Attribute
@@ -51,14 +57,32 @@ public class ScalarAttribute extends Attribute
     }
 
     protected Serializable evaluateImpl(Serializable... paramValues) throws SQLException
+    {
+        return coalesce(paramValues, () -> readValue(paramValues), ScalarAttribute::copyValue);
+    }
+
+    private static Serializable copyValue(Serializable value)
+    {
+        if (value instanceof Date)
+        {
+            return (Serializable)((Date)value).clone();
+        }
+        if (value instanceof byte[])
+        {
+            return ((byte[])value).clone();
+        }
+        return value;
+    }
+
+    private Serializable readValue(Serializable... paramValues) throws SQLException
     {
         Serializable value = null;
         PooledStatement statement = null;
         try
         {
-            statement = getModel().prepareQuery(getQuery());
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
             statement.getConnection().enterBusyState();
-            ResultSet result = statement.executeQuery(paramValues);
+            ResultSet result = statement.executeQuery(getBinders(), paramValues);
             if (result.next())
             {
                 value = (Serializable)result.getObject(1);
@@ -79,6 +103,126 @@ public class ScalarAttribute extends Attribute
         return value;
     }
 
+    /**
+     * Evaluate this attribute as a binary stream, without reading the whole value in memory.
+     * The underlying statement is released when the stream is closed.
+     * @param source source map
+     * @return binary stream, or null
+     * @throws SQLException
+     */
+    public InputStream evaluateBinaryStream(Map source) throws SQLException
+    {
+        PooledStatement statement = null;
+        InputStream stream = null;
+        try
+        {
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            ResultSet result = statement.executeQuery(getBinders(), getParamValues(source));
+            if (result.next())
+            {
+                stream = result.getBinaryStream(1);
+            }
+        }
+        finally
+        {
+            // when a stream is returned, the statement stays busy until it is closed
+            if (statement != null && stream == null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
+        if (stream == null)
+        {
+            return null;
+        }
+        PooledStatement openStatement = statement;
+        return new FilterInputStream(stream)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    openStatement.notifyOver();
+                    openStatement.getConnection().leaveBusyState();
+                }
+            }
+
+            private boolean closed = false;
+        };
+    }
+
+    /**
+     * Evaluate this attribute as a character stream, without reading the whole value in memory.
+     * The underlying statement is released when the reader is closed.
+     * @param source source map
+     * @return character stream, or null
+     * @throws SQLException
+     */
+    public Reader evaluateCharacterStream(Map source) throws SQLException
+    {
+        PooledStatement statement = null;
+        Reader reader = null;
+        try
+        {
+            statement = getModel().prepareQuery(getQuery(), getPrepareHint());
+            statement.getConnection().enterBusyState();
+            ResultSet result = statement.executeQuery(getBinders(), getParamValues(source));
+            if (result.next())
+            {
+                reader = result.getCharacterStream(1);
+            }
+        }
+        finally
+        {
+            // when a reader is returned, the statement stays busy until it is closed
+            if (statement != null && reader == null)
+            {
+                statement.notifyOver();
+                statement.getConnection().leaveBusyState();
+            }
+        }
+        if (reader == null)
+        {
+            return null;
+        }
+        PooledStatement openStatement = statement;
+        return new FilterReader(reader)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    openStatement.notifyOver();
+                    openStatement.getConnection().leaveBusyState();
+                }
+            }
+
+            private boolean closed = false;
+        };
+    }
+
     public String getQueryMethodName()
     {
         return "evaluate";
@@ -33,9 +33,9 @@ import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Savepoint;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Function;
 
 public class Transaction extends Action
 {
@@ -157,43 +157,18 @@ public class Transaction extends Action
 
     protected List<String> getStatements() throws SQLException
     {
-        if (statements == null)
-        {
-            // if statements are null at this point, this may be a mergeable query
-            if (originalQuery == null) throw new SQLException("unhandled case");
-            return splitStatements();
-        }
-        return statements;
+        return getPlan().getStatements();
     }
 
-    private List<String> splitStatements() throws SQLException
+    /**
+     * Statements are split once, when compiling the query plan
+     * @return statements splitter
+     */
+    @Override
+    protected Function<String, List<String>> getStatementsSplitter()
     {
         boolean considerDollar = getModel().getDriverInfos().getTag().equals("postgresql");
         Character quoteChar = getModel().getDriverInfos().getIdentifierQuoteChar();
-        return SqlUtils.splitStatements(getQuery(), quoteChar, considerDollar);
+        return query -> SqlUtils.splitStatements(query, quoteChar, considerDollar);
     }
-
-    @Override
-    public void initialize()
-    {
-        super.initialize();
-        try
-        {
-            statements = splitStatements();
-        }
-        catch (SQLException sqle)
-        {
-            throw new ConfigurationException("unknown error", sqle);
-        }
-    }
-
-    @Override
-    public synchronized void setQuery(String qry)
-    {
-        super.setQuery(qry);
-        statements = null; // triggers recalculation
-    }
-
-    private List<String> statements = null;
-    private List<List<String>> parameterNamesLists = new ArrayList<>();
 }
@@ -19,13 +19,13 @@ package com.republicate.modality;
  * under the License.
  */
 
+import com.republicate.modality.impl.RowMapper;
+import com.republicate.modality.util.BeanProperty;
 import com.republicate.modality.util.Converter;
 import com.republicate.modality.util.TypeUtils;
-import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Wrapper;
 import java.util.HashMap;
@@ -38,95 +38,130 @@ public class WrappingInstance extends Instance implements Wrapper
     {
         super(entity);
         this.pojo = pojo;
-        this.getters = Optional.ofNullable(entity.getWrappedInstanceGetters()).orElse(new HashMap<>());
-        this.setters = Optional.ofNullable(entity.getWrappedInstanceSetters()).orElse(new HashMap<>());
+        this.properties = Optional.ofNullable(entity.getWrappedInstanceProperties()).orElse(new HashMap<>());
     }
 
-    private Serializable callSetter(Pair<Method, Class> setter, Serializable value)
+    private Serializable callSetter(BeanProperty property, Serializable value)
     {
+        checkNotFrozen();
         Serializable ret = null;
-        Method method = setter.getLeft();
-        Class paramClass = setter.getRight();
-        try
+        Class paramClass = property.getType();
+        if (value != null && value.getClass() != paramClass && !TypeUtils.isMethodInvocationConvertible(paramClass, value.getClass()))
         {
-            if (value != null && value.getClass() != paramClass && !TypeUtils.isMethodInvocationConvertible(paramClass, value.getClass()))
+            Converter converter = getModel().getConversionHandler().getNeededConverter(paramClass, value.getClass());
+            if (converter == null)
             {
-                Converter converter = getModel().getConversionHandler().getNeededConverter(paramClass, value.getClass());
-                if (converter == null)
-                {
-                    throw new RuntimeException("cannot convert object '" + value + "' of class " + value.getClass().getName() + " to class " + paramClass.getName() + " for setter " + method);
-                }
-                value = converter.convert(value);
+                throw new RuntimeException("cannot convert object '" + value + "' of class " + value.getClass().getName() + " to class " + paramClass.getName() + " for setter " + property.getWriteMethod());
             }
-            Object methodRet = method.invoke(pojo, value);
-            if (methodRet != null && !(methodRet instanceof Void))
+            value = converter.convert(value);
+        }
+        Object methodRet = property.set(pojo, value);
+        if (methodRet != null)
+        {
+            if (!(methodRet instanceof Serializable))
             {
-                if (!(methodRet instanceof Serializable))
-                {
-                    throw new RuntimeException("setter '" + method + "' did return a non-serializable object");
-                }
-                ret = (Serializable)methodRet;
+                throw new RuntimeException("setter '" + property.getWriteMethod() + "' did return a non-serializable object");
             }
+            ret = (Serializable)methodRet;
         }
-        catch (IllegalAccessException | InvocationTargetException e)
+        return ret;
+    }
+
+    /**
+     * Rows are read directly into the wrapped object properties, using the property bindings of the row mapper.
+     * @param resultSet result set
+     * @param mapper row mapper compiled for this result set
+     * @throws SQLException
+     */
+    @Override
+    protected void readColumns(ResultSet resultSet, RowMapper mapper) throws SQLException
+    {
+        BeanProperty[] bindings = getEntity().getWrappedInstanceBindings(mapper);
+        if (bindings == null)
         {
-            throw new RuntimeException("could not set property using setter " + method, e);
+            super.readColumns(resultSet, mapper);
+            return;
+        }
+        for (int col = 0; col < bindings.length; ++col)
+        {
+            Serializable value = mapper.read(resultSet, col);
+            BeanProperty property = bindings[col];
+            if (property == null)
+            {
+                super.putImpl(mapper.getKey(col), value);
+            }
+            else
+            {
+                callSetter(property, value);
+            }
+        }
+    }
+
+    /**
+     * Wrapped objects cannot share their state, so their properties are copied.
+     * @param source source instance
+     */
+    @Override
+    protected void forkValues(Instance source)
+    {
+        super.forkValues(source);
+        if (source instanceof WrappingInstance)
+        {
+            Object sourcePojo = ((WrappingInstance)source).pojo;
+            for (BeanProperty property : properties.values())
+            {
+                if (property.isReadable() && property.isWritable())
+                {
+                    property.set(pojo, property.get(sourcePojo));
+                }
+            }
         }
-        return ret;
     }
 
     @Override
     public void readValue(String columnName, Serializable value) throws SQLException
     {
-        Pair<Method, Class> setter = setters.get(columnName);
-        if (setter == null)
+        BeanProperty property = properties.get(columnName);
+        if (property == null || !property.isWritable())
         {
             super.readValue(columnName, value);
         }
         else
         {
-            callSetter(setter, value);
+            callSetter(property, value);
         }
     }
 
     @Override
     public Serializable get(Object key)
     {
-        Method getter = getters.get(key);
-        if (getter == null)
+        BeanProperty property = properties.get(key);
+        if (property == null || !property.isReadable())
         {
             return super.get(key);
         }
         else
         {
-            try
-            {
-                return (Serializable)getter.invoke(pojo);
-            }
-            catch (IllegalAccessException | InvocationTargetException e)
-            {
-                throw new RuntimeException("could not get property " + key, e);
-            }
+            return (Serializable)property.get(pojo);
         }
     }
 
     @Override
     protected Serializable putImpl(String key, Serializable value)
     {
-        Pair<Method, Class> setter = setters.get(key);
-        if (setter == null)
+        BeanProperty property = properties.get(key);
+        if (property == null || !property.isWritable())
         {
             return super.putImpl(key, value);
         }
         else
         {
-            return callSetter(setter, value);
+            return callSetter(property, value);
         }
     }
 
     private Object pojo;
-    private Map<String, Method> getters = null;
-    private Map<String, Pair<Method, Class>> setters = null;
+    private Map<String, BeanProperty> properties = null;
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException
@@ -166,8 +201,12 @@ public class WrappingInstance extends Instance implements Wrapper
             }
             builder.append(entry.getKey()).append('=').append(entry.getValue());
         }
-        for (Map.Entry<String, Method> entry : getters.entrySet())
+        for (BeanProperty property : properties.values())
         {
+            if (!property.isReadable())
+            {
+                continue;
+            }
             if (first)
             {
                 first = false;
@@ -176,13 +215,13 @@ public class WrappingInstance extends Instance implements Wrapper
             {
                 builder.append(", ");
             }
-            builder.append(entry.getKey()).append('=');
+            builder.append(property.getName()).append('=');
             String value = null;
             try
             {
-                value = String.valueOf(entry.getValue().invoke(pojo));
+                value = String.valueOf(property.get(pojo));
             }
-            catch (IllegalAccessException | InvocationTargetException e)
+            catch (RuntimeException e)
             {
                 value = e.getClass().getName();
             }
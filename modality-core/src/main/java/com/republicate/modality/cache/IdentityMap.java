@@ -0,0 +1,126 @@
+package com.republicate.modality.cache;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.Entity;
+import com.republicate.modality.Instance;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Identity map: keeps at most one instance per (entity, primary key) for the duration of a scope
+ * (typically a request or a transaction).</p>
+ * <p>An identity map is bound to a single thread and is not synchronized. When full, least recently
+ * used instances are forgotten.</p>
+ */
+
+public class IdentityMap
+{
+    public IdentityMap(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the known instance for a primary key
+     * @param entity instance entity
+     * @param key normalized primary key values
+     * @return known instance or null
+     */
+    public Instance get(Entity entity, Serializable[] key)
+    {
+        return instances.get(new Key(entity, key));
+    }
+
+    /**
+     * Register an instance, unless another one is already known for the same primary key.
+     * @param entity instance entity
+     * @param key normalized primary key values
+     * @param instance candidate instance
+     * @return the known instance if any, the candidate instance otherwise
+     */
+    public Instance putIfAbsent(Entity entity, Serializable[] key, Instance instance)
+    {
+        Instance known = instances.putIfAbsent(new Key(entity, key), instance);
+        return known == null ? instance : known;
+    }
+
+    public Instance remove(Entity entity, Serializable[] key)
+    {
+        return instances.remove(new Key(entity, key));
+    }
+
+    /**
+     * Forget all the known instances of an entity
+     * @param entity entity
+     */
+    public void removeAll(Entity entity)
+    {
+        instances.keySet().removeIf(key -> key.entity == entity);
+    }
+
+    public void clear()
+    {
+        instances.clear();
+    }
+
+    public int size()
+    {
+        return instances.size();
+    }
+
+    private static final class Key
+    {
+        private Key(Entity entity, Serializable[] values)
+        {
+            this.entity = entity;
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && entity == ((Key)o).entity && Arrays.equals(values, ((Key)o).values);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(entity) + Arrays.hashCode(values);
+        }
+
+        private final Entity entity;
+        private final Serializable[] values;
+    }
+
+    private final int maxSize;
+
+    private final Map<Key, Instance> instances = new LinkedHashMap<Key, Instance>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Instance> eldest)
+        {
+            return size() > maxSize;
+        }
+    };
+}
@@ -0,0 +1,109 @@
+package com.republicate.modality.cache;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Remembers, for a limited time, the keys for which a lookup did not find anything.</p>
+ * <p>The number of remembered keys is bounded: when full, the oldest keys are forgotten first.</p>
+ */
+
+public class NegativeCache
+{
+    /**
+     * Default maximum number of remembered keys
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public NegativeCache(long ttl)
+    {
+        this(ttl, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Build a new negative cache
+     * @param ttl time to live of entries, in milliseconds
+     * @param maxSize maximum number of entries
+     */
+    public NegativeCache(long ttl, int maxSize)
+    {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Check whether a lookup recently failed for this key
+     * @param key lookup key
+     * @return whether the key is known to be missing
+     */
+    public synchronized boolean contains(Object key)
+    {
+        Long expiration = entries.get(key);
+        if (expiration == null)
+        {
+            return false;
+        }
+        if (expiration < System.currentTimeMillis())
+        {
+            entries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void put(Object key)
+    {
+        entries.put(key, System.currentTimeMillis() + ttl);
+    }
+
+    public synchronized void remove(Object key)
+    {
+        entries.remove(key);
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public long getTtl()
+    {
+        return ttl;
+    }
+
+    private final long ttl;
+    private final int maxSize;
+
+    private final Map<Object, Long> entries = new LinkedHashMap<Object, Long>()
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest)
+        {
+            return size() > maxSize;
+        }
+    };
+}
@@ -0,0 +1,454 @@
+package com.republicate.modality.cache;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.config.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Size-bounded store of encoded rows, kept outside of the java heap.</p>
+ * <p>Rows are appended, along with their key, to a ring of fixed size slabs, which are either direct buffers
+ * or memory-mapped regions of a backing file. Only the keys index lives on the heap. When the ring is full,
+ * the oldest slab is recycled and all the rows it contained are evicted at once.</p>
+ * <p>Rows are decoded on each read, so callers always get their own copy of the values.</p>
+ */
+
+public class OffHeapRowStore
+{
+    protected static Logger logger = LoggerFactory.getLogger("cache");
+
+    /**
+     * Default maximum slab size
+     */
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_SLABS = 0xFFFF;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D434331; // 'MCC1'
+
+    public OffHeapRowStore(long capacity)
+    {
+        this(capacity, null);
+    }
+
+    /**
+     * Build a new store
+     * @param capacity store capacity, in bytes
+     * @param backingFile backing file for memory-mapped slabs, or <code>null</code> for direct buffers
+     */
+    public OffHeapRowStore(long capacity, File backingFile)
+    {
+        int slabsCount = (int)Math.max(2, (capacity + DEFAULT_SLAB_SIZE - 1) / DEFAULT_SLAB_SIZE);
+        if (slabsCount > MAX_SLABS)
+        {
+            throw new ConfigurationException("cache capacity too big: " + capacity);
+        }
+        this.slabSize = (int)(capacity / slabsCount);
+        this.slabs = new Slab[slabsCount];
+        for (int i = 0; i < slabsCount; ++i)
+        {
+            slabs[i] = new Slab();
+        }
+        this.backingFile = backingFile;
+    }
+
+    /**
+     * Get a copy of a stored row.
+     * @param key row key values
+     * @return row values, or <code>null</code> if not found
+     */
+    public Serializable[] get(Serializable[] key) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            Long location = index.get(indexKey(key));
+            if (location == null)
+            {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            Slab slab = slabs[slabIndex(location)];
+            RowCodec.Input in = new RowCodec.Input(slab.buffer, offset(location) + 4);
+            RowCodec.decode(in); // key
+            return RowCodec.decode(in);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Store a row, replacing any previous row with the same key. Rows too big to fit in a slab are ignored.
+     * @param key row key values
+     * @param row row values
+     * @return whether the row has been stored
+     */
+    public boolean put(Serializable[] key, Serializable[] row) throws IOException
+    {
+        RowCodec.Output out = output.get();
+        out.reset();
+        RowCodec.encode(key, out);
+        RowCodec.encode(row, out);
+        int length = out.size();
+        if (length + 4 > slabSize)
+        {
+            logger.debug("row too big for cache slabs: {} bytes", length);
+            return false;
+        }
+        lock.writeLock().lock();
+        try
+        {
+            append(indexKey(key), ByteBuffer.wrap(out.array(), 0, length));
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evict a row.
+     * @param key row key values
+     */
+    public void remove(Serializable[] key)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            index.remove(indexKey(key));
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evict all rows. Slabs memory is kept.
+     */
+    public void clear()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            index.clear();
+            for (Slab slab : slabs)
+            {
+                slab.position = 0;
+                ++slab.generation;
+            }
+            current = 0;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return index.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCapacity()
+    {
+        return (long)slabSize * slabs.length;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Write all the stored rows to a snapshot file. The snapshot header holds the row codec version, the rows
+     * layout and the freshness token, which must all match when loading the snapshot.
+     * @param file snapshot file
+     * @param layout description of the stored rows columns, like their names and types
+     * @param freshness freshness token of the stored rows
+     * @return number of written rows
+     */
+    public int writeSnapshot(File file, String layout, String freshness) throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        int count = 0;
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+        {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(RowCodec.VERSION);
+            byte[] header = layout.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(header.length);
+            out.write(header);
+            byte[] token = freshness.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(token.length);
+            out.write(token);
+            byte[] bytes = new byte[256];
+            // oldest slabs first, so that the most recent rows survive a reload in a smaller store
+            for (int i = 1; i <= slabs.length; ++i)
+            {
+                int slabIndex = (current + i) % slabs.length;
+                Slab slab = slabs[slabIndex];
+                int pos = 0;
+                while (pos < slab.position)
+                {
+                    int length = slab.buffer.getInt(pos);
+                    Serializable[] key = RowCodec.decode(new RowCodec.Input(slab.buffer, pos + 4));
+                    Long location = index.get(indexKey(key));
+                    if (location != null && location == location(slabIndex, slab.generation, pos))
+                    {
+                        if (bytes.length < length)
+                        {
+                            bytes = new byte[length];
+                        }
+                        ByteBuffer entry = slab.buffer.duplicate();
+                        entry.position(pos + 4);
+                        entry.get(bytes, 0, length);
+                        out.writeInt(length);
+                        out.write(bytes, 0, length);
+                        ++count;
+                    }
+                    pos += length + 4;
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Load the rows of a snapshot file, which is memory-mapped while loading, if it has been written with the
+     * same row codec version and rows layout, and if its freshness token matches.
+     * @param file snapshot file
+     * @param layout expected rows layout
+     * @param freshness expected freshness token
+     * @return number of loaded rows, or -1 if the snapshot is stale or has another layout
+     */
+    public int loadSnapshot(File file, String layout, String freshness) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != SNAPSHOT_MAGIC)
+            {
+                throw new IOException("invalid cache snapshot: " + file);
+            }
+            if (buffer.getInt() != RowCodec.VERSION)
+            {
+                logger.debug("cache snapshot {} was written by another row codec version", file);
+                return -1;
+            }
+            byte[] header = readHeaderField(buffer, buffer.remaining() < 4 ? -1 : buffer.getInt(), file);
+            if (!layout.equals(new String(header, StandardCharsets.UTF_8)))
+            {
+                logger.debug("cache snapshot {} has another rows layout", file);
+                return -1;
+            }
+            byte[] token = readHeaderField(buffer, buffer.remaining() < 2 ? -1 : buffer.getShort() & 0xFFFF, file);
+            if (!freshness.equals(new String(token, StandardCharsets.UTF_8)))
+            {
+                return -1;
+            }
+            int count = 0;
+            lock.writeLock().lock();
+            try
+            {
+                while (buffer.remaining() >= 4)
+                {
+                    int length = buffer.getInt();
+                    if (length > buffer.remaining())
+                    {
+                        throw new IOException("truncated cache snapshot: " + file);
+                    }
+                    if (length + 4 <= slabSize)
+                    {
+                        Serializable[] key = RowCodec.decode(new RowCodec.Input(buffer, buffer.position()));
+                        ByteBuffer entry = buffer.slice();
+                        entry.limit(length);
+                        append(indexKey(key), entry);
+                        ++count;
+                    }
+                    buffer.position(buffer.position() + length);
+                }
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+            return count;
+        }
+    }
+
+    private static byte[] readHeaderField(ByteBuffer buffer, int length, File file) throws IOException
+    {
+        if (length < 0 || length > buffer.remaining())
+        {
+            throw new IOException("truncated cache snapshot: " + file);
+        }
+        byte[] field = new byte[length];
+        buffer.get(field);
+        return field;
+    }
+
+    /**
+     * Append an encoded entry to the current slab (while holding the write lock), and index it.
+     */
+    private void append(Object indexKey, ByteBuffer entry) throws IOException
+    {
+        int length = entry.remaining();
+        Slab slab = slabs[current];
+        if (slab.position + length + 4 > slabSize)
+        {
+            current = (current + 1) % slabs.length;
+            slab = slabs[current];
+            recycle(current);
+        }
+        else if (slab.buffer == null)
+        {
+            slab.buffer = allocate(current);
+        }
+        ByteBuffer target = slab.buffer.duplicate();
+        target.position(slab.position);
+        target.putInt(length);
+        target.put(entry);
+        index.put(indexKey, location(current, slab.generation, slab.position));
+        slab.position += length + 4;
+    }
+
+    /**
+     * Evict all the rows of a slab (while holding the write lock) and allocate its memory if needed.
+     */
+    private void recycle(int slabIndex) throws IOException
+    {
+        Slab slab = slabs[slabIndex];
+        if (slab.buffer == null)
+        {
+            slab.buffer = allocate(slabIndex);
+        }
+        else
+        {
+            int pos = 0;
+            while (pos < slab.position)
+            {
+                int length = slab.buffer.getInt(pos);
+                Serializable[] key = RowCodec.decode(new RowCodec.Input(slab.buffer, pos + 4));
+                index.remove(indexKey(key), location(slabIndex, slab.generation, pos));
+                pos += length + 4;
+            }
+            logger.debug("recycled cache slab #{}", slabIndex);
+        }
+        slab.position = 0;
+        ++slab.generation;
+    }
+
+    private ByteBuffer allocate(int slabIndex) throws IOException
+    {
+        if (backingFile == null)
+        {
+            return ByteBuffer.allocateDirect(slabSize);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(backingFile, "rw"))
+        {
+            // mapping stays valid after the channel is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, (long)slabIndex * slabSize, slabSize);
+        }
+    }
+
+    private static Object indexKey(Serializable[] key)
+    {
+        return key.length == 1 ? key[0] : Arrays.asList(key);
+    }
+
+    private static long location(int slab, int generation, int offset)
+    {
+        return ((long)slab << 48) | ((long)(generation & 0xFFFF) << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int slabIndex(long location)
+    {
+        return (int)(location >>> 48);
+    }
+
+    private static int offset(long location)
+    {
+        return (int)location;
+    }
+
+    private static class Slab
+    {
+        private ByteBuffer buffer = null;
+        private int position = 0;
+        private int generation = 0;
+    }
+
+    private final int slabSize;
+    private final Slab slabs[];
+    private final File backingFile;
+    private int current = 0;
+    private final Map<Object, Long> index = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static ThreadLocal<RowCodec.Output> output = ThreadLocal.withInitial(RowCodec.Output::new);
+}
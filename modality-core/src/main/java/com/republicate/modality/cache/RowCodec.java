@@ -0,0 +1,395 @@
+package com.republicate.modality.cache;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * <p>Compact binary encoding of rows, as arrays of values ordered by column index.</p>
+ * <p>Each value is prefixed by a one byte type tag; integral values are zigzag varints, strings are UTF-8,
+ * dates are stored as epoch milliseconds. Values of unknown classes fall back to java serialization.</p>
+ */
+
+public final class RowCodec
+{
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte INTEGER = 4;
+    private static final byte LONG = 5;
+    private static final byte FLOAT = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte STRING = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte SQL_DATE = 12;
+    private static final byte SQL_TIME = 13;
+    private static final byte SQL_TIMESTAMP = 14;
+    private static final byte DATE = 15;
+    private static final byte BYTES = 16;
+    private static final byte SERIALIZED = 127;
+
+    /**
+     * Encoding version, to be bumped whenever the encoding changes, so that persisted rows are not misread
+     */
+    public static final int VERSION = 1;
+
+    private RowCodec() {}
+
+    /**
+     * Growable output buffer, meant to be reused by the calling thread.
+     */
+    public static final class Output
+    {
+        public int size()
+        {
+            return size;
+        }
+
+        public byte[] array()
+        {
+            return bytes;
+        }
+
+        public void reset()
+        {
+            size = 0;
+        }
+
+        void writeByte(int b)
+        {
+            ensure(1);
+            bytes[size++] = (byte)b;
+        }
+
+        void writeBytes(byte[] b)
+        {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void writeVarLong(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7FL) != 0)
+            {
+                bytes[size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte)value;
+        }
+
+        void writeLong(long value)
+        {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                bytes[size++] = (byte)(value >>> shift);
+            }
+        }
+
+        private void ensure(int more)
+        {
+            if (size + more > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+    }
+
+    /**
+     * Read cursor over a buffer, using absolute accesses only so that the underlying buffer can be shared.
+     */
+    public static final class Input
+    {
+        public Input(ByteBuffer buffer, int position)
+        {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        public int position()
+        {
+            return position;
+        }
+
+        byte readByte()
+        {
+            return buffer.get(position++);
+        }
+
+        byte[] readBytes(int length)
+        {
+            byte[] ret = new byte[length];
+            for (int i = 0; i < length; ++i)
+            {
+                ret[i] = buffer.get(position++);
+            }
+            return ret;
+        }
+
+        long readVarLong()
+        {
+            long ret = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = buffer.get(position++);
+                ret |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            return ret;
+        }
+
+        long readLong()
+        {
+            long ret = buffer.getLong(position);
+            position += 8;
+            return ret;
+        }
+
+        private final ByteBuffer buffer;
+        private int position;
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void encode(Serializable[] values, Output out) throws IOException
+    {
+        out.writeVarLong(values.length);
+        for (Serializable value : values)
+        {
+            encodeValue(value, out);
+        }
+    }
+
+    public static Serializable[] decode(Input in) throws IOException
+    {
+        Serializable[] values = new Serializable[(int)in.readVarLong()];
+        for (int i = 0; i < values.length; ++i)
+        {
+            values[i] = decodeValue(in);
+        }
+        return values;
+    }
+
+    private static void encodeValue(Serializable value, Output out) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String)
+        {
+            out.writeByte(STRING);
+            byte[] utf8 = ((String)value).getBytes(StandardCharsets.UTF_8);
+            out.writeVarLong(utf8.length);
+            out.writeBytes(utf8);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(INTEGER);
+            out.writeVarLong(zigzag((Integer)value));
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeVarLong(zigzag((Long)value));
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(SHORT);
+            out.writeVarLong(zigzag((Short)value));
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(BYTE);
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(BOOLEAN);
+            out.writeByte((Boolean)value ? 1 : 0);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double)value));
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte(FLOAT);
+            out.writeVarLong(Float.floatToRawIntBits((Float)value) & 0xFFFFFFFFL);
+        }
+        else if (value instanceof Character)
+        {
+            out.writeByte(CHARACTER);
+            out.writeVarLong((Character)value);
+        }
+        else if (value.getClass() == BigDecimal.class)
+        {
+            BigDecimal decimal = (BigDecimal)value;
+            out.writeByte(BIG_DECIMAL);
+            out.writeVarLong(zigzag(decimal.scale()));
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeVarLong(unscaled.length);
+            out.writeBytes(unscaled);
+        }
+        else if (value.getClass() == BigInteger.class)
+        {
+            out.writeByte(BIG_INTEGER);
+            byte[] bytes = ((BigInteger)value).toByteArray();
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        }
+        else if (value.getClass() == java.sql.Date.class)
+        {
+            out.writeByte(SQL_DATE);
+            out.writeVarLong(zigzag(((java.sql.Date)value).getTime()));
+        }
+        else if (value.getClass() == Time.class)
+        {
+            out.writeByte(SQL_TIME);
+            out.writeVarLong(zigzag(((Time)value).getTime()));
+        }
+        else if (value.getClass() == Timestamp.class)
+        {
+            Timestamp timestamp = (Timestamp)value;
+            out.writeByte(SQL_TIMESTAMP);
+            out.writeVarLong(zigzag(timestamp.getTime()));
+            out.writeVarLong(timestamp.getNanos());
+        }
+        else if (value.getClass() == java.util.Date.class)
+        {
+            out.writeByte(DATE);
+            out.writeVarLong(zigzag(((java.util.Date)value).getTime()));
+        }
+        else if (value instanceof byte[])
+        {
+            byte[] bytes = (byte[])value;
+            out.writeByte(BYTES);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        }
+        else
+        {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(serialized))
+            {
+                oos.writeObject(value);
+            }
+            byte[] bytes = serialized.toByteArray();
+            out.writeByte(SERIALIZED);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        }
+    }
+
+    private static Serializable decodeValue(Input in) throws IOException
+    {
+        byte tag = in.readByte();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(in.readBytes((int)in.readVarLong()), StandardCharsets.UTF_8);
+            case INTEGER:
+                return (int)unzigzag(in.readVarLong());
+            case LONG:
+                return unzigzag(in.readVarLong());
+            case SHORT:
+                return (short)unzigzag(in.readVarLong());
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case FLOAT:
+                return Float.intBitsToFloat((int)in.readVarLong());
+            case CHARACTER:
+                return (char)in.readVarLong();
+            case BIG_DECIMAL:
+            {
+                int scale = (int)unzigzag(in.readVarLong());
+                return new BigDecimal(new BigInteger(in.readBytes((int)in.readVarLong())), scale);
+            }
+            case BIG_INTEGER:
+                return new BigInteger(in.readBytes((int)in.readVarLong()));
+            case SQL_DATE:
+                return new java.sql.Date(unzigzag(in.readVarLong()));
+            case SQL_TIME:
+                return new Time(unzigzag(in.readVarLong()));
+            case SQL_TIMESTAMP:
+            {
+                Timestamp timestamp = new Timestamp(unzigzag(in.readVarLong()));
+                timestamp.setNanos((int)in.readVarLong());
+                return timestamp;
+            }
+            case DATE:
+                return new java.util.Date(unzigzag(in.readVarLong()));
+            case BYTES:
+                return in.readBytes((int)in.readVarLong());
+            case SERIALIZED:
+            {
+                byte[] bytes = in.readBytes((int)in.readVarLong());
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+                {
+                    return (Serializable)ois.readObject();
+                }
+                catch (ClassNotFoundException cnfe)
+                {
+                    throw new IOException("could not decode cached value", cnfe);
+                }
+            }
+            default:
+                throw new IOException("corrupted row: unknown type tag " + tag);
+        }
+    }
+}
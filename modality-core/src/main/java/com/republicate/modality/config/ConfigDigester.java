@@ -437,6 +437,15 @@ public class ConfigDigester
         {
             ret = TypeUtils.toBoolean(value);
         }
+        else if (clazz == Integer.TYPE || clazz == Long.TYPE || clazz == Short.TYPE)
+        {
+            Long number = TypeUtils.toLong(value);
+            if (number == null)
+            {
+                throw new IllegalArgumentException("value cannot be converted to " + clazz.getSimpleName() + " : " + value);
+            }
+            ret = clazz == Integer.TYPE ? (Object)number.intValue() : clazz == Short.TYPE ? (Object)number.shortValue() : number;
+        }
         else if (Enum.class.isAssignableFrom(clazz) && value instanceof String)
         {
             ret = Enum.valueOf(clazz, ((String)value).toUpperCase());
@@ -65,6 +65,12 @@ public interface Constants
 
     String MODEL_CREDENTIALS_PASSWORD = "credentials.password";
 
+    String MODEL_DRIVER_CONNECTION_PROPERTIES = "driver.connection_properties";
+
+    String MODEL_DRIVER_FETCH_SIZE = "driver.fetch_size";
+
+    String MODEL_DRIVER_PREPARE_HINTS = "driver.prepare_hints";
+
     String MODEL_INSTANCES_FACTORY = "instances.factory";
 
     String MODEL_INSTANCES_CLASSES = "instances.classes";
@@ -73,6 +79,12 @@ public interface Constants
 
     String MODEL_CONNECTIONS_CHECK_INTERVAL = "connections_check_interval";
 
+    String MODEL_IDENTITY_MAP = "identity_map";
+
+    String MODEL_IDENTITY_MAP_SIZE = "identity_map_size";
+
+    String MODEL_CACHE_SNAPSHOTS = "cache_snapshots";
+
     String MODEL_MIGRATION_SCRIPTS = "migration_scripts";
 
     String MODEL_VERSION = "model_version";
@@ -120,9 +120,18 @@ public class ValueFilters extends ConfigurableFilters<Serializable>
      * @return resulting value
      */
     public Serializable filter(Serializable value) throws SQLException
+    {
+        return getTypeFilter(value.getClass()).apply(value);
+    }
+
+    /**
+     * Get the filter applied to values of the given class
+     * @param clazz values class
+     * @return type filter, or identity
+     */
+    public Filter<Serializable> getTypeFilter(Class clazz)
     {
         // CB TODO - this operation may pose performance problems
-        Class clazz = value.getClass();
         Filter<Serializable> filter = null;
         // apply the most specific one, and cache result for intermediate classes
         List<Class> tries = null;
@@ -151,7 +160,7 @@ public class ValueFilters extends ConfigurableFilters<Serializable>
                 typesMappings.put(tried, filter);
             }
         }
-        return filter.apply(value);
+        return filter;
     }
 
     public void setCryptograph(Cryptograph cryptograph)
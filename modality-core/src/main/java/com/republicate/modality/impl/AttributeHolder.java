@@ -379,7 +379,10 @@ public abstract class AttributeHolder implements Serializable
         {
             throw new SQLException("not an action attribute: " + name);
         }
-        return ((Action)attribute).perform(params);
+        long ret = ((Action)attribute).perform(params);
+        // custom actions may change any row
+        getModel().clearIdentityMap();
+        return ret;
     }
 
     public long perform(String name, Map source) throws SQLException
@@ -394,7 +397,9 @@ public abstract class AttributeHolder implements Serializable
         {
             throw new SQLException("not an action attribute: " + name);
         }
-        return ((Action)attribute).perform(source);
+        long ret = ((Action)attribute).perform(source);
+        getModel().clearIdentityMap();
+        return ret;
     }
 
     public long perform(String name, Map source, Serializable... params) throws SQLException
@@ -409,7 +414,9 @@ public abstract class AttributeHolder implements Serializable
         {
             throw new SQLException("not an action attribute: " + name);
         }
-        return ((Action)attribute).perform(source, params);
+        long ret = ((Action)attribute).perform(source, params);
+        getModel().clearIdentityMap();
+        return ret;
     }
 
     protected Entity resolveEntity(String name)
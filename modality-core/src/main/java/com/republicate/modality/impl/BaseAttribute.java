@@ -23,21 +23,30 @@ import com.republicate.modality.Entity;
 import com.republicate.modality.Instance;
 import com.republicate.modality.config.ConfigurationException;
 import com.republicate.modality.sql.NonPositionedParameter;
+import com.republicate.modality.sql.ParameterBinder;
+import com.republicate.modality.sql.PrepareHint;
 import com.republicate.modality.sql.RowValues;
 
 import java.io.Serializable;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * <p>BaseAttribute interface</p>
@@ -46,7 +55,7 @@ import java.util.regex.Pattern;
  * @since 3.1
  */
 
-public abstract class BaseAttribute extends InstanceProducer implements Serializable
+public abstract class BaseAttribute extends InstanceProducer implements Serializable, Cloneable
 {
     public BaseAttribute(String name, AttributeHolder parent)
     {
@@ -70,23 +79,87 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
             }
             setResultEntity(entity);
         }
-        if (parameterNames.size() > 0)
+        if (projection != null)
         {
-            paramMapping = new int[parameterNames.size()];
-            Map<String, Integer> paramOrders = new HashMap<String, Integer>();
-            int paramIndex = 0;
-            for (int i = 0; i < parameterNames.size(); ++i)
+            initializeProjection();
+        }
+        plan = basePlan = compilePlan();
+        bindings = null;
+        initializeCaches();
+    }
+
+    /**
+     * Set up the result caches of this attribute, once its result entity is known
+     */
+    protected void initializeCaches()
+    {
+    }
+
+    private QueryPlan compilePlan()
+    {
+        return new QueryPlan(query, parameterNames, getStatementsSplitter());
+    }
+
+    /**
+     * Get the statements splitter used when compiling query plans
+     * @return statements splitter, or null for single statement queries
+     */
+    protected Function<String, List<String>> getStatementsSplitter()
+    {
+        return null;
+    }
+
+    /**
+     * Get the current query plan
+     * @return query plan
+     */
+    protected QueryPlan getPlan()
+    {
+        QueryPlan current = plan;
+        if (current == null)
+        {
+            // not yet initialized, or modified since
+            plan = basePlan = current = compilePlan();
+            bindings = null;
+        }
+        return current;
+    }
+
+    private void initializeProjection()
+    {
+        Entity entity = getResultEntity();
+        if (entity == null)
+        {
+            throw new ConfigurationException("attribute " + getName() + ": projection needs a result entity");
+        }
+        // primary key columns are always loaded
+        Set<String> columns = new LinkedHashSet<>();
+        Optional.ofNullable(entity.getSqlPrimaryKey()).ifPresent(pk -> pk.forEach(sqlName -> columns.add(entity.translateColumnName(sqlName))));
+        columns.addAll(projection);
+        List<String> selectList = new ArrayList<>();
+        for (String columnName : columns)
+        {
+            Entity.Column column = entity.getColumn(columnName);
+            if (column == null)
             {
-                String paramName = parameterNames.get(i);
-                Integer order = paramOrders.get(paramName);
-                if (order == null)
-                {
-                    paramOrders.put(paramName, order = paramIndex++);
-                }
-                paramMapping[i] = order;
+                throw new ConfigurationException("attribute " + getName() + ": column not found: " + entity.getName() + "." + columnName);
+            }
+            selectList.add(entity.quoteIdentifier(column.sqlName));
+        }
+        projection = new ArrayList<>(columns);
+        String select = "SELECT " + String.join(", ", selectList);
+        if (query.isEmpty())
+        {
+            query = select + " FROM " + entity.quoteIdentifier(entity.getTable());
+        }
+        else
+        {
+            Matcher matcher = SELECT_STAR.matcher(query);
+            if (matcher.find())
+            {
+                query = select + query.substring(matcher.end());
             }
         }
-
     }
 
     public String getName()
@@ -94,6 +167,30 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
         return attributeName;
     }
 
+    /**
+     * Restrict result instances to the given comma separated columns of the result entity. If the query
+     * is empty or begins with <code>SELECT *</code>, the select list is generated.
+     * @param columns columns names
+     */
+    protected void setColumns(String columns)
+    {
+        setProjection(Arrays.stream(columns.split(",")).map(String::trim).filter(column -> !column.isEmpty()).collect(Collectors.toList()));
+    }
+
+    protected void setProjection(List<String> projection)
+    {
+        this.projection = projection;
+    }
+
+    /**
+     * Get the result entity columns loaded by this attribute, if it is a projection
+     * @return projection columns, or null
+     */
+    public List<String> getProjection()
+    {
+        return projection == null ? null : Collections.unmodifiableList(projection);
+    }
+
     public AttributeHolder getParent()
     {
         return parent;
@@ -112,12 +209,16 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
     protected void addQueryPart(String queryPart)
     {
         query = query + queryPart;
+        plan = basePlan = null;
+        bindings = null;
     }
 
     protected void addParameter(String paramName)
     {
         parameterNames.add(paramName);
         query = query + "?";
+        plan = basePlan = null;
+        bindings = null;
     }
 
     protected boolean getCached()
@@ -127,10 +228,11 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
 
     protected Serializable[] getParamValues(RowValues source) throws SQLException
     {
-        Serializable[] paramValues = new Serializable[parameterNames.size()];
+        QueryPlan plan = getPlan();
+        Serializable[] paramValues = new Serializable[plan.getParametersCount()];
         for (int i = 0; i < paramValues.length; ++i)
         {
-            paramValues[i] = source.get(parameterNames.get(i));
+            paramValues[i] = source.get(plan.getParameterName(i));
         }
         return paramValues;
     }
@@ -140,206 +242,248 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
         int nonPositionedParametersCount = 0;
         for (Serializable rawParamValue : rawParamValues)
         {
-            if (rawParamValue != null && rawParamValue instanceof NonPositionedParameter) ++nonPositionedParametersCount;
-        }
-        Serializable[] paramValues = new Serializable[parameterNames.size() + nonPositionedParametersCount];
-        Entity entity = (Entity)Optional.ofNullable(getParent()).filter(x -> x instanceof Entity).orElse(null);
-        if (entity == null)
-        {
-            for (int i = 0; i < paramValues.length - nonPositionedParametersCount; ++i)
-            {
-                paramValues[i] = rawParamValues[paramMapping[i]];
-            }
+            if (rawParamValue instanceof NonPositionedParameter) ++nonPositionedParametersCount;
         }
-        else
+        Binding[] bindings = getBindings();
+        Entity entity = getParent() instanceof Entity ? (Entity)getParent() : null;
+        Serializable[] paramValues = new Serializable[bindings.length + nonPositionedParametersCount];
+        for (int i = 0; i < bindings.length; ++i)
         {
-            for (int i = 0; i < paramValues.length - nonPositionedParametersCount; ++i)
-            {
-                String paramName = parameterNames.get(i);
-                paramValues[i] = entity.filterValue(paramName, rawParamValues[paramMapping[i]]);
-            }
+            Binding binding = bindings[i];
+            Serializable value = rawParamValues[binding.order];
+            paramValues[i] = entity == null ? value : entity.filterValue(binding.column, value);
         }
         // non positioned parameters should always be given last (CB TODO - document)
         for (int i = 0; i < nonPositionedParametersCount; ++i)
         {
-            paramValues[paramValues.length - nonPositionedParametersCount + i] = rawParamValues[rawParamValues.length - nonPositionedParametersCount + i];
+            paramValues[bindings.length + i] = rawParamValues[rawParamValues.length - nonPositionedParametersCount + i];
         }
         return paramValues;
     }
 
     protected Serializable[] getParamValues(Map source) throws SQLException
     {
-        Serializable[] paramValues = new Serializable[parameterNames.size()];
-        Entity parentEntity = (Entity)Optional.ofNullable(getParent()).filter(x -> x instanceof Entity).orElse(null);
-        Entity sourceEntity = Optional.ofNullable(source).filter(x -> x instanceof Instance).map(i -> ((Instance)i).getEntity()).orElse(null);
-        if (parentEntity == null && sourceEntity == null)
+        Binding[] bindings = getBindings();
+        Entity parentEntity = getParent() instanceof Entity ? (Entity)getParent() : null;
+        Entity sourceEntity = source instanceof Instance ? ((Instance)source).getEntity() : null;
+        Serializable[] paramValues = new Serializable[bindings.length];
+        for (int i = 0; i < bindings.length; ++i)
         {
-            for (int i = 0; i < paramValues.length; ++i)
+            Binding binding = bindings[i];
+            if (binding.firstSlot < i)
             {
-                paramValues[i] = (Serializable)source.get(parameterNames.get(i));
+                // same parameter, already bound
+                paramValues[i] = paramValues[binding.firstSlot];
             }
-        }
-        else if (parentEntity == null || sourceEntity == null || parentEntity == sourceEntity)
-        {
-            Entity entity = parentEntity == null ? sourceEntity : parentEntity;
-            for (int i = 0; i < paramValues.length; ++i)
-            {
-                String paramName = parameterNames.get(i);
-                paramValues[i] = entity.filterValue(paramName, (Serializable)source.get(paramName));
-            }
-        }
-        else
-        {
-            for (int i = 0; i < paramValues.length; ++i)
+            else
             {
-                String paramName = parameterNames.get(i);
-                Serializable value = (Serializable)source.get(paramName);
-                paramValues[i] = parentEntity.hasColumn(paramName) ?
-                    parentEntity.filterValue(paramName, value) :
-                    sourceEntity.filterValue(paramName, value);
+                paramValues[i] = filterValue(binding, parentEntity, sourceEntity, (Serializable)source.get(binding.name));
             }
         }
         return paramValues;
     }
 
-    private static int bitsBefore(BitSet bitset, int i)
-    {
-        BitSet mask = new BitSet();
-        mask.set(0, i);
-        mask.and(bitset);
-        return mask.cardinality();
-    }
-
     protected Serializable[] getParamValues(Map source, Serializable[] additionalParams) throws SQLException
     {
-        try
+        Binding[] bindings = getBindings();
+        Entity parentEntity = getParent() instanceof Entity ? (Entity)getParent() : null;
+        Entity sourceEntity = source instanceof Instance ? ((Instance)source).getEntity() : null;
+        Serializable[] paramValues = new Serializable[bindings.length];
+        // parameters missing from the source are taken in order from additional parameters
+        int provided = 0;
+        for (int i = 0; i < bindings.length; ++i)
         {
-            Serializable[] paramValues = new Serializable[parameterNames.size()];
-            Entity parentEntity = (Entity)Optional.ofNullable(getParent()).filter(x -> x instanceof Entity).orElse(null);
-            Entity sourceEntity = Optional.ofNullable(source).filter(x -> x instanceof Instance).map(i -> ((Instance)i).getEntity()).orElse(null);
-            BitSet sourcedParams = new BitSet();
-            BitSet providedParams = new BitSet();
-            if (parentEntity == null && sourceEntity == null)
+            Binding binding = bindings[i];
+            if (binding.firstSlot < i)
             {
-                for (int i = 0; i < paramValues.length; ++i)
-                {
-                    String paramName = parameterNames.get(i);
-                    if (source.containsKey(paramName))
-                    {
-                        paramValues[i] = (Serializable)source.get(paramName);
-                        sourcedParams.set(paramMapping[i]);
-                    }
-                    else
-                    {
-                        int paramOrder = paramMapping[i];
-                        paramValues[i] = additionalParams[paramOrder - bitsBefore(sourcedParams, paramOrder)];
-                        providedParams.set(paramOrder);
-                    }
-                }
+                // same parameter, already bound
+                paramValues[i] = paramValues[binding.firstSlot];
+                continue;
             }
-            else if (parentEntity == null || sourceEntity == null || parentEntity == sourceEntity)
+            Serializable value;
+            if (source.containsKey(binding.name))
             {
-                Entity entity = parentEntity == null ? sourceEntity : parentEntity;
-                for (int i = 0; i < paramValues.length; ++i)
-                {
-                    Serializable value;
-                    String paramName = parameterNames.get(i);
-                    if (source.containsKey(paramName))
-                    {
-                        value = (Serializable)source.get(paramName);
-                        sourcedParams.set(paramMapping[i]);
-                    }
-                    else
-                    {
-                        int paramOrder = paramMapping[i];
-                        value = additionalParams[paramOrder - bitsBefore(sourcedParams, paramOrder)];
-                        providedParams.set(paramOrder);
-                    }
-                    paramValues[i] = entity.filterValue(paramName, value);
-                }
+                value = (Serializable)source.get(binding.name);
             }
-            else
+            else if (provided < additionalParams.length)
             {
-                for (int i = 0; i < paramValues.length; ++i)
-                {
-                    String paramName = parameterNames.get(i);
-                    Serializable value;
-                    if (source.containsKey(paramName))
-                    {
-                        value = (Serializable)source.get(paramName);
-                        sourcedParams.set(paramMapping[i]);
-                    }
-                    else
-                    {
-                        int paramOrder = paramMapping[i];
-                        value = additionalParams[paramOrder - bitsBefore(sourcedParams, paramOrder)];
-                        providedParams.set(paramOrder);
-                    }
-                    paramValues[i] = parentEntity.hasColumn(paramName) ?
-                        parentEntity.filterValue(paramName, value) :
-                        sourceEntity.filterValue(paramName, value);
-                }
+                value = additionalParams[provided++];
             }
-            if (providedParams.cardinality() != additionalParams.length)
+            else
             {
-                throw new SQLException("too many parameters provided: got " + additionalParams.length + ", used " + providedParams.cardinality());
+                throw new SQLException("too few parameters provided: got " + additionalParams.length + ", needed more");
             }
-            return paramValues;
+            paramValues[i] = filterValue(binding, parentEntity, sourceEntity, value);
         }
-        catch (ArrayIndexOutOfBoundsException aioobe)
+        if (provided != additionalParams.length)
         {
-            throw new SQLException("too few parameters provided: got " + additionalParams.length + ", needed more");
+            throw new SQLException("too many parameters provided: got " + additionalParams.length + ", used " + provided);
         }
+        return paramValues;
     }
 
-    public String getQuery() throws SQLException
+    /**
+     * Filter a parameter value with the parent entity, or, for parameters which are not parent entity
+     * columns, with the source entity.
+     */
+    private static Serializable filterValue(Binding binding, Entity parentEntity, Entity sourceEntity, Serializable value) throws SQLException
     {
-        return query;
+        if (parentEntity != null && (binding.column != null || sourceEntity == null || sourceEntity == parentEntity))
+        {
+            return parentEntity.filterValue(binding.column, value);
+        }
+        else if (sourceEntity != null)
+        {
+            return sourceEntity.filterValue(sourceEntity.getColumn(binding.name), value);
+        }
+        return value;
     }
 
     /**
-     * @since Modality 1.1
+     * Get the parameters binding program, resolved once per compiled query: merged variants share
+     * the parameters of their base plan.
+     * @return binding of each placeholder
      */
-    public void mergeQuery(Map<String, ?> context) throws SQLException // CB TODO - synchronizations? concurrent execution vs. merging? Escaping?
+    protected Binding[] getBindings()
     {
-        if (originalQuery == null)
+        Binding[] current = bindings;
+        if (current == null)
         {
-            synchronized (this)
+            QueryPlan plan = getPlan();
+            Entity entity = getParent() instanceof Entity ? (Entity)getParent() : null;
+            current = new Binding[plan.getParametersCount()];
+            ParameterBinder[] typedBinders = new ParameterBinder[current.length];
+            int[] firstSlots = new int[plan.getDistinctParametersCount()];
+            Arrays.fill(firstSlots, -1);
+            for (int i = 0; i < current.length; ++i)
             {
-                if (originalQuery == null)
+                String name = plan.getParameterName(i);
+                int order = plan.getParameterOrder(i);
+                if (firstSlots[order] == -1)
                 {
-                    originalQuery = getQuery();
+                    firstSlots[order] = i;
                 }
+                current[i] = new Binding(name, order, firstSlots[order], entity == null ? null : entity.getColumn(name));
+                typedBinders[i] = current[i].column == null ? ParameterBinder.GENERIC : current[i].column.getBinder();
             }
+            binders = typedBinders;
+            bindings = current;
+        }
+        return current;
+    }
+
+    /**
+     * Get the JDBC binder of each placeholder, typed after the parent entity columns
+     * @return parameter binders
+     */
+    protected ParameterBinder[] getBinders()
+    {
+        getBindings(); // resolves binders if needed
+        return binders;
+    }
+
+    /**
+     * Binding of a query placeholder: parameter name, parameter order, first placeholder of the same
+     * parameter, and parent entity column, if any.
+     */
+    protected static final class Binding implements Serializable
+    {
+        Binding(String name, int order, int firstSlot, Entity.Column column)
+        {
+            this.name = name;
+            this.order = order;
+            this.firstSlot = firstSlot;
+            this.column = column;
         }
-        StringBuilder mergedQuery = new StringBuilder();
-        Matcher matcher = mergeLexer.matcher(originalQuery);
-        int pos = 0;
-        while (matcher.find())
+
+        final String name;
+        final int order;
+        final int firstSlot;
+        final Entity.Column column;
+    }
+
+    public String getQuery() throws SQLException
+    {
+        return getPlan().getQuery();
+    }
+
+    /**
+     * Replace <code>@reference</code> tokens of the original query with their value in the given context, for all
+     * subsequent executions of this attribute. Merged plans are compiled once per references values, and the current
+     * plan is switched atomically, so that concurrent executions always see a consistent query.
+     * @param context references values
+     * @since Modality 1.1
+     * @deprecated concurrent merges with different contexts replace each other's query: use
+     * {@link #getMergedAttribute(Map)}
+     */
+    @Deprecated
+    public void mergeQuery(Map<String, ?> context) throws SQLException
+    {
+        getPlan(); // compiles the base plan if needed
+        plan = basePlan.merge(context, getStatementsSplitter());
+    }
+
+    /**
+     * Get a copy of this attribute where <code>@reference</code> tokens of the original query are replaced with
+     * their value in the given context. This attribute is left unchanged, so that concurrent merges with different
+     * contexts don't interfere: the merged query is only executed through the returned attribute. Merged plans are
+     * compiled once per references values.
+     * @param context references values
+     * @param <T> attribute type
+     * @return merged attribute, or this attribute if the context holds none of the query references
+     */
+    public <T extends BaseAttribute> T getMergedAttribute(Map<String, ?> context) throws SQLException
+    {
+        getPlan(); // compiles the base plan if needed
+        QueryPlan merged = basePlan.merge(context, getStatementsSplitter());
+        if (merged == plan)
         {
-            if (matcher.start() > pos) mergedQuery.append(originalQuery.substring(pos, matcher.start()));
-            String reference = matcher.group().substring(1);
-            String value = Optional.ofNullable(context.get(reference)).map(val -> String.valueOf(val)).orElse(matcher.group());
-            if (value == null) throw new SQLException("Undefined reference: @" + reference);
-            mergedQuery.append(value);
-            pos = matcher.end();
+            return (T)this;
         }
-        mergedQuery.append(originalQuery.substring(pos));
-        setQuery(mergedQuery.toString());
+        BaseAttribute copy = copy();
+        copy.plan = merged;
+        return (T)copy;
     }
 
-    protected String originalQuery = null;
+    /**
+     * Copy this attribute, without sharing any of its mutable state: parameters and projection lists are copied,
+     * while parameters binders, row mapper and in-flight executions are reset.
+     * @return attribute copy
+     * @throws SQLException if the attribute cannot be copied
+     */
+    protected BaseAttribute copy() throws SQLException
+    {
+        try
+        {
+            BaseAttribute copy = (BaseAttribute)clone();
+            copy.parameterNames = new ArrayList<>(parameterNames);
+            copy.projection = projection == null ? null : new ArrayList<>(projection);
+            copy.bindings = null;
+            copy.binders = null;
+            copy.rowMapper = null;
+            copy.inFlight = coalesce ? new ConcurrentHashMap<>() : null;
+            return copy;
+        }
+        catch (CloneNotSupportedException cnse)
+        {
+            throw new SQLException("could not copy attribute " + getName(), cnse);
+        }
+    }
 
-    private Pattern mergeLexer = Pattern.compile("@\\w+");
+    private static final Pattern SELECT_STAR = Pattern.compile("^\\s*select\\s+\\*", Pattern.CASE_INSENSITIVE);
 
     protected void setParameterNames(List<String> parameterNames)
     {
         this.parameterNames = parameterNames;
+        plan = basePlan = null;
+        bindings = null;
     }
 
     protected void setQuery(String query)
     {
         this.query = query;
+        plan = basePlan = null;
+        bindings = null;
     }
 
     protected void setCached(boolean cached)
@@ -347,11 +491,155 @@ public abstract class BaseAttribute extends InstanceProducer implements Serializ
         this.cached = cached;
     }
 
+    /**
+     * Whether this attribute looks up its result entity by primary key, with parameters given in primary key order
+     * @return key lookup flag
+     */
+    protected boolean isKeyLookup()
+    {
+        return keyLookup;
+    }
+
+    protected void setKeyLookup(boolean keyLookup)
+    {
+        this.keyLookup = keyLookup;
+    }
+
+    /**
+     * Get the server or client side preparation hint of this attribute statement
+     * @return preparation hint, or null
+     */
+    public PrepareHint getPrepareHint()
+    {
+        return prepareHint;
+    }
+
+    /**
+     * Hint about where this attribute statement should be prepared, <code>server</code> or <code>client</code>.
+     * The hint is honored according to the driver prepare hints policy, when the pooled statement is created.
+     * @param prepare preparation hint
+     */
+    protected void setPrepare(String prepare)
+    {
+        try
+        {
+            prepareHint = PrepareHint.valueOf(prepare.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ConfigurationException("attribute " + getName() + ": invalid prepare hint, expecting server or client: " + prepare);
+        }
+    }
+
+    protected boolean isCoalesce()
+    {
+        return coalesce;
+    }
+
+    /**
+     * Whether concurrent identical executions of this attribute (same query, same parameters) share a single
+     * database round-trip. Executions inside a transaction are never coalesced.
+     * @param coalesce coalescing flag
+     */
+    protected void setCoalesce(boolean coalesce)
+    {
+        this.coalesce = coalesce;
+        if (coalesce && inFlight == null)
+        {
+            inFlight = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Run an execution, or, if an identical one is already in flight in another thread, wait for its result.
+     * Each caller gets its own copy of the shared result.
+     * @param paramValues parameter values
+     * @param execution database execution
+     * @param copy result copy function
+     * @param <T> result type
+     * @return result copy
+     * @throws SQLException
+     */
+    protected <T> T coalesce(Serializable[] paramValues, Execution<T> execution, Function<T, T> copy) throws SQLException
+    {
+        if (!coalesce || inFlight == null || getModel().getCurrentTransactionConnection() != null)
+        {
+            return execution.execute();
+        }
+        List<Object> key = new ArrayList<>(paramValues.length + 1);
+        key.add(getQuery());
+        Collections.addAll(key, paramValues);
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> pending = inFlight.putIfAbsent(key, future);
+        if (pending == null)
+        {
+            try
+            {
+                T result = execution.execute();
+                future.complete(result);
+                return result == null ? null : copy.apply(result);
+            }
+            catch (SQLException | RuntimeException e)
+            {
+                future.completeExceptionally(e);
+                throw e;
+            }
+            finally
+            {
+                inFlight.remove(key, future);
+            }
+        }
+        try
+        {
+            T result = (T)pending.get();
+            return result == null ? null : copy.apply(result);
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+            String sqlState = cause instanceof SQLException ? ((SQLException)cause).getSQLState() : null;
+            throw new SQLException("coalesced execution failed: " + cause.getMessage(), sqlState, cause);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for coalesced execution", ie);
+        }
+    }
+
+    /**
+     * Get the row mapper for a result set of this attribute, compiled once per result set shape
+     * @param resultSet result set
+     * @return row mapper
+     * @throws SQLException
+     */
+    protected RowMapper getRowMapper(ResultSet resultSet) throws SQLException
+    {
+        RowMapper mapper = RowMapper.forResultSet(rowMapper, resultSet, getModel(), getResultEntity(), projection != null);
+        rowMapper = mapper;
+        return mapper;
+    }
+
+    @FunctionalInterface
+    protected interface Execution<T>
+    {
+        T execute() throws SQLException;
+    }
+
     private boolean cached = false;
+    private boolean keyLookup = false;
+    private boolean coalesce = false;
+    private PrepareHint prepareHint = null;
+    private transient volatile RowMapper rowMapper = null;
+    private transient Map<List<Object>, CompletableFuture<Object>> inFlight = null;
     private AttributeHolder parent = null;
     private String resultEntityName = null;
     private String attributeName = null;
     private String query = "";
+    private List<String> projection = null;
     protected List<String> parameterNames = new ArrayList<>();
-    protected int paramMapping[] = null;
+    private volatile QueryPlan basePlan = null;
+    private volatile QueryPlan plan = null;
+    private transient volatile Binding[] bindings = null;
+    private transient volatile ParameterBinder[] binders = null;
 }
@@ -23,20 +23,38 @@ import com.republicate.modality.Action;
 import com.republicate.modality.Attribute;
 import com.republicate.modality.Entity;
 import com.republicate.modality.Instance;
+import com.republicate.modality.LobHandle;
 import com.republicate.modality.Model;
+import com.republicate.modality.ModelRunnable;
+import com.republicate.modality.OptimisticLockException;
 import com.republicate.modality.RowAttribute;
 import com.republicate.modality.RowsetAttribute;
 import com.republicate.modality.ScalarAttribute;
+import com.republicate.modality.cache.IdentityMap;
+import com.republicate.modality.cache.NegativeCache;
+import com.republicate.modality.cache.OffHeapRowStore;
 import com.republicate.modality.config.ConfigurationException;
 import com.republicate.modality.filter.Filter;
+import com.republicate.modality.sql.ConnectionWrapper;
+import com.republicate.modality.sql.DriverInfos;
+import com.republicate.modality.sql.ParameterBinder;
 import com.republicate.modality.sql.SqlUtils;
+import com.republicate.modality.util.BeanProperty;
+import com.republicate.modality.util.ChainedMap;
+import com.republicate.modality.util.ConfigUtils;
 import com.republicate.modality.util.Converter;
-import org.apache.commons.lang3.tuple.Pair;
+import com.republicate.modality.util.Interner;
+import com.republicate.modality.util.SlotArrayMap;
+import com.republicate.modality.util.TypeUtils;
 
 import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -47,6 +65,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public abstract class BaseEntity extends AttributeHolder
@@ -164,20 +187,32 @@ public abstract class BaseEntity extends AttributeHolder
 
     public void delete(Map source) throws SQLException
     {
-        delete.perform(source);
-    }
-
-    public void insert(Map source) throws SQLException
-    {
-        BitSet fieldsMask = new BitSet();
-        for (int c = 0; c < columnNames.size(); ++c)
+        evictFromCache(source);
+        forgetIdentity(source, false);
+        try
         {
-            if (source.containsKey(columnNames.get(c)))
+            Serializable version = getVersionValue(source);
+            if (version == null)
             {
-                fieldsMask.set(c);
+                delete.perform(source);
             }
+            else if (versionedDelete.perform(source) == 0)
+            {
+                throw newOptimisticLockException(source, version);
+            }
+        }
+        finally
+        {
+            // the row may have been cached again by a concurrent fetch while the statement was running
+            evictFromCache(source);
         }
-        Action insert = insertPerColumnsMask.computeIfAbsent(fieldsMask, this::generateInsertAction);
+    }
+
+    public void insert(Map source) throws SQLException
+    {
+        prepareInsert(source);
+        BitSet fieldsMask = getInsertMask(source);
+        Action insert = getMaskedAction(insertPerColumnsMask, fieldsMask, this::generateInsertAction);
         long ret = insert.perform(source);
         boolean used = false;
         if (primaryKey != null && primaryKey.size() > 0)
@@ -185,7 +220,7 @@ public abstract class BaseEntity extends AttributeHolder
             for (int i = 0; i < primaryKey.size(); ++i)
             {
                 Column keyColumn = primaryKey.get(i);
-                if (keyColumn.generated)
+                if (keyColumn.generated && !fieldsMask.get(keyColumn.getIndex()))
                 {
                     if (used)
                     {
@@ -196,11 +231,850 @@ public abstract class BaseEntity extends AttributeHolder
                 }
             }
         }
+        forgetMisses(source, true);
+    }
+
+    /**
+     * Assign the next key of the id generator, if any, to a source without primary key value, and the initial
+     * version to a source without version value
+     * @param source row values
+     * @throws SQLException
+     */
+    protected void prepareInsert(Map source) throws SQLException
+    {
+        if (idGenerator != null)
+        {
+            String keyColumn = primaryKey.get(0).name;
+            if (source.get(keyColumn) == null)
+            {
+                source.put(keyColumn, idGenerator.nextId());
+            }
+        }
+        if (versionColumn != null && source.get(versionColumn.name) == null)
+        {
+            source.put(versionColumn.name, nextVersion(null));
+        }
+    }
+
+    /**
+     * Get the mask of the columns inserted for a source
+     * @param source row values
+     * @return inserted columns mask
+     */
+    protected BitSet getInsertMask(Map source)
+    {
+        BitSet fieldsMask = new BitSet();
+        for (int c = 0; c < columnNames.size(); ++c)
+        {
+            // unread lazy LOB handles are left out, as well as missing generated keys
+            String columnName = columnNames.get(c);
+            Object value = source.get(columnName);
+            if (source.containsKey(columnName) && !(value instanceof LobHandle) && !(value == null && columns.get(columnName).generated && columns.get(columnName).isKeyColumn()))
+            {
+                fieldsMask.set(c);
+            }
+        }
+        return fieldsMask;
     }
 
     public void update(Map source) throws SQLException
     {
-        update.perform(source);
+        if (!(source instanceof Instance))
+        {
+            throw new SQLException("update source must be an instance");
+        }
+        update(source, ((Instance)source).getDirtyFlags());
+    }
+
+    /**
+     * Update the given columns of a row. The UPDATE statement is generated once per columns mask.
+     * @param source row values, including primary key values
+     * @param mask columns indices of the updated columns
+     * @throws SQLException
+     */
+    public void update(Map source, BitSet mask) throws SQLException
+    {
+        if (primaryKey == null)
+        {
+            throw new SQLException("entity " + getName() + " has no primary key");
+        }
+        if (mask.isEmpty())
+        {
+            return;
+        }
+        evictFromCache(source);
+        forgetIdentity(source, true);
+        try
+        {
+            Serializable version = getVersionValue(source);
+            if (version == null)
+            {
+                Action update = getMaskedAction(updatePerColumnsMask, mask, this::generateUpdateAction);
+                update.perform(source);
+            }
+            else
+            {
+                Action update = getMaskedAction(versionedUpdatePerColumnsMask, mask, this::generateVersionedUpdateAction);
+                Serializable newVersion = nextVersion(version);
+                if (update.perform(source, newVersion) == 0)
+                {
+                    throw newOptimisticLockException(source, version);
+                }
+                storeVersion(source, newVersion);
+            }
+        }
+        finally
+        {
+            // the row may have been cached again by a concurrent fetch while the statement was running
+            evictFromCache(source);
+        }
+        forgetMisses(source, false);
+    }
+
+    /**
+     * Insert rows sharing the same inserted columns, as a single JDBC batch. Since keys generated by the
+     * database are not read back, rows must have known keys, see {@link #hasKnownKey(BitSet)}.
+     * @param mask columns indices of the inserted columns
+     * @param sources rows values
+     * @return inserted rows count of each source, or <code>Statement.SUCCESS_NO_INFO</code> if unknown
+     * @throws SQLException
+     */
+    protected int[] insertBatch(BitSet mask, List<? extends Map> sources) throws SQLException
+    {
+        Action insert = getMaskedAction(insertPerColumnsMask, mask, this::generateInsertAction);
+        int[] counts = insert.performBatch(sources);
+        for (Map source : sources)
+        {
+            forgetMisses(source, true);
+        }
+        return counts;
+    }
+
+    /**
+     * Check whether rows inserted with the given columns don't need their key to be read back
+     * @param mask columns indices of the inserted columns
+     * @return true if all generated key columns are inserted
+     */
+    protected boolean hasKnownKey(BitSet mask)
+    {
+        return primaryKey == null || primaryKey.stream().noneMatch(column -> column.generated && !mask.get(column.getIndex()));
+    }
+
+    /**
+     * Update rows sharing the same updated columns, as a single JDBC batch. Rows holding a version value are
+     * updated by a separate batch, checking their version. New versions are not stored in the sources but
+     * returned, so that callers can set them once the enclosing transaction is committed.
+     * @param mask columns indices of the updated columns
+     * @param sources rows values, including primary key values
+     * @param newVersions receives the new version of each versioned source
+     * @return updated rows count of each source, or <code>Statement.SUCCESS_NO_INFO</code> if unknown
+     * @throws OptimisticLockException if a versioned row has been modified or deleted
+     * @throws SQLException
+     */
+    protected int[] updateBatch(BitSet mask, List<? extends Map> sources, Serializable[] newVersions) throws SQLException
+    {
+        if (primaryKey == null)
+        {
+            throw new SQLException("entity " + getName() + " has no primary key");
+        }
+        List<Map> plain = new ArrayList<>();
+        List<Integer> plainIndices = new ArrayList<>();
+        List<Map> versioned = new ArrayList<>();
+        List<Integer> versionedIndices = new ArrayList<>();
+        for (int i = 0; i < sources.size(); ++i)
+        {
+            Map source = sources.get(i);
+            evictFromCache(source);
+            forgetIdentity(source, true);
+            Serializable version = getVersionValue(source);
+            if (version == null)
+            {
+                plain.add(source);
+                plainIndices.add(i);
+            }
+            else
+            {
+                Serializable newVersion = nextVersion(version);
+                // sources are chained rather than copied, since wrapping instances values are not all entries
+                versioned.add(new ChainedMap(source, Collections.singletonMap(NEW_VERSION_PARAMETER, newVersion)));
+                versionedIndices.add(i);
+                newVersions[i] = newVersion;
+            }
+        }
+        int[] counts = new int[sources.size()];
+        try
+        {
+            if (!plain.isEmpty())
+            {
+                Action update = getMaskedAction(updatePerColumnsMask, mask, this::generateUpdateAction);
+                int[] plainCounts = update.performBatch(plain);
+                for (int i = 0; i < plainCounts.length; ++i)
+                {
+                    counts[plainIndices.get(i)] = plainCounts[i];
+                }
+            }
+            if (!versioned.isEmpty())
+            {
+                Action update = getMaskedAction(versionedUpdatePerColumnsMask, mask, this::generateVersionedUpdateAction);
+                int[] versionedCounts = performVersionedBatch(update, versioned);
+                for (int i = 0; i < versionedCounts.length; ++i)
+                {
+                    int index = versionedIndices.get(i);
+                    if (versionedCounts[i] == 0)
+                    {
+                        Map source = sources.get(index);
+                        throw newOptimisticLockException(source, getVersionValue(source));
+                    }
+                    counts[index] = versionedCounts[i];
+                }
+            }
+        }
+        finally
+        {
+            // rows may have been cached again by concurrent fetches while the statements were running
+            for (Map source : sources)
+            {
+                evictFromCache(source);
+            }
+        }
+        attributeNegativeCaches.forEach(NegativeCache::clear);
+        return counts;
+    }
+
+    /**
+     * Perform versioned updates as a batch, falling back to row per row updates when the driver doesn't report
+     * the updated rows count of each statement (like MySQL with <code>rewriteBatchedStatements</code>), since
+     * conflicts could not be detected otherwise. Batches need the current transaction, so that they can be rolled
+     * back to a savepoint before the fallback.
+     * @param update versioned update action
+     * @param sources rows values, including new versions
+     * @return updated rows count of each source, 0 or 1
+     * @throws SQLException
+     */
+    private int[] performVersionedBatch(Action update, List<Map> sources) throws SQLException
+    {
+        ConnectionWrapper connection = getModel().getCurrentTransactionConnection();
+        if (connection != null)
+        {
+            Savepoint savepoint = connection.setSavepoint();
+            int[] counts = update.performBatch(sources);
+            if (Arrays.stream(counts).allMatch(count -> count == 0 || count == 1))
+            {
+                connection.releaseSavepoint(savepoint);
+                return counts;
+            }
+            getLogger().debug("entity {}: batch update counts not reported, checking versions row per row", getName());
+            connection.rollback(savepoint);
+            connection.releaseSavepoint(savepoint);
+        }
+        int[] counts = new int[sources.size()];
+        for (int i = 0; i < counts.length; ++i)
+        {
+            counts[i] = (int)update.perform(sources.get(i));
+        }
+        return counts;
+    }
+
+    /*
+     * Versioning
+     */
+
+    /**
+     * Declare the version column of this entity, either numeric or timestamp, used for optimistic locking:
+     * updates and deletions of rows whose version is known check that it didn't change, and updates bump it.
+     * @param version version column name
+     */
+    public void setVersion(String version)
+    {
+        this.versionColumnName = version;
+    }
+
+    /**
+     * Get the version column of this entity
+     * @return version column, or null
+     */
+    public Column getVersionColumn()
+    {
+        return versionColumn;
+    }
+
+    /**
+     * Get the version of a row
+     * @param source row values
+     * @return version value, or null if the entity is not versioned or if the version is unknown
+     */
+    protected Serializable getVersionValue(Map source)
+    {
+        return versionColumn == null ? null : (Serializable)source.get(versionColumn.name);
+    }
+
+    /**
+     * Get the version following a given version: the next integer for numeric versions, the current time for
+     * timestamp versions, with a millisecond precision and always after the given version.
+     * @param version current version, or null for the initial version
+     * @return next version
+     */
+    protected Serializable nextVersion(Serializable version)
+    {
+        if (versionTimestamp)
+        {
+            long now = System.currentTimeMillis();
+            java.util.Date previous = TypeUtils.toDate(version);
+            if (previous != null && previous.getTime() >= now)
+            {
+                now = previous.getTime() + 1;
+            }
+            return new Timestamp(now);
+        }
+        return version == null ? 1L : TypeUtils.toLong(version) + 1;
+    }
+
+    /**
+     * Store the new version of an updated row in its source, without marking instances as dirty
+     * @param source row values
+     * @param version new version
+     * @throws SQLException
+     */
+    protected void storeVersion(Map source, Serializable version) throws SQLException
+    {
+        if (source instanceof Instance)
+        {
+            ((Instance)source).readValue(versionColumn.sqlName, version);
+        }
+        else
+        {
+            source.put(versionColumn.name, version);
+        }
+    }
+
+    private OptimisticLockException newOptimisticLockException(Map source, Serializable version)
+    {
+        Serializable[] key = primaryKey.stream().map(column -> (Serializable)source.get(column.name)).toArray(Serializable[]::new);
+        return new OptimisticLockException(getName(), key, version);
+    }
+
+    /**
+     * Run operations inside the current transaction, or inside a new one if there is none
+     * @param operation operations
+     * @throws SQLException
+     */
+    protected void runInTransaction(ModelRunnable operation) throws SQLException
+    {
+        if (getModel().getCurrentTransactionConnection() != null)
+        {
+            operation.run();
+        }
+        else
+        {
+            getModel().attempt(operation);
+        }
+    }
+
+    /**
+     * Update, with a single statement, the given columns of all the rows matching a condition. Values are
+     * filtered like instances values. Since updated rows are not known, the entity cache is cleared.
+     * @param set updated columns values
+     * @param where SQL condition, with <code>?</code> placeholders for the given parameters, or null for all rows
+     * @param params condition parameters
+     * @return number of updated rows
+     * @throws SQLException
+     */
+    public long updateWhere(Map<String, Object> set, String where, Serializable... params) throws SQLException
+    {
+        if (set.isEmpty())
+        {
+            return 0;
+        }
+        BitSet mask = new BitSet();
+        for (String columnName : set.keySet())
+        {
+            Column column = getColumn(columnName);
+            if (column == null)
+            {
+                throw new SQLException("entity " + getName() + " has no column " + columnName);
+            }
+            mask.set(column.getIndex());
+        }
+        String condition = where == null ? "" : where;
+        Action update = getConditionalAction(updatePerCondition, Arrays.asList(mask, condition), () -> generateUpdateWhereAction(mask, condition));
+        boolean newTimestampVersion = versionTimestamp && !mask.get(versionColumn.getIndex());
+        Serializable[] values = new Serializable[mask.cardinality() + (newTimestampVersion ? 1 : 0) + params.length];
+        int i = 0;
+        for (int c = mask.nextSetBit(0); c >= 0; c = mask.nextSetBit(c + 1))
+        {
+            values[i++] = (Serializable)set.get(columnNames.get(c));
+        }
+        if (newTimestampVersion)
+        {
+            values[i++] = nextVersion(null);
+        }
+        System.arraycopy(params, 0, values, i, params.length);
+        checkParametersCount(update, values.length);
+        long count = update.perform(values);
+        forgetAll(true);
+        return count;
+    }
+
+    /**
+     * Delete, with a single statement, all the rows matching a condition. Since deleted rows are not known,
+     * the entity cache is cleared.
+     * @param where SQL condition, with <code>?</code> placeholders for the given parameters, or null for all rows
+     * @param params condition parameters
+     * @return number of deleted rows
+     * @throws SQLException
+     */
+    public long deleteWhere(String where, Serializable... params) throws SQLException
+    {
+        String condition = where == null ? "" : where;
+        Action delete = getConditionalAction(deletePerCondition, Collections.singletonList(condition), () -> generateDeleteWhereAction(condition));
+        checkParametersCount(delete, params.length);
+        long count = delete.perform(params);
+        forgetAll(false);
+        return count;
+    }
+
+    /*
+     * Cache
+     */
+
+    /**
+     * Enable or disable the primary key cache of this entity, which stores fetched rows off-heap
+     * @param cache cache flag
+     */
+    public void setCache(boolean cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Set the primary key cache capacity, in bytes, with an optional <code>k</code>, <code>m</code> or <code>g</code> unit
+     * @param cacheSize cache capacity
+     */
+    public void setCacheSize(String cacheSize)
+    {
+        this.cacheSize = ConfigUtils.parseSize(cacheSize);
+    }
+
+    /**
+     * Use memory-mapped slabs backed by the given file, instead of direct buffers
+     * @param cacheFile cache backing file path
+     */
+    public void setCacheFile(String cacheFile)
+    {
+        this.cacheFile = new File(cacheFile);
+    }
+
+    /**
+     * Set the column holding rows last modification timestamp, used along with the rows count to check
+     * whether a cache snapshot is still fresh
+     * @param cacheTimestamp timestamp column name
+     */
+    public void setCacheTimestamp(String cacheTimestamp)
+    {
+        this.cacheTimestamp = cacheTimestamp;
+    }
+
+    /**
+     * Keep the most recently used cached rows on heap as frozen instances, which are shared by all callers
+     * instead of being copied: they must be forked (see {@link Instance#fork()}) before being modified.
+     * @param cacheFrozen frozen instances flag
+     */
+    public void setCacheFrozen(boolean cacheFrozen)
+    {
+        this.cacheFrozen = cacheFrozen;
+    }
+
+    /**
+     * Set the maximum number of frozen instances kept on heap
+     * @param cacheFrozenSize frozen instances count
+     */
+    public void setCacheFrozenSize(int cacheFrozenSize)
+    {
+        this.cacheFrozenSize = cacheFrozenSize;
+    }
+
+    public boolean isCached()
+    {
+        return rowStore != null;
+    }
+
+    /**
+     * Get a shared frozen instance
+     * @param key cache key
+     * @return frozen instance, or null
+     */
+    protected Instance getFrozenInstance(Serializable[] key)
+    {
+        if (frozenInstances == null)
+        {
+            return null;
+        }
+        synchronized (frozenInstances)
+        {
+            return frozenInstances.get(Arrays.asList(key));
+        }
+    }
+
+    /**
+     * Freeze an instance and share it with subsequent callers, unless frozen instances are disabled
+     * or the instance doesn't hold all columns.
+     * @param key cache key
+     * @param instance instance
+     * @return shared frozen instance, or the given instance
+     */
+    protected Instance shareFrozenInstance(Serializable[] key, Instance instance)
+    {
+        if (frozenInstances == null || instance.isPartial())
+        {
+            return instance;
+        }
+        synchronized (frozenInstances)
+        {
+            Instance known = frozenInstances.putIfAbsent(Arrays.asList(key), instance.freeze());
+            return known == null ? instance : known;
+        }
+    }
+
+    protected OffHeapRowStore getRowStore()
+    {
+        return rowStore;
+    }
+
+    /**
+     * Evict from cache the row corresponding to the given source primary key values
+     * @param source source map
+     * @throws SQLException
+     */
+    public void evictFromCache(Map source) throws SQLException
+    {
+        if (rowStore != null)
+        {
+            Optional.ofNullable(getCacheKey(source)).ifPresent(key ->
+            {
+                if (frozenInstances != null)
+                {
+                    synchronized (frozenInstances)
+                    {
+                        frozenInstances.remove(Arrays.asList(key));
+                    }
+                }
+                rowStore.remove(key);
+            });
+        }
+    }
+
+    public void clearCache()
+    {
+        if (rowStore != null)
+        {
+            if (frozenInstances != null)
+            {
+                synchronized (frozenInstances)
+                {
+                    frozenInstances.clear();
+                }
+            }
+            rowStore.clear();
+        }
+    }
+
+    /**
+     * Get the cache freshness token, made of the rows count and of the maximum modification timestamp, if any
+     * @return freshness token
+     * @throws SQLException
+     */
+    protected String getCacheFreshness() throws SQLException
+    {
+        String freshness = String.valueOf(countAttribute.evaluate());
+        if (cacheTimestampAttribute != null)
+        {
+            freshness += "/" + cacheTimestampAttribute.evaluate();
+        }
+        return freshness;
+    }
+
+    /**
+     * Get the layout of cached rows, made of the columns names and SQL types, in column index order,
+     * so that snapshots written before a schema change are not reloaded
+     * @return cached rows layout
+     */
+    protected String getCacheLayout()
+    {
+        return columnNames.stream().map(columns::get).map(column -> column.sqlName + ":" + column.type).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Fill the cache from its snapshot in the given directory, if the snapshot is still fresh
+     * @param directory snapshots directory
+     */
+    public void loadCacheSnapshot(File directory)
+    {
+        File snapshot = getCacheSnapshotFile(directory);
+        if (rowStore == null || !snapshot.exists())
+        {
+            return;
+        }
+        try
+        {
+            int rows = rowStore.loadSnapshot(snapshot, getCacheLayout(), getCacheFreshness());
+            if (rows == -1)
+            {
+                getLogger().info("ignoring stale cache snapshot of entity {}", getName());
+            }
+            else
+            {
+                getLogger().info("loaded {} rows from cache snapshot of entity {}", rows, getName());
+            }
+        }
+        catch (IOException | SQLException e)
+        {
+            getLogger().warn("could not load cache snapshot of entity {}", getName(), e);
+            rowStore.clear();
+        }
+    }
+
+    /**
+     * Save the cache to a snapshot file in the given directory
+     * @param directory snapshots directory
+     */
+    public void saveCacheSnapshot(File directory)
+    {
+        if (rowStore == null)
+        {
+            return;
+        }
+        try
+        {
+            // freshness is computed first: rows modified meanwhile are evicted before being written
+            String freshness = getCacheFreshness();
+            int rows = rowStore.writeSnapshot(getCacheSnapshotFile(directory), getCacheLayout(), freshness);
+            getLogger().info("saved {} rows to cache snapshot of entity {}", rows, getName());
+        }
+        catch (IOException | SQLException e)
+        {
+            getLogger().warn("could not save cache snapshot of entity {}", getName(), e);
+        }
+    }
+
+    private File getCacheSnapshotFile(File directory)
+    {
+        return new File(directory, getModel().getModelId() + "." + getName() + ".snapshot");
+    }
+
+    /**
+     * Normalize primary key values, as sent to the database, towards cache keys.
+     * @param keyValues primary key values, in primary key order
+     * @return cache key, or null if one of the values is null
+     */
+    protected Serializable[] getCacheKey(Serializable[] keyValues)
+    {
+        if (keyValues.length != primaryKey.size())
+        {
+            return null;
+        }
+        Serializable[] key = new Serializable[keyValues.length];
+        for (int i = 0; i < keyValues.length; ++i)
+        {
+            Serializable value = keyValues[i];
+            if (value == null)
+            {
+                return null;
+            }
+            switch (primaryKey.get(i).type)
+            {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    value = TypeUtils.toLong(value);
+                    break;
+            }
+            key[i] = value;
+        }
+        return key;
+    }
+
+    /*
+     * Negative cache
+     */
+
+    /**
+     * Generate primary keys client side, from blocks of keys pre-allocated from a database sequence
+     * (<code>sequence:<i>name</i>[,block=<i>n</i>]</code>) or from a table (<code>hilo[:<i>table</i>][,block=<i>n</i>]</code>).
+     * See {@link IdGenerator}.
+     * @param idGenerator generator specification
+     */
+    public void setIdGenerator(String idGenerator)
+    {
+        this.idGenerator = new IdGenerator(idGenerator);
+    }
+
+    /**
+     * Get the primary key generator of this entity
+     * @return primary key generator, or null
+     */
+    public IdGenerator getIdGenerator()
+    {
+        return idGenerator;
+    }
+
+    /**
+     * Remember for the given duration that a primary key lookup did not find anything. Expressed in seconds,
+     * or with an explicit <code>ms</code>, <code>s</code>, <code>m</code> or <code>h</code> unit.
+     * @param negativeCacheTtl time to live of misses
+     */
+    public void setNegativeCacheTtl(String negativeCacheTtl)
+    {
+        this.negativeCacheTtl = ConfigUtils.parseDuration(negativeCacheTtl, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Check whether a primary key lookup recently failed
+     * @param keyValues primary key values, as sent to the database
+     * @return whether the row is known to be missing
+     */
+    protected boolean isKnownMissing(Serializable[] keyValues)
+    {
+        if (negativeCache == null)
+        {
+            return false;
+        }
+        Serializable[] key = getCacheKey(keyValues);
+        return key != null && negativeCache.contains(Arrays.asList(key));
+    }
+
+    /**
+     * Remember that a primary key lookup failed
+     * @param keyValues primary key values, as sent to the database
+     */
+    protected void rememberMissing(Serializable[] keyValues)
+    {
+        if (negativeCache != null)
+        {
+            Optional.ofNullable(getCacheKey(keyValues)).map(Arrays::asList).ifPresent(negativeCache::put);
+        }
+    }
+
+    /**
+     * Register the negative cache of an attribute returning instances of this entity,
+     * so that it gets invalidated when rows are inserted or updated
+     * @param attributeNegativeCache attribute negative cache
+     */
+    protected void addNegativeCache(NegativeCache attributeNegativeCache)
+    {
+        attributeNegativeCaches.add(attributeNegativeCache);
+    }
+
+    /**
+     * Forget all remembered misses on this entity
+     */
+    public void clearNegativeCaches()
+    {
+        if (negativeCache != null)
+        {
+            negativeCache.clear();
+        }
+        attributeNegativeCaches.forEach(NegativeCache::clear);
+    }
+
+    private void forgetMisses(Map source, boolean inserted) throws SQLException
+    {
+        if (inserted && negativeCache != null && primaryKey != null)
+        {
+            Optional.ofNullable(getCacheKey(source)).map(Arrays::asList).ifPresent(negativeCache::remove);
+        }
+        // any row attribute may now match the inserted or updated row
+        attributeNegativeCaches.forEach(NegativeCache::clear);
+    }
+
+    /*
+     * Identity map
+     */
+
+    /**
+     * Get the instance known to the current identity map, if any, for the given primary key values
+     * @param keyValues primary key values, as sent to the database
+     * @return known instance or null
+     */
+    protected Instance getIdentified(Serializable[] keyValues)
+    {
+        IdentityMap identityMap = getModel().getCurrentIdentityMap();
+        if (identityMap == null || !hasPrimaryKey())
+        {
+            return null;
+        }
+        Serializable[] key = getCacheKey(keyValues);
+        return key == null ? null : identityMap.get((Entity)this, key);
+    }
+
+    /**
+     * Register an instance in the current identity map, if any. Frozen instances are forked before being
+     * registered, since code running with an identity map expects to modify the instances it reads.
+     * @param instance instance
+     * @return the instance previously known for the same primary key, or the given instance (or its fork)
+     * @throws SQLException
+     */
+    protected Instance identify(Instance instance) throws SQLException
+    {
+        IdentityMap identityMap = getModel().getCurrentIdentityMap();
+        if (identityMap == null || !hasPrimaryKey())
+        {
+            return instance;
+        }
+        Serializable[] key = getCacheKey(instance);
+        if (key == null)
+        {
+            return instance;
+        }
+        if (instance.isPartial())
+        {
+            // partial instances are not registered, but a known complete instance is preferred
+            Instance known = identityMap.get((Entity)this, key);
+            return known == null ? instance : known;
+        }
+        return identityMap.putIfAbsent((Entity)this, key, instance.isFrozen() ? instance.fork() : instance);
+    }
+
+    /**
+     * Forget cached rows and known instances after a set-based statement
+     * @param updated whether rows were updated, rather than deleted
+     */
+    private void forgetAll(boolean updated)
+    {
+        clearCache();
+        IdentityMap identityMap = getModel().getCurrentIdentityMap();
+        if (identityMap != null)
+        {
+            identityMap.removeAll((Entity)this);
+        }
+        if (updated)
+        {
+            attributeNegativeCaches.forEach(NegativeCache::clear);
+        }
+    }
+
+    private void forgetIdentity(Map source, boolean keepSource) throws SQLException
+    {
+        IdentityMap identityMap = getModel().getCurrentIdentityMap();
+        if (identityMap != null)
+        {
+            Serializable[] key = getCacheKey(source);
+            if (key != null && (!keepSource || identityMap.get((Entity)this, key) != source))
+            {
+                identityMap.remove((Entity)this, key);
+            }
+        }
+    }
+
+    protected Serializable[] getCacheKey(Map source) throws SQLException
+    {
+        Serializable[] keyValues = new Serializable[primaryKey.size()];
+        for (int i = 0; i < keyValues.length; ++i)
+        {
+            String colName = primaryKey.get(i).name;
+            keyValues[i] = filterValue(colName, (Serializable)source.get(colName));
+        }
+        return getCacheKey(keyValues);
     }
 
     public Model getModel()
@@ -220,14 +1094,21 @@ public abstract class BaseEntity extends AttributeHolder
         return instance;
     }
 
-    protected Map<String, Method> getWrappedInstanceGetters()
+    protected Map<String, BeanProperty> getWrappedInstanceProperties()
     {
-        return wrappedInstanceGetters;
+        return wrappedInstanceProperties;
     }
 
-    protected Map<String, Pair<Method, Class>> getWrappedInstanceSetters()
+    /**
+     * Get the wrapped instance properties matching the columns of a row mapper, so that rows can be
+     * read directly into POJOs. Bindings are resolved once and kept by the mapper.
+     * @param mapper row mapper
+     * @return properties, indexed by mapper column, with nulls for columns not matching any writable property
+     */
+    protected BeanProperty[] getWrappedInstanceBindings(RowMapper mapper)
     {
-        return wrappedInstanceSetters;
+        Map<String, BeanProperty> properties = wrappedInstanceProperties;
+        return properties == null ? null : mapper.getPropertyBindings(properties);
     }
 
     /**
@@ -244,12 +1125,39 @@ public abstract class BaseEntity extends AttributeHolder
         }
 
         columnNames = columns.values().stream().map(x -> x.name).collect(Collectors.toList());
+        columnLayout = typedStorage
+            ? new SlotArrayMap.Layout(columnNames, columns.values().stream().map(col -> SqlUtils.getSqlTypeClass(col.type)).collect(Collectors.toList()))
+            : new SlotArrayMap.Layout(columnNames);
 
         String tableIdentifier = quoteIdentifier(getTable());
 
+        if (lobMode != LobMode.EAGER)
+        {
+            if (sqlPrimaryKey == null || sqlPrimaryKey.size() == 0)
+            {
+                throw new ConfigurationException("entity " + getName() + " cannot have lazy LOBs: no primary key");
+            }
+            for (Entity.Column column : columns.values())
+            {
+                if (column.isLob() && !sqlPrimaryKey.contains(column.sqlName))
+                {
+                    column.setLazy(true);
+                    column.setIterated(lobMode != LobMode.EXCLUDED);
+                }
+            }
+        }
+
         iterateAttribute = new RowsetAttribute("iterate", this);
         iterateAttribute.setResultEntity((Entity)this);
-        iterateAttribute.addQueryPart("SELECT * FROM " + tableIdentifier);
+        if (columns.values().stream().allMatch(Entity.Column::isIterated))
+        {
+            iterateAttribute.addQueryPart("SELECT * FROM " + tableIdentifier);
+        }
+        else
+        {
+            String selectList = columns.values().stream().filter(Entity.Column::isIterated).map(col -> quoteIdentifier(col.sqlName)).collect(Collectors.joining(", "));
+            iterateAttribute.addQueryPart("SELECT " + selectList + " FROM " + tableIdentifier);
+        }
         iterateAttribute.initialize();
 
         countAttribute = new ScalarAttribute("getCount", this);
@@ -264,6 +1172,7 @@ public abstract class BaseEntity extends AttributeHolder
 
             fetchAttribute = new RowAttribute("retrieve", this);
             fetchAttribute.setResultEntity((Entity)this);
+            fetchAttribute.setKeyLookup(true);
             fetchAttribute.addQueryPart("SELECT * FROM " + tableIdentifier + " WHERE ");
             addKeyMapToAttribute(fetchAttribute);
             fetchAttribute.initialize();
@@ -273,12 +1182,88 @@ public abstract class BaseEntity extends AttributeHolder
             addKeyMapToAttribute(delete);
             delete.initialize();
 
-            update = new UpdateAction(this);
-            update.addQueryPart("UPDATE " + tableIdentifier + " SET ");
-            update.addParameter(UpdateAction.DYNAMIC_PART);
-            update.addQueryPart(" WHERE ");
-            addKeyMapToAttribute(update);
-            update.initialize();
+            if (idGenerator != null)
+            {
+                idGenerator.initialize(this);
+            }
+
+            if (versionColumnName != null)
+            {
+                versionColumn = columns.get(versionColumnName);
+                if (versionColumn == null)
+                {
+                    throw new ConfigurationException("entity " + getName() + ": version column not found: " + versionColumnName);
+                }
+                Class versionClass = SqlUtils.getSqlTypeClass(versionColumn.type);
+                versionTimestamp = versionClass != null && java.util.Date.class.isAssignableFrom(versionClass);
+                if (!versionTimestamp && (versionClass == null || !Number.class.isAssignableFrom(versionClass)))
+                {
+                    throw new ConfigurationException("entity " + getName() + ": version column must be numeric or timestamp: " + versionColumnName);
+                }
+                versionedDelete = new Action("delete", this);
+                versionedDelete.addQueryPart("DELETE FROM " + tableIdentifier + " WHERE ");
+                addKeyMapToAttribute(versionedDelete);
+                versionedDelete.addQueryPart(" AND " + quoteIdentifier(versionColumn.sqlName) + " = ");
+                versionedDelete.addParameter(versionColumn.name);
+                versionedDelete.initialize();
+            }
+
+            for (Entity.Column column : columns.values())
+            {
+                if (column.isLazy())
+                {
+                    ScalarAttribute lobAttribute = new ScalarAttribute("get_" + column.name, this);
+                    lobAttribute.addQueryPart("SELECT " + quoteIdentifier(column.sqlName) + " FROM " + tableIdentifier + " WHERE ");
+                    addKeyMapToAttribute(lobAttribute);
+                    lobAttribute.initialize();
+                    lobAttributes.put(column.name, lobAttribute);
+                }
+            }
+
+            if (cache)
+            {
+                rowStore = new OffHeapRowStore(cacheSize, cacheFile);
+                if (cacheFrozen)
+                {
+                    final int maxSize = cacheFrozenSize;
+                    frozenInstances = new LinkedHashMap<List<Serializable>, Instance>(16, 0.75f, true)
+                    {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<List<Serializable>, Instance> eldest)
+                        {
+                            return size() > maxSize;
+                        }
+                    };
+                }
+                if (cacheTimestamp != null)
+                {
+                    Entity.Column timestampColumn = columns.get(cacheTimestamp);
+                    if (timestampColumn == null)
+                    {
+                        throw new ConfigurationException("entity " + getName() + ": cache timestamp column not found: " + cacheTimestamp);
+                    }
+                    cacheTimestampAttribute = new ScalarAttribute("getCacheTimestamp", this);
+                    cacheTimestampAttribute.addQueryPart("SELECT MAX(" + quoteIdentifier(timestampColumn.sqlName) + ") FROM " + tableIdentifier);
+                    cacheTimestampAttribute.initialize();
+                }
+            }
+            if (negativeCacheTtl > 0)
+            {
+                negativeCache = new NegativeCache(negativeCacheTtl);
+            }
+        }
+        else if (cache)
+        {
+            throw new ConfigurationException("entity " + getName() + " cannot be cached: no primary key");
+        }
+        else if (negativeCacheTtl > 0)
+        {
+            throw new ConfigurationException("entity " + getName() + " cannot cache misses: no primary key");
+        }
+
+        if (intern != null)
+        {
+            initializeInterning();
         }
     }
 
@@ -310,13 +1295,181 @@ public abstract class BaseEntity extends AttributeHolder
         }
         insert.addQueryPart(")");
         insert.initialize();
-        if (primaryKey.size() == 1 && primaryKey.get(0).generated)
+        // keys given by the caller or by the id generator don't need to be read back
+        if (primaryKey.size() == 1 && primaryKey.get(0).generated && !columnMask.get(primaryKey.get(0).getIndex()))
         {
             insert.setGeneratedKeyColumn(sqlPrimaryKey.get(0));
         }
         return insert;
     }
 
+    private Action generateUpdateAction(BitSet columnMask)
+    {
+        Action update = new Action("update", this);
+        update.addQueryPart("UPDATE " + quoteIdentifier(getTable()) + " SET ");
+        int col = 0;
+        for (int i = columnMask.nextSetBit(0); i >= 0; i = columnMask.nextSetBit(i+1))
+        {
+            Entity.Column column = columns.get(columnNames.get(i));
+            if (col++ > 0)
+            {
+                update.addQueryPart(", ");
+            }
+            update.addQueryPart(quoteIdentifier(column.sqlName) + " = ");
+            update.addParameter(column.name);
+        }
+        update.addQueryPart(" WHERE ");
+        addKeyMapToAttribute(update);
+        update.initialize();
+        return update;
+    }
+
+    private Action generateVersionedUpdateAction(BitSet columnMask)
+    {
+        Action update = new Action("update", this);
+        update.addQueryPart("UPDATE " + quoteIdentifier(getTable()) + " SET ");
+        for (int i = columnMask.nextSetBit(0); i >= 0; i = columnMask.nextSetBit(i+1))
+        {
+            Entity.Column column = columns.get(columnNames.get(i));
+            if (column != versionColumn)
+            {
+                update.addQueryPart(quoteIdentifier(column.sqlName) + " = ");
+                update.addParameter(column.name);
+                update.addQueryPart(", ");
+            }
+        }
+        update.addQueryPart(quoteIdentifier(versionColumn.sqlName) + " = ");
+        update.addParameter(NEW_VERSION_PARAMETER);
+        update.addQueryPart(" WHERE ");
+        addKeyMapToAttribute(update);
+        update.addQueryPart(" AND " + quoteIdentifier(versionColumn.sqlName) + " = ");
+        update.addParameter(versionColumn.name);
+        update.initialize();
+        return update;
+    }
+
+    private Action generateUpdateWhereAction(BitSet columnMask, String where)
+    {
+        Action update = new Action("updateWhere", this);
+        update.addQueryPart("UPDATE " + quoteIdentifier(getTable()) + " SET ");
+        int col = 0;
+        for (int i = columnMask.nextSetBit(0); i >= 0; i = columnMask.nextSetBit(i+1))
+        {
+            Entity.Column column = columns.get(columnNames.get(i));
+            if (col++ > 0)
+            {
+                update.addQueryPart(", ");
+            }
+            update.addQueryPart(quoteIdentifier(column.sqlName) + " = ");
+            update.addParameter(column.name);
+        }
+        if (versionColumn != null && !columnMask.get(versionColumn.getIndex()))
+        {
+            // invalidate versions read by concurrent instances
+            String versionIdentifier = quoteIdentifier(versionColumn.sqlName);
+            if (versionTimestamp)
+            {
+                // timestamp versions are always taken from the client clock, as for instances updates
+                update.addQueryPart(", " + versionIdentifier + " = ");
+                update.addParameter(NEW_VERSION_PARAMETER);
+            }
+            else
+            {
+                update.addQueryPart(", " + versionIdentifier + " = " + versionIdentifier + " + 1");
+            }
+        }
+        addConditionToAttribute(update, where);
+        update.initialize();
+        return update;
+    }
+
+    private Action generateDeleteWhereAction(String where)
+    {
+        Action delete = new Action("deleteWhere", this);
+        delete.addQueryPart("DELETE FROM " + quoteIdentifier(getTable()));
+        addConditionToAttribute(delete, where);
+        delete.initialize();
+        return delete;
+    }
+
+    /**
+     * Append a WHERE clause to a generated attribute. Each <code>?</code> placeholder outside of literals, quoted
+     * identifiers and comments becomes a distinct parameter, which is not bound to any column.
+     */
+    private void addConditionToAttribute(Attribute attribute, String where)
+    {
+        if (where.trim().isEmpty())
+        {
+            return;
+        }
+        attribute.addQueryPart(" WHERE ");
+        DriverInfos driverInfos = getModel().getDriverInfos();
+        boolean backslashEscapes = driverInfos.getTag().equals("mysql") || driverInfos.getTag().equals("mariadb");
+        int params = 0;
+        int start = 0;
+        for (int placeholder : SqlUtils.findPlaceholders(where, driverInfos.getIdentifierQuoteChar(), backslashEscapes))
+        {
+            attribute.addQueryPart(where.substring(start, placeholder));
+            // not a valid column name, so that the parameter only gets model filters
+            attribute.addParameter("?" + (++params));
+            start = placeholder + 1;
+        }
+        attribute.addQueryPart(where.substring(start));
+    }
+
+    private void checkParametersCount(Action action, int count) throws SQLException
+    {
+        int expected = action.getParameterNames().size();
+        if (count != expected)
+        {
+            throw new SQLException("wrong number of parameters for " + getName() + "." + action.getName() + ": got " + count + ", expected " + expected);
+        }
+    }
+
+    /**
+     * Get the action generated for a set-based statement, with the same caching policy as masked actions.
+     */
+    private Action getConditionalAction(Map<List<Object>, Action> actions, List<Object> key, Supplier<Action> generator)
+    {
+        Action action = actions.get(key);
+        if (action == null)
+        {
+            action = generator.get();
+            if (actions.size() < MAX_MASKED_ACTIONS)
+            {
+                Action known = actions.putIfAbsent(key, action);
+                if (known != null)
+                {
+                    action = known;
+                }
+            }
+        }
+        return action;
+    }
+
+    /**
+     * Get the action generated for a columns mask. Masks are copied before being used as keys, and at most
+     * MAX_MASKED_ACTIONS actions are kept per statement kind; beyond, actions are generated on each call.
+     */
+    private Action getMaskedAction(Map<BitSet, Action> actions, BitSet mask, Function<BitSet, Action> generator)
+    {
+        Action action = actions.get(mask);
+        if (action == null)
+        {
+            BitSet key = (BitSet)mask.clone();
+            action = generator.apply(key);
+            if (actions.size() < MAX_MASKED_ACTIONS)
+            {
+                Action known = actions.putIfAbsent(key, action);
+                if (known != null)
+                {
+                    action = known;
+                }
+            }
+        }
+        return action;
+    }
+
     private void addKeyMapToAttribute(Attribute attribute)
     {
         for (int i = 0; i < sqlPrimaryKey.size(); ++i)
@@ -335,6 +1488,7 @@ public abstract class BaseEntity extends AttributeHolder
     {
         Attribute upstreamAttribute = new RowAttribute(upstreamAttributeName, this);
         upstreamAttribute.setResultEntity(pkEntity);
+        upstreamAttribute.setKeyLookup(true);
         List<String> pkColumns = pkEntity.getSqlPrimaryKey();
         upstreamAttribute.addQueryPart("SELECT * FROM " + quoteIdentifier(pkEntity.getTable()) + " WHERE ");
         for (int col = 0; col < pkColumns.size(); ++ col)
@@ -404,11 +1558,21 @@ public abstract class BaseEntity extends AttributeHolder
 
     protected final Serializable filterValue(String columnName, Serializable value) throws SQLException
     {
-        if (value != null)
+        return value == null ? null : filterValue(getColumn(columnName), value);
+    }
 
+    /**
+     * Filter a value written to a column
+     * @param column target column, or null if the value is not written to a column of this entity
+     * @param value value
+     * @return filtered value
+     * @throws SQLException
+     */
+    protected final Serializable filterValue(Column column, Serializable value) throws SQLException
+    {
+        if (value != null)
         {
             value = getModel().getFilters().getWriteFilters().filter(value);
-            Column column = getColumn(columnName);
             if (column != null)
             {
                 value = column.write(value);
@@ -449,13 +1613,10 @@ public abstract class BaseEntity extends AttributeHolder
         this.instanceBuilder = builder;
         if (properties != null)
         {
-            wrappedInstanceGetters = new HashMap<String, Method>();
-            wrappedInstanceSetters = new HashMap<String, Pair<Method, Class>>();
+            wrappedInstanceProperties = new HashMap<String, BeanProperty>();
             for (PropertyDescriptor descriptor : properties)
             {
-                String name = descriptor.getName();
-                Optional.ofNullable(descriptor.getReadMethod()).ifPresent(getter -> wrappedInstanceGetters.put(name, getter));
-                Optional.ofNullable(descriptor.getWriteMethod()).ifPresent(setter -> wrappedInstanceSetters.put(name, Pair.of(setter, setter.getParameterTypes()[0])));
+                wrappedInstanceProperties.put(descriptor.getName(), new BeanProperty(descriptor));
             }
         }
     }
@@ -464,10 +1625,174 @@ public abstract class BaseEntity extends AttributeHolder
     {
         return countAttribute;
     }
+    /**
+     * Whether instances hold integral, floating point and timestamp column values in primitive slots
+     * @param typedStorage typed storage flag
+     */
+    public void setTypedStorage(boolean typedStorage)
+    {
+        this.typedStorage = typedStorage;
+    }
+
+    /**
+     * Set how large objects columns are read: eagerly, lazily, or lazily and excluded from <code>iterate()</code>
+     * @param lobMode LOB mode
+     */
+    public void setLobMode(LobMode lobMode)
+    {
+        this.lobMode = lobMode;
+    }
+
+    public LobMode getLobMode()
+    {
+        return lobMode;
+    }
+
+    /**
+     * Set the maximum size, in bytes or characters, of lazy LOB values which are still read inline
+     * @param lobInlineThreshold inline threshold
+     */
+    public void setLobInlineThreshold(int lobInlineThreshold)
+    {
+        this.lobInlineThreshold = lobInlineThreshold;
+    }
+
+    public int getLobInlineThreshold()
+    {
+        return lobInlineThreshold;
+    }
+
+    /**
+     * Whether some columns are read lazily
+     * @return lazy LOBs flag
+     */
+    public boolean hasLazyLobs()
+    {
+        return !lobAttributes.isEmpty();
+    }
+
+    /**
+     * Get the attribute reading again the content of a lazy LOB column
+     * @param columnName column name
+     * @return LOB attribute, or null if column is not lazy
+     */
+    protected ScalarAttribute getLobAttribute(String columnName)
+    {
+        return lobAttributes.get(columnName);
+    }
+
+    /**
+     * Set the columns which values are interned, so that equal values share a single instance: either a comma
+     * separated list of columns, or <code>auto</code> for all string columns, which stop being interned
+     * as soon as they exceed the maximum number of distinct values.
+     * @param intern interned columns
+     */
+    public void setIntern(String intern)
+    {
+        this.intern = intern;
+    }
+
+    /**
+     * Set the maximum number of distinct values of each interned column
+     * @param internSize maximum number of distinct values
+     */
+    public void setInternSize(int internSize)
+    {
+        this.internSize = internSize;
+    }
+
+    private void initializeInterning()
+    {
+        if ("auto".equalsIgnoreCase(intern.trim()))
+        {
+            columns.values().stream()
+                .filter(column -> !column.isKeyColumn() && !column.isLob() && SqlUtils.getSqlTypeClass(column.type) == String.class)
+                .forEach(column -> column.setInterner(new Interner(internSize)));
+        }
+        else
+        {
+            for (String columnName : intern.split(","))
+            {
+                Entity.Column column = columns.get(columnName.trim());
+                if (column == null)
+                {
+                    throw new ConfigurationException("entity " + getName() + ": interned column not found: " + columnName.trim());
+                }
+                column.setInterner(new Interner(internSize));
+            }
+        }
+    }
+
+    /**
+     * Get the columns layout shared by instances values arrays
+     * @return columns layout
+     */
+    protected SlotArrayMap.Layout getColumnLayout()
+    {
+        return columnLayout;
+    }
+
     protected RowAttribute getFetchAttribute()
     {
         return fetchAttribute;
     }
+
+    /**
+     * Get the attribute fetching only the given columns, along with the primary key
+     * @param columns projection columns
+     * @return projected fetch attribute
+     */
+    protected RowAttribute getFetchAttribute(List<String> columns)
+    {
+        if (fetchAttribute == null)
+        {
+            return null;
+        }
+        return projectedFetchAttributes.computeIfAbsent(columns, cols ->
+        {
+            RowAttribute attribute = new RowAttribute("retrieve", this);
+            attribute.setResultEntity((Entity)this);
+            attribute.setProjection(cols);
+            attribute.addQueryPart("SELECT * FROM " + quoteIdentifier(getTable()) + " WHERE ");
+            addKeyMapToAttribute(attribute);
+            attribute.initialize();
+            return attribute;
+        });
+    }
+
+    /**
+     * Get the attribute iterating over the given columns, along with the primary key
+     * @param columns projection columns
+     * @return projected iterate attribute
+     */
+    protected RowsetAttribute getIterateAttribute(List<String> columns)
+    {
+        return projectedIterateAttributes.computeIfAbsent(columns, cols ->
+        {
+            RowsetAttribute attribute = new RowsetAttribute("iterate", this);
+            attribute.setResultEntity((Entity)this);
+            attribute.setProjection(cols);
+            attribute.addQueryPart("SELECT * FROM " + quoteIdentifier(getTable()));
+            attribute.initialize();
+            return attribute;
+        });
+    }
+
+    /**
+     * Whether accessing a column not loaded by a projection query loads the remaining columns, or is rejected
+     * (the default). When enabled, a plain <code>get()</code> on a partial instance may query the database,
+     * and a failure of this query is reported as an unchecked {@link com.republicate.modality.ModelException}.
+     * @param lazyCompletion lazy completion flag
+     */
+    public void setLazyCompletion(boolean lazyCompletion)
+    {
+        this.lazyCompletion = lazyCompletion;
+    }
+
+    public boolean isLazyCompletion()
+    {
+        return lazyCompletion;
+    }
     protected RowsetAttribute getIterateAttribute()
     {
         return iterateAttribute;
@@ -478,6 +1803,16 @@ public abstract class BaseEntity extends AttributeHolder
     private Map<String, String> columnsMapping = new HashMap<>();
     private LinkedHashMap<String, Entity.Column> columns = new LinkedHashMap<>();
     private List<String> columnNames = null; // redundant with 'columns' field, but needed for random access
+    private SlotArrayMap.Layout columnLayout = SlotArrayMap.Layout.EMPTY; // shared by instances
+    private boolean typedStorage = false;
+    private String intern = null;
+    private int internSize = Interner.DEFAULT_MAX_SIZE;
+
+    public enum LobMode { EAGER, LAZY, EXCLUDED }
+
+    private LobMode lobMode = LobMode.EAGER;
+    private int lobInlineThreshold = 4096;
+    private Map<String, ScalarAttribute> lobAttributes = new HashMap<>();
 
     private List<String> sqlPrimaryKey = null;
     private List<Entity.Column> primaryKey = null;
@@ -485,16 +1820,45 @@ public abstract class BaseEntity extends AttributeHolder
     private ScalarAttribute countAttribute = null;
     private RowAttribute fetchAttribute = null;
     private RowsetAttribute iterateAttribute = null;
+    private Map<List<String>, RowAttribute> projectedFetchAttributes = new ConcurrentHashMap<>();
+    private Map<List<String>, RowsetAttribute> projectedIterateAttributes = new ConcurrentHashMap<>();
+    private boolean lazyCompletion = false;
 
     private Action delete = null;
-    private Action update = null;
-    private Map<BitSet, Action> insertPerColumnsMask = new HashMap<BitSet, Action>();
+    private static final int MAX_MASKED_ACTIONS = 256;
 
-    private InstanceBuilder instanceBuilder = null;
+    /**
+     * Name of the new version parameter of versioned updates, which cannot collide with a column name
+     */
+    private static final String NEW_VERSION_PARAMETER = "?version";
+    private Map<BitSet, Action> insertPerColumnsMask = new ConcurrentHashMap<>();
+    private Map<BitSet, Action> updatePerColumnsMask = new ConcurrentHashMap<>();
+    private Map<BitSet, Action> versionedUpdatePerColumnsMask = new ConcurrentHashMap<>();
+    private Map<List<Object>, Action> updatePerCondition = new ConcurrentHashMap<>();
+    private Map<List<Object>, Action> deletePerCondition = new ConcurrentHashMap<>();
 
-    private Map<String, Method> wrappedInstanceGetters = null;
+    private InstanceBuilder instanceBuilder = null;
 
-    private Map<String, Pair<Method, Class>> wrappedInstanceSetters = null;
+    private boolean cache = false;
+    private long cacheSize = 64L * 1024L * 1024L;
+    private File cacheFile = null;
+    private OffHeapRowStore rowStore = null;
+    private boolean cacheFrozen = false;
+    private int cacheFrozenSize = 1000;
+    private Map<List<Serializable>, Instance> frozenInstances = null;
+    private String cacheTimestamp = null;
+    private ScalarAttribute cacheTimestampAttribute = null;
+
+    private long negativeCacheTtl = 0;
+    private IdGenerator idGenerator = null;
+    private String versionColumnName = null;
+    private Column versionColumn = null;
+    private boolean versionTimestamp = false;
+    private Action versionedDelete = null;
+    private NegativeCache negativeCache = null;
+    private List<NegativeCache> attributeNegativeCaches = new CopyOnWriteArrayList<>();
+
+    private Map<String, BeanProperty> wrappedInstanceProperties = null;
 
     @FunctionalInterface
     protected interface InstanceBuilder
@@ -549,7 +1913,44 @@ public abstract class BaseEntity extends AttributeHolder
 
         public final Serializable read(Serializable value) throws SQLException
         {
-            return value == null ? null : readFilter.apply(value);
+            if (value == null)
+            {
+                return null;
+            }
+            return intern(readFilter.apply(value));
+        }
+
+        /**
+         * Get the canonical instance of a value, if values of this column are interned
+         * @param value value
+         * @return canonical value
+         */
+        public final Serializable intern(Serializable value)
+        {
+            return interner == null || value == null ? value : interner.intern(value);
+        }
+
+        /**
+         * Whether values read from this column are interned
+         * @return interning flag
+         */
+        public boolean isInterned()
+        {
+            return interner != null && interner.isActive();
+        }
+
+        protected void setInterner(Interner interner)
+        {
+            this.interner = interner;
+        }
+
+        /**
+         * Whether values read from this column are filtered
+         * @return read filtering flag
+         */
+        public final boolean isReadFiltered()
+        {
+            return readFilter != Filter.identity();
         }
 
         public final Serializable write(Serializable value) throws SQLException
@@ -557,13 +1958,68 @@ public abstract class BaseEntity extends AttributeHolder
             return writeFilter.apply(value);
         }
 
+        /**
+         * Get the binder of parameters written to this column
+         * @return parameter binder
+         */
+        public ParameterBinder getBinder()
+        {
+            ParameterBinder current = binder;
+            if (current == null)
+            {
+                binder = current = SqlUtils.getParameterBinder(type);
+            }
+            return current;
+        }
+
+        /**
+         * Whether column holds large objects
+         * @return LOB flag
+         */
+        public boolean isLob()
+        {
+            return SqlUtils.isLobType(type);
+        }
+
+        /**
+         * Whether column values are read as {@link com.republicate.modality.LobHandle} when above the inline threshold
+         * @return lazy flag
+         */
+        public boolean isLazy()
+        {
+            return lazy;
+        }
+
+        protected void setLazy(boolean lazy)
+        {
+            this.lazy = lazy;
+        }
+
+        /**
+         * Whether column is part of the default iteration query
+         * @return iteration flag
+         */
+        public boolean isIterated()
+        {
+            return iterated;
+        }
+
+        protected void setIterated(boolean iterated)
+        {
+            this.iterated = iterated;
+        }
+
         public final String name;
         public final String sqlName;
         public final int type;
         public final Integer size;
         public final boolean generated;
         private int index = -1;
+        private transient ParameterBinder binder = null;
         private boolean keyColumn = false;
+        private boolean lazy = false;
+        private Interner interner = null;
+        private boolean iterated = true;
         private Filter<Serializable> readFilter = Filter.identity();
         private Filter<Serializable> writeFilter = Filter.identity();
     }
@@ -28,6 +28,7 @@ import com.republicate.modality.ModelRepository;
 import com.republicate.modality.RowsetAttribute;
 import com.republicate.modality.Transaction;
 import com.republicate.modality.WrappingInstance;
+import com.republicate.modality.cache.IdentityMap;
 import com.republicate.modality.config.ConfigDigester;
 import com.republicate.modality.config.ConfigHelper;
 import com.republicate.modality.config.ConfigurationException;
@@ -41,6 +42,7 @@ import com.republicate.modality.sql.Credentials;
 import com.republicate.modality.sql.DriverInfos;
 import com.republicate.modality.sql.PooledDataSource;
 import com.republicate.modality.sql.StatementPool;
+import com.republicate.modality.util.BeanProperty;
 import com.republicate.modality.util.ConversionHandler;
 import com.republicate.modality.util.ConversionHandlerImpl;
 import com.republicate.modality.util.Cryptograph;
@@ -55,8 +57,10 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -81,6 +85,9 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NameNotFoundException;
@@ -244,6 +251,14 @@ public abstract class BaseModel extends AttributeHolder implements Constants
             Optional.ofNullable(config.get(MODEL_INSTANCES_FACTORY)).ifPresent(getInstances()::setFactory);
             Optional.ofNullable(config.getSubProperties(MODEL_INSTANCES_CLASSES)).ifPresent(getInstances()::setClasses);
 
+            Optional.ofNullable(config.getBoolean(MODEL_IDENTITY_MAP)).ifPresent(this::setIdentityMap);
+            Optional.ofNullable(config.getString(MODEL_IDENTITY_MAP_SIZE)).map(Integer::valueOf).ifPresent(this::setIdentityMapSize);
+            Optional.ofNullable(config.getString(MODEL_CACHE_SNAPSHOTS)).ifPresent(this::setCacheSnapshots);
+
+            Optional.ofNullable(config.getString(MODEL_DRIVER_CONNECTION_PROPERTIES)).ifPresent(getDriverInfos()::setConnectionProperties);
+            Optional.ofNullable(config.getString(MODEL_DRIVER_FETCH_SIZE)).map(Integer::valueOf).ifPresent(getDriverInfos()::setFetchSize);
+            Optional.ofNullable(config.getString(MODEL_DRIVER_PREPARE_HINTS)).ifPresent(getDriverInfos()::setPrepareHints);
+
             Optional.ofNullable(config.getString(MODEL_DATABASE)).ifPresent(this::setDatabaseURL);
             Optional.ofNullable(config.getString(MODEL_CREDENTIALS_USER)).ifPresent(getCredentials()::setUser);
             Optional.ofNullable(config.getString(MODEL_CREDENTIALS_PASSWORD)).ifPresent(getCredentials()::setPassword);
@@ -361,6 +376,8 @@ public abstract class BaseModel extends AttributeHolder implements Constants
             registerModel();
             initialized = true;
             upgradeIfNeeded();
+            loadCacheSnapshots();
+            registerShutdownHook();
         }
         catch (ConfigurationException ce)
         {
@@ -420,9 +437,17 @@ public abstract class BaseModel extends AttributeHolder implements Constants
         ConfigDigester.setProperties(this, props);
         getDriverInfos().setDefaults(stockInfos);
         getDriverInfos().log();
+        if (dataSource instanceof BasicDataSource)
+        {
+            ((BasicDataSource)dataSource).setConnectionProperties(getDriverInfos().getConnectionProperties());
+        }
+        else if (!getDriverInfos().getConnectionProperties().isEmpty())
+        {
+            logger.info("driver connection properties are only applied to connections opened from the database URL");
+        }
 
-        connectionPool = new ConnectionPool(dataSource, credentials, driverInfos, schema, true, maxConnections);
-        transactionConnectionPool = new ConnectionPool(dataSource, credentials, driverInfos, schema, false, maxConnections);
+        connectionPool = createConnectionPool(true, maxConnections);
+        transactionConnectionPool = createConnectionPool(false, maxConnections);
         statementPool = new StatementPool(getModelId(), connectionPool, getConnectionsCheckInterval());
     }
 
@@ -590,6 +615,49 @@ public abstract class BaseModel extends AttributeHolder implements Constants
         return getModel();
     }
 
+    public boolean isIdentityMap()
+    {
+        return identityMap;
+    }
+
+    /**
+     * Whether <code>Model.attempt()</code> runs its operations inside an identity map
+     * @param identityMap identity map flag
+     * @return model
+     */
+    public Model setIdentityMap(boolean identityMap)
+    {
+        this.identityMap = identityMap;
+        return getModel();
+    }
+
+    public int getIdentityMapSize()
+    {
+        return identityMapSize;
+    }
+
+    public Model setIdentityMapSize(int identityMapSize)
+    {
+        this.identityMapSize = identityMapSize;
+        return getModel();
+    }
+
+    public File getCacheSnapshots()
+    {
+        return cacheSnapshots;
+    }
+
+    /**
+     * Directory where entities caches are saved by <code>close()</code>, and reloaded from at initialization
+     * @param cacheSnapshots snapshots directory
+     * @return model
+     */
+    public Model setCacheSnapshots(String cacheSnapshots)
+    {
+        this.cacheSnapshots = new File(cacheSnapshots);
+        return getModel();
+    }
+
     public URL getDefinition()
     {
         return definition;
@@ -657,6 +725,19 @@ public abstract class BaseModel extends AttributeHolder implements Constants
         return transactionConnectionPool.getConnection();
     }
 
+    /**
+     * Create a new pool of connections towards the model database, for components which must not share
+     * the model connections
+     * @param autocommit autocommit flag
+     * @param max maximum number of connections
+     * @return connection pool
+     * @throws SQLException
+     */
+    protected ConnectionPool createConnectionPool(boolean autocommit, int max) throws SQLException
+    {
+        return new ConnectionPool(dataSource, credentials, driverInfos, schema, autocommit, max);
+    }
+
     public NavigableMap<String, Entity> getEntities()
     {
         return Collections.unmodifiableNavigableMap(entitiesMap);
@@ -1069,6 +1150,183 @@ public abstract class BaseModel extends AttributeHolder implements Constants
      * Operations
      */
 
+    /*
+     * Cache snapshots
+     */
+
+    private void loadCacheSnapshots()
+    {
+        if (cacheSnapshots == null)
+        {
+            return;
+        }
+        for (Entity entity : entitiesMap.values())
+        {
+            if (entity.isCached())
+            {
+                entity.loadCacheSnapshot(cacheSnapshots);
+            }
+        }
+    }
+
+    /**
+     * <p>Release the model resources. Write-behind queues are flushed, and entities caches are saved to the cache
+     * snapshots directory, if any.</p>
+     * <p>This method is called by a JVM shutdown hook, and by the webapp filters and servlets when they are
+     * destroyed, but standalone applications should call it explicitly as soon as they are done with the model.</p>
+     */
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        unregisterShutdownHook();
+        synchronized (writeBehindQueues)
+        {
+            writeBehindQueues.forEach(WriteBehindQueue::close);
+            if (writeBehindScheduler != null)
+            {
+                writeBehindScheduler.shutdown();
+                writeBehindScheduler = null;
+            }
+        }
+        for (Entity entity : entitiesMap.values())
+        {
+            Optional.ofNullable(entity.getIdGenerator()).ifPresent(IdGenerator::close);
+        }
+        if (cacheSnapshots != null && initialized)
+        {
+            if (!cacheSnapshots.isDirectory() && !cacheSnapshots.mkdirs())
+            {
+                getLogger().error("could not create cache snapshots directory {}", cacheSnapshots);
+                return;
+            }
+            for (Entity entity : entitiesMap.values())
+            {
+                if (entity.isCached())
+                {
+                    entity.saveCacheSnapshot(cacheSnapshots);
+                }
+            }
+        }
+    }
+
+    private void registerShutdownHook()
+    {
+        shutdownHook = new Thread(this::close, "modality-shutdown-" + getModelId());
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Get the JVM shutdown hook closing the model
+     * @return shutdown hook, or null if the model is not initialized or has been closed
+     */
+    protected Thread getShutdownHook()
+    {
+        return shutdownHook;
+    }
+
+    private void unregisterShutdownHook()
+    {
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook)
+        {
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException ise)
+            {
+                // JVM is already shutting down
+            }
+        }
+        shutdownHook = null;
+    }
+
+    /*
+     * Write-behind
+     */
+
+    /**
+     * Register the write-behind queue of an action, and start its periodic flushes
+     * @param queue write-behind queue
+     */
+    protected void addWriteBehindQueue(WriteBehindQueue queue)
+    {
+        synchronized (writeBehindQueues)
+        {
+            if (writeBehindScheduler == null)
+            {
+                writeBehindScheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+                {
+                    Thread thread = new Thread(runnable, "modality-write-behind-" + getModelId());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            writeBehindQueues.add(queue);
+            queue.start(writeBehindScheduler);
+        }
+    }
+
+    /**
+     * Get the write-behind queues of the model actions, for monitoring purposes
+     * @return write-behind queues
+     */
+    public List<WriteBehindQueue> getWriteBehindQueues()
+    {
+        synchronized (writeBehindQueues)
+        {
+            return new ArrayList<>(writeBehindQueues);
+        }
+    }
+
+    /*
+     * Identity map
+     */
+
+    /**
+     * Open an identity map for the current thread, unless one is already opened.
+     * @return whether a new identity map has been opened
+     */
+    public boolean openIdentityMap()
+    {
+        if (currentIdentityMap.get() != null)
+        {
+            return false;
+        }
+        currentIdentityMap.set(new IdentityMap(identityMapSize));
+        return true;
+    }
+
+    public void closeIdentityMap()
+    {
+        currentIdentityMap.remove();
+    }
+
+    public void clearIdentityMap()
+    {
+        Optional.ofNullable(currentIdentityMap.get()).ifPresent(IdentityMap::clear);
+    }
+
+    /**
+     * Get the identity map of the current thread
+     * @return current identity map, or null
+     */
+    public IdentityMap getCurrentIdentityMap()
+    {
+        return currentIdentityMap.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        // transient fields initializers are not run by deserialization
+        currentIdentityMap = new ThreadLocal<>();
+        writeBehindQueues = new ArrayList<>();
+    }
+
     protected final String quoteIdentifier(String identifier)
     {
         return driverInfos.quoteIdentifier(identifier);
@@ -1281,19 +1539,15 @@ public abstract class BaseModel extends AttributeHolder implements Constants
                     }
                     else
                     {
-                        entity.setInstanceBuilder(() ->
+                        try
                         {
-                            try
-                            {
-                                Object obj = clazz.newInstance();
-                                return new WrappingInstance(entity, obj);
-                            }
-                            catch (InstantiationException | IllegalAccessException e)
-                            {
-                                throw new RuntimeException("could not create instance of class " + clazz.getName());
-                            }
-                        }, PropertyUtils.getPropertyDescriptors(clazz));
-
+                            final Supplier<Object> constructor = BeanProperty.constructor(clazz);
+                            entity.setInstanceBuilder(() -> new WrappingInstance(entity, constructor.get()), PropertyUtils.getPropertyDescriptors(clazz));
+                        }
+                        catch (NoSuchMethodException | IllegalStateException e)
+                        {
+                            throw new ConfigurationException("Class " + clazz.getName() + " must declare a public ctor without arguments", e);
+                        }
                     }
                     classProvided.add(key);
                 }
@@ -1333,35 +1587,22 @@ public abstract class BaseModel extends AttributeHolder implements Constants
                                 throw new ConfigurationException("factory instance creation returned null for entity " + entity.getName());
                             }
                             Class clazz = obj.getClass();
-                            final Method creationMethod = method;
+                            final Supplier<Object> creationMethod;
+                            try
+                            {
+                                creationMethod = BeanProperty.factory(method);
+                            }
+                            catch (IllegalStateException ise)
+                            {
+                                throw new ConfigurationException("could not use factory method " + method + " for entity " + entity.getName(), ise);
+                            }
                             if (Instance.class.isAssignableFrom(clazz))
                             {
-                                entity.setInstanceBuilder(() ->
-                                {
-                                    try
-                                    {
-                                        return (Instance)creationMethod.invoke(null);
-                                    }
-                                    catch (IllegalAccessException | InvocationTargetException e)
-                                    {
-                                        throw new RuntimeException("could not create instance of class " + clazz.getName());
-                                    }
-                                });
+                                entity.setInstanceBuilder(() -> (Instance)creationMethod.get());
                             }
                             else
                             {
-                                entity.setInstanceBuilder(() ->
-                                {
-                                    try
-                                    {
-                                        return new WrappingInstance(entity, creationMethod.invoke(null));
-                                    }
-                                    catch (IllegalAccessException | InvocationTargetException e)
-                                    {
-                                        throw new RuntimeException("could not create instance of class " + clazz.getName());
-                                    }
-                                });
-
+                                entity.setInstanceBuilder(() -> new WrappingInstance(entity, creationMethod.get()), PropertyUtils.getPropertyDescriptors(clazz));
                             }
                         }
                     }
@@ -1462,6 +1703,38 @@ public abstract class BaseModel extends AttributeHolder implements Constants
      */
     private long connectionsCheckInterval = 300;
 
+    /**
+     * Whether Model.attempt() opens an identity map
+     */
+    private boolean identityMap = false;
+
+    /**
+     * Maximum number of instances per identity map
+     */
+    private int identityMapSize = 1000;
+
+    /**
+     * Identity map of the current thread, if any
+     */
+    private transient ThreadLocal<IdentityMap> currentIdentityMap = new ThreadLocal<>();
+
+    /**
+     * Write-behind queues of asynchronous actions, and their flushes scheduler
+     */
+    private transient List<WriteBehindQueue> writeBehindQueues = new ArrayList<>();
+    private transient ScheduledExecutorService writeBehindScheduler = null;
+
+    /**
+     * Entities caches snapshots directory, if any
+     */
+    private File cacheSnapshots = null;
+
+    /**
+     * JVM shutdown hook closing the model, and closed state
+     */
+    private transient Thread shutdownHook = null;
+    private transient boolean closed = false;
+
     /**
      * Pool of connections for transactions.
      */
@@ -0,0 +1,322 @@
+package com.republicate.modality.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.ScalarAttribute;
+import com.republicate.modality.config.ConfigurationException;
+import com.republicate.modality.sql.ConnectionPool;
+import com.republicate.modality.sql.ConnectionWrapper;
+import com.republicate.modality.util.TypeUtils;
+
+import java.io.Serializable;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * <p>Client side primary key generator, which pre-allocates blocks of keys, so that inserted rows get their key
+ * without any last insert id query. The generator is given by the <code>id-generator</code> entity attribute:</p>
+ * <ul>
+ *     <li><code>sequence:<i>name</i>[,block=<i>n</i>]</code> - each value of the database sequence is the first key of a
+ *     block of <i>n</i> keys, so the sequence must be incremented by <i>n</i>. The sequence query is given by the
+ *     <code>driver.sequence_query</code> driver property.</li>
+ *     <li><code>hilo[:<i>table</i>][,block=<i>n</i>]</code> - for engines without sequences, blocks are allocated in
+ *     their own transaction, on a dedicated connection, by incrementing the <code>next_id</code> column of the table
+ *     row whose <code>entity</code> column holds the entity name. The <code>entity</code> column must be the table
+ *     primary key. A missing row is created from the maximum existing key. The table defaults
+ *     to <code>modality_ids</code>.</li>
+ * </ul>
+ * <p>Blocks hold 100 keys by default. Unused keys of a block are lost when the model is discarded.</p>
+ */
+
+public class IdGenerator
+{
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
+    public static final String DEFAULT_HILO_TABLE = "modality_ids";
+
+    public enum Strategy { SEQUENCE, HILO }
+
+    /**
+     * Parse a generator specification
+     * @param spec generator specification
+     */
+    public IdGenerator(String spec)
+    {
+        String[] parts = spec.split(",");
+        String head = parts[0].trim();
+        int colon = head.indexOf(':');
+        String kind = colon == -1 ? head : head.substring(0, colon).trim();
+        name = colon == -1 ? null : head.substring(colon + 1).trim();
+        switch (kind.toLowerCase(Locale.ROOT))
+        {
+            case "sequence":
+                strategy = Strategy.SEQUENCE;
+                if (name == null || name.isEmpty())
+                {
+                    throw new ConfigurationException("id generator: missing sequence name: " + spec);
+                }
+                break;
+            case "hilo":
+                strategy = Strategy.HILO;
+                if (name == null || name.isEmpty())
+                {
+                    name = DEFAULT_HILO_TABLE;
+                }
+                break;
+            default:
+                throw new ConfigurationException("id generator: unknown strategy: " + spec);
+        }
+        int size = DEFAULT_BLOCK_SIZE;
+        for (int i = 1; i < parts.length; ++i)
+        {
+            String part = parts[i].trim();
+            if (!part.startsWith("block="))
+            {
+                throw new ConfigurationException("id generator: invalid option: " + part);
+            }
+            try
+            {
+                size = Integer.parseInt(part.substring(6).trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new ConfigurationException("id generator: invalid block size: " + part, nfe);
+            }
+            if (size < 1)
+            {
+                throw new ConfigurationException("id generator: invalid block size: " + part);
+            }
+        }
+        blockSize = size;
+    }
+
+    /**
+     * Bind the generator to its entity, which must have a single column primary key
+     * @param entity entity
+     */
+    protected void initialize(BaseEntity entity)
+    {
+        if (entity.getPrimaryKey() == null || entity.getPrimaryKey().size() != 1)
+        {
+            throw new ConfigurationException("entity " + entity.getName() + ": id generator needs a single column primary key");
+        }
+        this.entity = entity;
+        if (strategy == Strategy.SEQUENCE)
+        {
+            String sequenceQuery = entity.getModel().getDriverInfos().getSequenceQuery();
+            if (sequenceQuery == null)
+            {
+                throw new ConfigurationException("entity " + entity.getName() + ": database has no sequence query, use the hilo id generator");
+            }
+            nextBlockAttribute = new ScalarAttribute("nextIdBlock", entity);
+            nextBlockAttribute.addQueryPart(sequenceQuery.replace("$sequence", name));
+            nextBlockAttribute.initialize();
+        }
+        else
+        {
+            String keyColumn = entity.quoteIdentifier(entity.getPrimaryKey().get(0).sqlName);
+            maxKeyQuery = "SELECT MAX(" + keyColumn + ") FROM " + entity.quoteIdentifier(entity.getTable());
+        }
+    }
+
+    public Strategy getStrategy()
+    {
+        return strategy;
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * Get the next key, allocating a new block of keys if needed
+     * @return next key
+     * @throws SQLException
+     */
+    public synchronized long nextId() throws SQLException
+    {
+        if (next == limit)
+        {
+            next = strategy == Strategy.SEQUENCE ? allocateSequenceBlock() : allocateHiloBlock();
+            limit = next + blockSize;
+            entity.getModel().getLogger().debug("entity {}: allocated keys [{}, {})", entity.getName(), next, limit);
+        }
+        return next++;
+    }
+
+    /**
+     * Close the dedicated connection of the hilo strategy, if any
+     */
+    protected synchronized void close()
+    {
+        if (connectionPool != null)
+        {
+            connectionPool.clear();
+            connectionPool = null;
+        }
+    }
+
+    private long allocateSequenceBlock() throws SQLException
+    {
+        Serializable value = nextBlockAttribute.evaluate();
+        if (value == null)
+        {
+            throw new SQLException("entity " + entity.getName() + ": sequence " + name + " returned no value");
+        }
+        return TypeUtils.toLong(value);
+    }
+
+    /**
+     * Allocate a block of keys in its own transaction, on a dedicated connection, so that neither the caller
+     * transaction nor another connection of the model pools is committed or rolled back. Concurrent creations of
+     * the entity row by several processes are detected by the primary key of the table, and the losers retry.
+     */
+    private long allocateHiloBlock() throws SQLException
+    {
+        if (connectionPool == null)
+        {
+            connectionPool = ((BaseModel)entity.getModel()).createConnectionPool(false, 1);
+        }
+        ConnectionWrapper connection = connectionPool.getConnection();
+        connection.enterBusyState();
+        try
+        {
+            if (hiloTable == null)
+            {
+                hiloTable = entity.quoteIdentifier(checkHiloTable(connection));
+            }
+            for (int attempt = 1; ; ++attempt)
+            {
+                try
+                {
+                    Long start = incrementHiloRow(connection);
+                    if (start == null)
+                    {
+                        start = insertHiloRow(connection);
+                    }
+                    connection.commit();
+                    return start;
+                }
+                catch (SQLException sqle)
+                {
+                    connection.rollback();
+                    String sqlState = sqle.getSQLState();
+                    if (attempt == MAX_HILO_ATTEMPTS || sqlState == null || !sqlState.startsWith(INTEGRITY_CONSTRAINT_VIOLATION))
+                    {
+                        throw sqle;
+                    }
+                    // the row has been created meanwhile by another process
+                    entity.getModel().getLogger().debug("entity {}: concurrent creation of hilo row, retrying", entity.getName());
+                }
+            }
+        }
+        finally
+        {
+            connection.leaveBusyState();
+        }
+    }
+
+    /**
+     * Check that the entity column of the hilo table is its primary key, which makes concurrent row creations safe
+     * @return table name, as known by the database
+     */
+    private String checkHiloTable(ConnectionWrapper connection) throws SQLException
+    {
+        DatabaseMetaData meta = connection.getMetaData();
+        for (String table : new String[] { name, name.toUpperCase(Locale.ROOT), name.toLowerCase(Locale.ROOT) })
+        {
+            try (ResultSet rs = meta.getPrimaryKeys(null, null, table))
+            {
+                while (rs.next())
+                {
+                    if ("entity".equalsIgnoreCase(rs.getString("COLUMN_NAME")))
+                    {
+                        return rs.getString("TABLE_NAME");
+                    }
+                }
+            }
+        }
+        throw new SQLException("entity " + entity.getName() + ": hilo table " + name + " must have the entity column as primary key");
+    }
+
+    /**
+     * Increment the entity row
+     * @return start of the allocated block, or null if the row doesn't exist
+     */
+    private Long incrementHiloRow(ConnectionWrapper connection) throws SQLException
+    {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE " + hiloTable + " SET next_id = next_id + ? WHERE entity = ?"))
+        {
+            update.setLong(1, blockSize);
+            update.setString(2, entity.getName());
+            if (update.executeUpdate() == 0)
+            {
+                return null;
+            }
+        }
+        try (PreparedStatement select = connection.prepareStatement("SELECT next_id FROM " + hiloTable + " WHERE entity = ?"))
+        {
+            select.setString(1, entity.getName());
+            try (ResultSet rs = select.executeQuery())
+            {
+                rs.next();
+                return rs.getLong(1) - blockSize;
+            }
+        }
+    }
+
+    private long insertHiloRow(ConnectionWrapper connection) throws SQLException
+    {
+        long start;
+        try (PreparedStatement select = connection.prepareStatement(maxKeyQuery); ResultSet rs = select.executeQuery())
+        {
+            start = rs.next() ? rs.getLong(1) + 1 : 1;
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + hiloTable + " (entity, next_id) VALUES (?, ?)"))
+        {
+            insert.setString(1, entity.getName());
+            insert.setLong(2, start + blockSize);
+            insert.executeUpdate();
+        }
+        return start;
+    }
+
+    private final Strategy strategy;
+    private String name;
+    private final int blockSize;
+    private BaseEntity entity = null;
+    private ScalarAttribute nextBlockAttribute = null;
+    private String maxKeyQuery = null;
+    private long next = 0;
+    private long limit = 0;
+    private ConnectionPool connectionPool = null;
+    private String hiloTable = null;
+
+    private static final int MAX_HILO_ATTEMPTS = 3;
+
+    /**
+     * SQL state class of integrity constraint violations, like duplicate keys
+     */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+}
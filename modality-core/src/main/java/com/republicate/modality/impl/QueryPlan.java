@@ -0,0 +1,220 @@
+package com.republicate.modality.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Compiled form of an attribute query: final SQL, individual statements for transactions, and parameter slots
+ * table, mapping each <code>?</code> placeholder to its parameter name and to its distinct parameter order.</p>
+ * <p>Plans are immutable, and can be shared between threads. The <code>@reference</code> tokens of the query are
+ * located once; merged variants of a plan are cached per references values.</p>
+ */
+
+public final class QueryPlan implements Serializable
+{
+    /**
+     * Maximum number of cached merged variants
+     */
+    public static final int MAX_VARIANTS = 256;
+
+    /**
+     * Compile a query
+     * @param query query SQL, with <code>?</code> placeholders
+     * @param parameterNames parameter name of each placeholder
+     * @param splitter statements splitter, or null if the query holds a single statement
+     */
+    public QueryPlan(String query, List<String> parameterNames, Function<String, List<String>> splitter)
+    {
+        this.query = query;
+        this.parameterNames = parameterNames.toArray(new String[parameterNames.size()]);
+        this.paramMapping = new int[this.parameterNames.length];
+        Map<String, Integer> paramOrders = new HashMap<String, Integer>();
+        for (int i = 0; i < this.parameterNames.length; ++i)
+        {
+            String paramName = this.parameterNames[i];
+            Integer order = paramOrders.get(paramName);
+            if (order == null)
+            {
+                paramOrders.put(paramName, order = paramOrders.size());
+            }
+            paramMapping[i] = order;
+        }
+        this.distinctParametersCount = paramOrders.size();
+        this.statements = splitter == null ? null : Collections.unmodifiableList(splitter.apply(query));
+
+        List<String> fragments = new ArrayList<>();
+        List<String> references = new ArrayList<>();
+        Matcher matcher = REFERENCE.matcher(query);
+        int pos = 0;
+        while (matcher.find())
+        {
+            fragments.add(query.substring(pos, matcher.start()));
+            references.add(matcher.group().substring(1));
+            pos = matcher.end();
+        }
+        fragments.add(query.substring(pos));
+        this.fragments = fragments.toArray(new String[fragments.size()]);
+        this.references = references.toArray(new String[references.size()]);
+        this.variants = this.references.length == 0 ? null : new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Merged variant constructor
+     */
+    private QueryPlan(QueryPlan template, String query, Function<String, List<String>> splitter)
+    {
+        this.query = query;
+        this.parameterNames = template.parameterNames;
+        this.paramMapping = template.paramMapping;
+        this.distinctParametersCount = template.distinctParametersCount;
+        this.statements = splitter == null ? null : Collections.unmodifiableList(splitter.apply(query));
+        this.fragments = new String[] { query };
+        this.references = new String[0];
+        this.variants = null;
+    }
+
+    public String getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * Get the individual statements of a multi-statements query
+     * @return statements, or null if the plan was compiled without splitter
+     */
+    public List<String> getStatements()
+    {
+        return statements;
+    }
+
+    /**
+     * Get the number of <code>?</code> placeholders
+     * @return placeholders count
+     */
+    public int getParametersCount()
+    {
+        return parameterNames.length;
+    }
+
+    /**
+     * Get the number of distinct parameter names
+     * @return distinct parameters count
+     */
+    public int getDistinctParametersCount()
+    {
+        return distinctParametersCount;
+    }
+
+    /**
+     * Get the parameter name of a placeholder
+     * @param slot placeholder index, starting at zero
+     * @return parameter name
+     */
+    public String getParameterName(int slot)
+    {
+        return parameterNames[slot];
+    }
+
+    /**
+     * Get the order, among distinct parameter names, of the parameter of a placeholder
+     * @param slot placeholder index, starting at zero
+     * @return parameter order
+     */
+    public int getParameterOrder(int slot)
+    {
+        return paramMapping[slot];
+    }
+
+    public List<String> getParameterNames()
+    {
+        return Collections.unmodifiableList(Arrays.asList(parameterNames));
+    }
+
+    /**
+     * Get the variant of this plan where <code>@reference</code> tokens are replaced by their value in the
+     * given context. References missing from the context are left as is.
+     * @param context references values
+     * @param splitter statements splitter, or null
+     * @return merged plan
+     */
+    public QueryPlan merge(Map<String, ?> context, Function<String, List<String>> splitter)
+    {
+        if (references.length == 0)
+        {
+            return this;
+        }
+        List<String> values = new ArrayList<>(references.length);
+        boolean merged = false;
+        for (String reference : references)
+        {
+            Object value = context.get(reference);
+            values.add(value == null ? null : String.valueOf(value));
+            merged |= value != null;
+        }
+        if (!merged)
+        {
+            return this;
+        }
+        QueryPlan variant = variants.get(values);
+        if (variant == null)
+        {
+            StringBuilder mergedQuery = new StringBuilder(query.length());
+            for (int i = 0; i < references.length; ++i)
+            {
+                mergedQuery.append(fragments[i]);
+                String value = values.get(i);
+                mergedQuery.append(value == null ? "@" + references[i] : value);
+            }
+            mergedQuery.append(fragments[references.length]);
+            variant = new QueryPlan(this, mergedQuery.toString(), splitter);
+            if (variants.size() < MAX_VARIANTS)
+            {
+                QueryPlan known = variants.putIfAbsent(values, variant);
+                if (known != null)
+                {
+                    variant = known;
+                }
+            }
+        }
+        return variant;
+    }
+
+    private static final Pattern REFERENCE = Pattern.compile("@\\w+");
+
+    private final String query;
+    private final String[] parameterNames;
+    private final int[] paramMapping;
+    private final int distinctParametersCount;
+    private final List<String> statements;
+    private final String[] fragments;
+    private final String[] references;
+    private final Map<List<String>, QueryPlan> variants;
+}
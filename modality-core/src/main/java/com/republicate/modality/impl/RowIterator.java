@@ -53,10 +53,24 @@ public class RowIterator extends InstanceProducer implements Iterator<Instance>,
      * @param resultEntity the resulting entity (may be null)
      */
     public RowIterator(AttributeHolder parent, PooledStatement pooledStatement, ResultSet resultSet, Entity resultEntity)
+    {
+        this(parent, pooledStatement, resultSet, resultEntity, null);
+    }
+
+    /**
+     * Build a new RowIterator.
+     *
+     * @param pooledStatement the sql statement
+     * @param resultSet the resultset
+     * @param resultEntity the resulting entity (may be null)
+     * @param rowMapper the row mapper (may be null)
+     */
+    public RowIterator(AttributeHolder parent, PooledStatement pooledStatement, ResultSet resultSet, Entity resultEntity, RowMapper rowMapper)
     {
         super(parent.getModel(), resultEntity);
         this.pooledStatement = pooledStatement;
         this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
     }
 
     /**
@@ -131,8 +145,17 @@ public class RowIterator extends InstanceProducer implements Iterator<Instance>,
             }
             prefetch = false;
 
+            if (rowMapper == null)
+            {
+                rowMapper = new RowMapper(resultSet.getMetaData(), getModel(), getResultEntity());
+            }
             Instance row =  newResultInstance();
-            row.readValues(pooledStatement);
+            row.readValues(resultSet, rowMapper);
+            BaseEntity resultEntity = getResultEntity();
+            if (resultEntity != null)
+            {
+                row = resultEntity.identify(row);
+            }
             return row;
         }
         catch(SQLException sqle)
@@ -243,6 +266,11 @@ public class RowIterator extends InstanceProducer implements Iterator<Instance>,
      */
     private ResultSet resultSet = null;
 
+    /**
+     * Row mapper.
+     */
+    private transient RowMapper rowMapper = null;
+
     /**
      * Resulting entity.
      */
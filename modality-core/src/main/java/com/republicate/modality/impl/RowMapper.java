@@ -0,0 +1,414 @@
+package com.republicate.modality.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.Entity;
+import com.republicate.modality.LobHandle;
+import com.republicate.modality.Model;
+import com.republicate.modality.filter.Filter;
+import com.republicate.modality.filter.ValueFilters;
+import com.republicate.modality.sql.SqlUtils;
+import com.republicate.modality.util.BeanProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * <p>Maps the rows of result sets of a given shape towards instances.</p>
+ * <p>Everything which only depends on the result set metadata (instance keys, entity columns, JDBC getters
+ * and read filters) is resolved once, so that reading a row only involves indexed getters and filters calls.</p>
+ */
+
+public class RowMapper
+{
+    private static final int OBJECT = 0;
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int SHORT = 6;
+    private static final int BOOLEAN = 7;
+    private static final int BIG_DECIMAL = 8;
+    private static final int TIMESTAMP = 9;
+    private static final int DATE = 10;
+    private static final int TIME = 11;
+    private static final int BINARY_LOB = 12;
+    private static final int CHARACTER_LOB = 13;
+
+    /**
+     * Build a mapper for the given result set shape
+     * @param meta result set metadata
+     * @param model model
+     * @param resultEntity result entity, or null
+     * @throws SQLException
+     */
+    public RowMapper(ResultSetMetaData meta, Model model, Entity resultEntity) throws SQLException
+    {
+        this(meta, model, resultEntity, false);
+    }
+
+    /**
+     * Build a mapper for the given result set shape
+     * @param meta result set metadata
+     * @param model model
+     * @param resultEntity result entity, or null
+     * @param projection whether the result set is a projection of the result entity columns
+     * @throws SQLException
+     */
+    public RowMapper(ResultSetMetaData meta, Model model, Entity resultEntity, boolean projection) throws SQLException
+    {
+        int count = meta.getColumnCount();
+        labels = new String[count];
+        keys = new String[count];
+        columns = new Entity.Column[count];
+        getters = new int[count];
+        typeFilters = new Filter[count];
+        ValueFilters filters = model.getFilters().getReadFilters();
+        this.filters = filters;
+        for (int i = 0; i < count; ++i)
+        {
+            // see http://jira.springframework.org/browse/SPR-3541
+            String label = meta.getColumnLabel(i + 1);
+            labels[i] = label;
+            if (resultEntity == null)
+            {
+                keys[i] = model.getIdentifiersFilters().transformColumnName(label);
+            }
+            else
+            {
+                keys[i] = resultEntity.translateColumnName(label);
+                columns[i] = resultEntity.getColumn(keys[i]);
+            }
+            Class clazz = null;
+            switch (String.valueOf(meta.getColumnClassName(i + 1)))
+            {
+                case "java.lang.String": getters[i] = STRING; clazz = String.class; break;
+                case "java.lang.Integer": getters[i] = INTEGER; clazz = Integer.class; break;
+                case "java.lang.Long": getters[i] = LONG; clazz = Long.class; break;
+                case "java.lang.Double": getters[i] = DOUBLE; clazz = Double.class; break;
+                case "java.lang.Float": getters[i] = FLOAT; clazz = Float.class; break;
+                case "java.lang.Short": getters[i] = SHORT; clazz = Short.class; break;
+                case "java.lang.Boolean": getters[i] = BOOLEAN; clazz = Boolean.class; break;
+                case "java.math.BigDecimal": getters[i] = BIG_DECIMAL; clazz = BigDecimal.class; break;
+                case "java.sql.Timestamp": getters[i] = TIMESTAMP; clazz = Timestamp.class; break;
+                case "java.sql.Date": getters[i] = DATE; clazz = java.sql.Date.class; break;
+                case "java.sql.Time": getters[i] = TIME; clazz = java.sql.Time.class; break;
+                default: getters[i] = OBJECT; break;
+            }
+            if (columns[i] != null && columns[i].isLazy())
+            {
+                getters[i] = SqlUtils.isBinaryLobType(columns[i].type) ? BINARY_LOB : CHARACTER_LOB;
+                clazz = null;
+            }
+            // filters of other classes are resolved on each value
+            typeFilters[i] = clazz == null ? null : filters.getTypeFilter(clazz);
+        }
+        lobInlineThreshold = resultEntity == null ? 0 : resultEntity.getLobInlineThreshold();
+        BitSet loaded = null;
+        if (projection && resultEntity != null)
+        {
+            loaded = new BitSet();
+            for (Entity.Column column : columns)
+            {
+                if (column != null)
+                {
+                    loaded.set(column.getIndex());
+                }
+            }
+            if (loaded.cardinality() == resultEntity.getColumns().size())
+            {
+                loaded = null;
+            }
+        }
+        loadedColumns = loaded;
+    }
+
+    /**
+     * Check whether this mapper applies to a result set
+     * @param meta result set metadata
+     * @return whether the result set has the same columns
+     * @throws SQLException
+     */
+    public boolean matches(ResultSetMetaData meta) throws SQLException
+    {
+        int count = meta.getColumnCount();
+        if (count != labels.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < count; ++i)
+        {
+            if (!labels[i].equals(meta.getColumnLabel(i + 1)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getColumnCount()
+    {
+        return keys.length;
+    }
+
+    /**
+     * Get the instance key for a column
+     * @param col column index, starting at zero
+     * @return instance key
+     */
+    public String getKey(int col)
+    {
+        return keys[col];
+    }
+
+    /**
+     * Get the result entity columns loaded by a projection, which must not be modified
+     * @return loaded columns mask, or null if all columns are loaded
+     */
+    public BitSet getLoadedColumns()
+    {
+        return loadedColumns;
+    }
+
+    /**
+     * Whether a column holds unfiltered integral values, which can be read as primitive longs
+     * @param col column index, starting at zero
+     * @return whether the column is integral
+     */
+    public boolean isIntegral(int col)
+    {
+        int getter = getters[col];
+        return (getter == INTEGER || getter == LONG || getter == SHORT) && !isFiltered(col);
+    }
+
+    /**
+     * Whether a column holds unfiltered floating point values, which can be read as primitive doubles
+     * @param col column index, starting at zero
+     * @return whether the column is floating point
+     */
+    public boolean isFloating(int col)
+    {
+        int getter = getters[col];
+        return (getter == DOUBLE || getter == FLOAT) && !isFiltered(col);
+    }
+
+    /**
+     * Whether a column is a lazy binary large object column, which values are read inline or as handles
+     * @param col column index, starting at zero
+     * @return whether the column is a lazy binary LOB
+     */
+    public boolean isBinaryLob(int col)
+    {
+        return getters[col] == BINARY_LOB;
+    }
+
+    /**
+     * Whether a column is a lazy character large object column, which values are read inline or as handles
+     * @param col column index, starting at zero
+     * @return whether the column is a lazy character LOB
+     */
+    public boolean isCharacterLob(int col)
+    {
+        return getters[col] == CHARACTER_LOB;
+    }
+
+    /**
+     * Get the properties of a POJO class matching the columns of this mapper. Bindings are only resolved
+     * again if the given properties differ from the previous ones.
+     * @param properties POJO properties, by column name
+     * @return properties, indexed by column, with nulls for columns not matching any writable property
+     */
+    public BeanProperty[] getPropertyBindings(Map<String, BeanProperty> properties)
+    {
+        PropertyBindings current = propertyBindings;
+        if (current == null || current.properties != properties)
+        {
+            BeanProperty[] bindings = new BeanProperty[keys.length];
+            for (int col = 0; col < bindings.length; ++col)
+            {
+                BeanProperty property = properties.get(keys[col]);
+                bindings[col] = property != null && property.isWritable() ? property : null;
+            }
+            current = new PropertyBindings(properties, bindings);
+            propertyBindings = current;
+        }
+        return current.bindings;
+    }
+
+    private boolean isFiltered(int col)
+    {
+        return typeFilters[col] != Filter.identity() || columns[col] != null && columns[col].isReadFiltered();
+    }
+
+    /**
+     * Read and filter the value of a column in the current row
+     * @param resultSet result set
+     * @param col column index, starting at zero
+     * @return filtered value
+     * @throws SQLException
+     */
+    public Serializable read(ResultSet resultSet, int col) throws SQLException
+    {
+        Serializable value;
+        int index = col + 1;
+        switch (getters[col])
+        {
+            case STRING: value = resultSet.getString(index); break;
+            case INTEGER: value = resultSet.getInt(index); break;
+            case LONG: value = resultSet.getLong(index); break;
+            case DOUBLE: value = resultSet.getDouble(index); break;
+            case FLOAT: value = resultSet.getFloat(index); break;
+            case SHORT: value = resultSet.getShort(index); break;
+            case BOOLEAN: value = resultSet.getBoolean(index); break;
+            case BIG_DECIMAL: value = resultSet.getBigDecimal(index); break;
+            case TIMESTAMP: value = resultSet.getTimestamp(index); break;
+            case DATE: value = resultSet.getDate(index); break;
+            case TIME: value = resultSet.getTime(index); break;
+            case BINARY_LOB: value = readBinaryLob(resultSet, col); break;
+            case CHARACTER_LOB: value = readCharacterLob(resultSet, col); break;
+            default: value = (Serializable)resultSet.getObject(index); break;
+        }
+        if (value == null || resultSet.wasNull())
+        {
+            return null;
+        }
+        if (value instanceof LobHandle)
+        {
+            return value;
+        }
+        value = typeFilters[col] == null ? filters.filter(value) : typeFilters[col].apply(value);
+        Entity.Column column = columns[col];
+        return column == null ? value : column.read(value);
+    }
+
+    /**
+     * Read a binary LOB inline if it doesn't exceed the inline threshold, otherwise give back a handle on it
+     */
+    private Serializable readBinaryLob(ResultSet resultSet, int col) throws SQLException
+    {
+        try (InputStream stream = resultSet.getBinaryStream(col + 1))
+        {
+            if (stream == null)
+            {
+                return null;
+            }
+            byte[] buffer = new byte[lobInlineThreshold + 1];
+            int len = 0, read;
+            while (len < buffer.length && (read = stream.read(buffer, len, buffer.length - len)) != -1)
+            {
+                len += read;
+            }
+            return len > lobInlineThreshold ? new LobHandle(columns[col].name, true) : Arrays.copyOf(buffer, len);
+        }
+        catch (IOException ioe)
+        {
+            throw new SQLException("could not read column " + labels[col], ioe);
+        }
+    }
+
+    /**
+     * Read a character LOB inline if it doesn't exceed the inline threshold, otherwise give back a handle on it
+     */
+    private Serializable readCharacterLob(ResultSet resultSet, int col) throws SQLException
+    {
+        try (Reader reader = resultSet.getCharacterStream(col + 1))
+        {
+            if (reader == null)
+            {
+                return null;
+            }
+            char[] buffer = new char[lobInlineThreshold + 1];
+            int len = 0, read;
+            while (len < buffer.length && (read = reader.read(buffer, len, buffer.length - len)) != -1)
+            {
+                len += read;
+            }
+            return len > lobInlineThreshold ? new LobHandle(columns[col].name, false) : new String(buffer, 0, len);
+        }
+        catch (IOException ioe)
+        {
+            throw new SQLException("could not read column " + labels[col], ioe);
+        }
+    }
+
+    /**
+     * Get a mapper for a result set, reusing the given one if the result set shape didn't change.
+     * @param mapper previous mapper, or null
+     * @param resultSet result set
+     * @param model model
+     * @param resultEntity result entity, or null
+     * @return row mapper
+     * @throws SQLException
+     */
+    public static RowMapper forResultSet(RowMapper mapper, ResultSet resultSet, Model model, Entity resultEntity) throws SQLException
+    {
+        return forResultSet(mapper, resultSet, model, resultEntity, false);
+    }
+
+    /**
+     * Get a mapper for a result set, reusing the given one if the result set shape didn't change.
+     * @param mapper previous mapper, or null
+     * @param resultSet result set
+     * @param model model
+     * @param resultEntity result entity, or null
+     * @param projection whether the result set is a projection of the result entity columns
+     * @return row mapper
+     * @throws SQLException
+     */
+    public static RowMapper forResultSet(RowMapper mapper, ResultSet resultSet, Model model, Entity resultEntity, boolean projection) throws SQLException
+    {
+        ResultSetMetaData meta = resultSet.getMetaData();
+        return mapper != null && mapper.matches(meta) ? mapper : new RowMapper(meta, model, resultEntity, projection);
+    }
+
+    private final String[] labels;
+    private final String[] keys;
+    private final Entity.Column[] columns;
+    private final int[] getters;
+    private final Filter<Serializable>[] typeFilters;
+    private final ValueFilters filters;
+    private final int lobInlineThreshold;
+    private final BitSet loadedColumns;
+
+    private static class PropertyBindings
+    {
+        PropertyBindings(Map<String, BeanProperty> properties, BeanProperty[] bindings)
+        {
+            this.properties = properties;
+            this.bindings = bindings;
+        }
+
+        final Map<String, BeanProperty> properties;
+        final BeanProperty[] bindings;
+    }
+
+    private volatile PropertyBindings propertyBindings = null;
+}
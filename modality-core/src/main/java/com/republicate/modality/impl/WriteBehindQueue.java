@@ -0,0 +1,265 @@
+package com.republicate.modality.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Bounded write-behind queue of an action: calls are enqueued, and flushed periodically, or as soon as a full batch
+ * is pending, as JDBC batches performed in a single transaction.</p>
+ * <p>When the queue is full, the calling thread flushes it itself, which slows writers down to the database pace.
+ * A batch which fails is logged and dropped.</p>
+ */
+
+public class WriteBehindQueue
+{
+    protected static Logger logger = LoggerFactory.getLogger("write-behind");
+
+    /**
+     * Performs a batch of calls, each one given by its parameter values
+     */
+    @FunctionalInterface
+    public interface BatchPerformer
+    {
+        void perform(List<Serializable[]> batch) throws SQLException;
+    }
+
+    public WriteBehindQueue(String name, int capacity, int batchSize, long flushInterval, BatchPerformer performer)
+    {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.performer = performer;
+    }
+
+    /**
+     * Start periodic flushes
+     * @param scheduler flushes scheduler
+     */
+    protected void start(ScheduledExecutorService scheduler)
+    {
+        this.scheduler = scheduler;
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Enqueue a call. If the queue is full, it is flushed by the calling thread.
+     * @param paramValues call parameter values
+     * @throws SQLException if the queue is closed
+     */
+    public void enqueue(Serializable[] paramValues) throws SQLException
+    {
+        // the read lock guarantees that no call is enqueued after the final flush of close()
+        closeLock.readLock().lock();
+        try
+        {
+            if (closed)
+            {
+                throw new SQLException("write-behind queue " + name + " is closed");
+            }
+            while (!queue.offer(paramValues))
+            {
+                // backpressure
+                flush();
+            }
+        }
+        finally
+        {
+            closeLock.readLock().unlock();
+        }
+        enqueued.incrementAndGet();
+        if (queue.size() >= batchSize && scheduler != null && flushRequested.compareAndSet(false, true))
+        {
+            try
+            {
+                scheduler.execute(this::flushQuietly);
+            }
+            catch (RejectedExecutionException ree)
+            {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Flush pending calls, batch by batch
+     */
+    public void flush()
+    {
+        synchronized (flushLock)
+        {
+            flushRequested.set(false);
+            List<Serializable[]> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+            while (queue.drainTo(batch, batchSize) > 0)
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    performer.perform(batch);
+                    flushed.addAndGet(batch.size());
+                }
+                catch (SQLException sqle)
+                {
+                    failed.addAndGet(batch.size());
+                    logger.error("write-behind queue {}: could not flush {} calls", name, batch.size(), sqle);
+                }
+                long latency = System.nanoTime() - start;
+                flushes.incrementAndGet();
+                totalFlushNanos.addAndGet(latency);
+                lastFlushNanos = latency;
+                maxFlushNanos = Math.max(maxFlushNanos, latency);
+                logger.debug("write-behind queue {}: flushed {} calls in {} ms", name, batch.size(), latency / 1000000.0);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (RuntimeException re)
+        {
+            // keep periodic flushes scheduled
+            logger.error("write-behind queue {}: flush failed", name, re);
+        }
+    }
+
+    /**
+     * Refuse new calls and flush pending ones
+     */
+    public void close()
+    {
+        closeLock.writeLock().lock();
+        try
+        {
+            closed = true;
+        }
+        finally
+        {
+            closeLock.writeLock().unlock();
+        }
+        flush();
+    }
+
+    /*
+     * Metrics
+     */
+
+    /**
+     * Get the number of pending calls
+     * @return queue depth
+     */
+    public int getDepth()
+    {
+        return queue.size();
+    }
+
+    public int getCapacity()
+    {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public long getEnqueuedCount()
+    {
+        return enqueued.get();
+    }
+
+    public long getFlushedCount()
+    {
+        return flushed.get();
+    }
+
+    /**
+     * Get the number of dropped calls, which belonged to failed batches
+     * @return failed calls count
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Get the number of performed batches
+     * @return flushes count
+     */
+    public long getFlushCount()
+    {
+        return flushes.get();
+    }
+
+    public double getLastFlushMillis()
+    {
+        return lastFlushNanos / 1000000.0;
+    }
+
+    public double getMaxFlushMillis()
+    {
+        return maxFlushNanos / 1000000.0;
+    }
+
+    public double getAverageFlushMillis()
+    {
+        long count = flushes.get();
+        return count == 0 ? 0.0 : totalFlushNanos.get() / 1000000.0 / count;
+    }
+
+    private final String name;
+    private final BlockingQueue<Serializable[]> queue;
+    private final int batchSize;
+    private final long flushInterval;
+    private final BatchPerformer performer;
+    private ScheduledExecutorService scheduler = null;
+    private volatile boolean closed = false;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos = 0;
+    private volatile long maxFlushNanos = 0;
+}
@@ -24,6 +24,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
 import javax.sql.DataSource;
 
 /**
@@ -55,7 +56,7 @@ public class BasicDataSource implements DataSource
         // a driver present in the webapp classpath (at the condition that the driver is *also* present
         // in the container classpath).
         DriverManager.getDrivers();
-        return DriverManager.getConnection(databaseURL);
+        return DriverManager.getConnection(databaseURL, copyConnectionProperties());
     }
 
     @Override
@@ -65,7 +66,35 @@ public class BasicDataSource implements DataSource
         // a driver present in the webapp classpath (at the condition that the driver is *also* present
         // in the container classpath).
         DriverManager.getDrivers();
-        return DriverManager.getConnection(databaseURL, user, password);
+        Properties properties = copyConnectionProperties();
+        if (user != null)
+        {
+            properties.put("user", user);
+        }
+        if (password != null)
+        {
+            properties.put("password", password);
+        }
+        return DriverManager.getConnection(databaseURL, properties);
+    }
+
+    /**
+     * Set the properties given to the driver for new connections
+     * @param connectionProperties connection properties
+     */
+    public void setConnectionProperties(Properties connectionProperties)
+    {
+        this.connectionProperties = connectionProperties;
+    }
+
+    /**
+     * Some drivers enumerate properties without their defaults, hence a plain copy.
+     */
+    private Properties copyConnectionProperties()
+    {
+        Properties properties = new Properties();
+        properties.putAll(connectionProperties);
+        return properties;
     }
 
     @Override
@@ -112,5 +141,7 @@ public class BasicDataSource implements DataSource
 
     private String databaseURL;
 
+    private Properties connectionProperties = new Properties();
+
     private PrintWriter logWriter = null;
 }
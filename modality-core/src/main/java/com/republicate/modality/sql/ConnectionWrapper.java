@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -43,6 +44,7 @@ import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 
@@ -117,6 +119,111 @@ public class ConnectionWrapper
         }
     }
 
+    /**
+     * Prepare a pooled statement: update statements return generated keys according to the last insert id policy,
+     * query statements are forward only and read only, and get the driver default fetch size. A server or client
+     * side preparation hint is honored when the driver prepare hints policy allows it.
+     * @param query SQL query
+     * @param update whether the statement is an update
+     * @param hint preparation hint, or null
+     * @return prepared statement
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement prepareStatement(String query, boolean update, PrepareHint hint)
+        throws SQLException
+    {
+        try
+        {
+            enterBusyState();
+            int generatedKeys = driverInfos.getLastInsertIdPolicy() == DriverInfos.LastInsertIdPolicy.GENERATED_KEYS ?
+                Statement.RETURN_GENERATED_KEYS :
+                Statement.NO_GENERATED_KEYS;
+            DriverInfos.PrepareHintsPolicy policy = hint == null ? DriverInfos.PrepareHintsPolicy.NONE :
+                Optional.ofNullable(driverInfos.getPrepareHintsPolicy()).orElse(DriverInfos.PrepareHintsPolicy.NONE);
+            PreparedStatement statement = null;
+            if (policy == DriverInfos.PrepareHintsPolicy.CONNECTION_METHODS)
+            {
+                String methodName = hint == PrepareHint.SERVER ? "serverPrepareStatement" : "clientPrepareStatement";
+                statement = update ?
+                    (PreparedStatement)invokeDriverMethod(connection, methodName, new Class[] { String.class, int.class }, query, generatedKeys) :
+                    (PreparedStatement)invokeDriverMethod(connection, methodName, new Class[] { String.class, int.class, int.class }, query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            }
+            if (statement == null)
+            {
+                statement = update ?
+                    connection.prepareStatement(query, generatedKeys) :
+                    connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            }
+            if (policy == DriverInfos.PrepareHintsPolicy.PREPARE_THRESHOLD)
+            {
+                invokeDriverMethod(statement, "setPrepareThreshold", new Class[] { int.class }, hint == PrepareHint.SERVER ? 1 : 0);
+            }
+            if (!update && driverInfos.getFetchSize() > 0)
+            {
+                statement.setFetchSize(driverInfos.getFetchSize());
+            }
+            return statement;
+        }
+        finally
+        {
+            leaveBusyState();
+        }
+    }
+
+    /**
+     * Invoke a vendor specific method through the public class or interface declaring it.
+     * @return method result, or null if the target doesn't provide this method
+     */
+    private static Object invokeDriverMethod(Object target, String name, Class[] parameterTypes, Object... args) throws SQLException
+    {
+        Method method = findPublicMethod(target.getClass(), name, parameterTypes);
+        if (method == null)
+        {
+            logger.debug("{} does not provide {}(), ignoring prepare hint", target.getClass().getName(), name);
+            return null;
+        }
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new SQLException("could not call " + name + "()", iae);
+        }
+        catch (InvocationTargetException ite)
+        {
+            Throwable cause = ite.getCause();
+            throw cause instanceof SQLException ? (SQLException)cause : new SQLException("could not call " + name + "()", cause);
+        }
+    }
+
+    private static Method findPublicMethod(Class clazz, String name, Class[] parameterTypes)
+    {
+        for (Class c = clazz; c != null; c = c.getSuperclass())
+        {
+            if (Modifier.isPublic(c.getModifiers()))
+            {
+                try
+                {
+                    return c.getMethod(name, parameterTypes);
+                }
+                catch (NoSuchMethodException nsme)
+                {
+                    return null;
+                }
+            }
+            for (Class iface : c.getInterfaces())
+            {
+                Method method = findPublicMethod(iface, name, parameterTypes);
+                if (method != null)
+                {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Prepare a callable statement.
      * @param s SQL query
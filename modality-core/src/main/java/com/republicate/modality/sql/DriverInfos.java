@@ -28,6 +28,7 @@ import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
@@ -61,6 +62,7 @@ public class DriverInfos implements Constants, Serializable
         setPingQuery(Optional.ofNullable(getPingQuery()).orElse(other.getPingQuery()));
         setTablesCaseSensitivity(Optional.ofNullable(getTablesCaseSensitivity()).orElse(other.getTablesCaseSensitivity()));
         setSchemaQuery(Optional.ofNullable(getSchemaQuery()).orElse(other.getSchemaQuery()));
+        setSequenceQuery(Optional.ofNullable(getSequenceQuery()).orElse(other.getSequenceQuery()));
         setLastInsertIdPolicy(Optional.ofNullable(getLastInsertIdPolicyString()).orElse(Optional.ofNullable(other.getLastInsertIdPolicyString()).orElse("none")));
         setStrictColumnTypes(Optional.ofNullable(isStrictColumnTypes()).orElse(Optional.ofNullable(other.isStrictColumnTypes()).orElse(false)));
         setColumnMarkers(Optional.ofNullable(hasColumnMarkers()).orElse(Optional.ofNullable(other.hasColumnMarkers()).orElse(false)));
@@ -68,6 +70,9 @@ public class DriverInfos implements Constants, Serializable
         setIgnoreTablesPattern(ignoreTablesPattern == null ? null : ignoreTablesPattern.toString());
         Character idQuoteChar = Optional.of(getIdentifierQuoteChar()).orElse(other.getIdentifierQuoteChar());
         setIdentifierQuoteChar(idQuoteChar == null ? null : String.valueOf(idQuoteChar));
+        other.getConnectionProperties().forEach(connectionProperties::putIfAbsent);
+        setFetchSize(getFetchSize() > 0 ? getFetchSize() : other.getFetchSize());
+        setPrepareHints(Optional.ofNullable(getPrepareHintsPolicy()).orElse(Optional.ofNullable(other.getPrepareHintsPolicy()).orElse(PrepareHintsPolicy.NONE)).name());
     }
 
     public void log()
@@ -77,11 +82,15 @@ public class DriverInfos implements Constants, Serializable
         logger.info("driver ping query: {}", getPingQuery());
         logger.info("driver tables case sensivity: {}", getTablesCaseSensitivity());
         logger.info("driver schema query: {}", getSchemaQuery());
+        logger.info("driver sequence query: {}", getSequenceQuery());
         logger.info("driver last insert id policy: {}", getLastInsertIdPolicy());
         logger.info("driver strict column types: {}", isStrictColumnTypes());
         logger.info("driver column markers: {}", hasColumnMarkers());
         logger.info("driver ignore tables pattern: {}", getIgnoreTablesPattern());
         logger.info("driver identifier quote char: <{}>", getIdentifierQuoteChar());
+        logger.info("driver connection properties: {}", getConnectionProperties().stringPropertyNames());
+        logger.info("driver fetch size: {}", getFetchSize());
+        logger.info("driver prepare hints: {}", getPrepareHintsPolicy());
     }
 
     /*
@@ -144,6 +153,16 @@ public class DriverInfos implements Constants, Serializable
         this.schemaQuery = schemaQuery;
     }
 
+    public String getSequenceQuery()
+    {
+        return sequenceQuery;
+    }
+
+    public void setSequenceQuery(String sequenceQuery)
+    {
+        this.sequenceQuery = sequenceQuery;
+    }
+
     public LastInsertIdPolicy getLastInsertIdPolicy()
     {
         return lastInsertIdPolicy;
@@ -251,6 +270,70 @@ public class DriverInfos implements Constants, Serializable
         this.columnMarkers = columnMarkers;
     }
 
+    /**
+     * Get the properties given to the JDBC driver when Modality opens connections itself, from a database URL
+     * @return connection properties
+     */
+    public Properties getConnectionProperties()
+    {
+        return connectionProperties;
+    }
+
+    /**
+     * Add connection properties, given as <code>name=value</code> pairs separated by <code>&amp;</code>, as
+     * in <code>prepareThreshold=1&amp;defaultRowFetchSize=100</code>. Properties which are already set are kept,
+     * so that user provided values take precedence over stock driver values.
+     * @param properties connection properties
+     */
+    public void setConnectionProperties(String properties)
+    {
+        for (String pair : properties.split("&"))
+        {
+            pair = pair.trim();
+            if (pair.length() == 0)
+            {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            if (eq == -1)
+            {
+                throw new ConfigurationException("invalid connection property, expecting name=value: " + pair);
+            }
+            connectionProperties.putIfAbsent(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+        }
+    }
+
+    /**
+     * Get the default fetch size of query statements
+     * @return fetch size, or zero to keep the driver default
+     */
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize)
+    {
+        this.fetchSize = Math.max(fetchSize, 0);
+    }
+
+    public PrepareHintsPolicy getPrepareHintsPolicy()
+    {
+        return prepareHintsPolicy;
+    }
+
+    /**
+     * Set how attributes <code>prepare="server|client"</code> hints are honored:
+     * <code>none</code>, <code>connection_methods</code> (<code>serverPrepareStatement()</code> and
+     * <code>clientPrepareStatement()</code> connection methods, MySQL) or <code>prepare_threshold</code>
+     * (<code>setPrepareThreshold()</code> statement method, PostgreSQL)
+     * @param policy prepare hints policy
+     */
+    public void setPrepareHints(String policy)
+    {
+        prepareHintsPolicy = PrepareHintsPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+    }
+
     /*
      * Operations
      */
@@ -343,6 +426,9 @@ public class DriverInfos implements Constants, Serializable
     /** SQL query to set the current schema */
     private String schemaQuery = null;
 
+    /** SQL query returning the next value of the $sequence sequence */
+    private String sequenceQuery = null;
+
     /** ID generation method */
     public enum LastInsertIdPolicy { NONE, GENERATED_KEYS, RETURNING, QUERY, METHOD }
     private LastInsertIdPolicy lastInsertIdPolicy = null;
@@ -361,6 +447,16 @@ public class DriverInfos implements Constants, Serializable
     /** whether driver supports ::varchar etc... */
     private Boolean columnMarkers = null;
 
+    /** properties given to the driver for new connections */
+    private Properties connectionProperties = new Properties();
+
+    /** default fetch size of query statements */
+    private int fetchSize = 0;
+
+    /** how server or client side preparation hints are honored */
+    public enum PrepareHintsPolicy { NONE, CONNECTION_METHODS, PREPARE_THRESHOLD }
+    private PrepareHintsPolicy prepareHintsPolicy = null;
+
     /** sql query to get enum values */
     private String describeEnumQuery = null;
     private String describeEnumPattern = null;
@@ -0,0 +1,39 @@
+package com.republicate.modality.sql;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds a parameter value into a prepared statement. Binders are resolved once per query placeholder,
+ * see {@link SqlUtils#getParameterBinder(int)}.
+ */
+@FunctionalInterface
+public interface ParameterBinder
+{
+    void bind(PreparedStatement statement, int index, Serializable value) throws SQLException;
+
+    /**
+     * Binder for parameters of unknown SQL type, left to the driver
+     */
+    ParameterBinder GENERIC = (statement, index, value) -> statement.setObject(index, value);
+}
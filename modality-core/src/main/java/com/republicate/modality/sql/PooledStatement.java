@@ -80,10 +80,22 @@ public class PooledStatement extends Pooled implements RowValues
     }
 
     public synchronized ResultSet executeQuery(Serializable... paramValues) throws SQLException
+    {
+        return executeQuery(null, paramValues);
+    }
+
+    /**
+     * Execute the query with the given parameter binders
+     * @param binders binder of each parameter, or null to let the driver infer all types
+     * @param paramValues parameter values
+     * @return result set
+     * @throws SQLException
+     */
+    public synchronized ResultSet executeQuery(ParameterBinder[] binders, Serializable... paramValues) throws SQLException
     {
         try
         {
-            setParamValues(paramValues);
+            setParamValues(binders, paramValues);
             getConnection().enterBusyState();
             return resultSet = preparedStatement.executeQuery();
         }
@@ -94,11 +106,23 @@ public class PooledStatement extends Pooled implements RowValues
     }
 
     public synchronized int executeUpdate(Serializable... paramValues) throws SQLException
+    {
+        return executeUpdate(null, paramValues);
+    }
+
+    /**
+     * Execute the update with the given parameter binders
+     * @param binders binder of each parameter, or null to let the driver infer all types
+     * @param paramValues parameter values
+     * @return updated rows count
+     * @throws SQLException
+     */
+    public synchronized int executeUpdate(ParameterBinder[] binders, Serializable... paramValues) throws SQLException
     {
         try
         {
             int count = 0;
-            setParamValues(paramValues);
+            setParamValues(binders, paramValues);
             getConnection().enterBusyState();
             if (!preparedStatement.execute())
             {
@@ -113,13 +137,56 @@ public class PooledStatement extends Pooled implements RowValues
     }
 
 
+    /**
+     * Execute the update once per parameter values set, as a single JDBC batch
+     * @param binders binder of each parameter, or null to let the driver infer all types
+     * @param paramValuesList parameter values of each execution
+     * @return updated rows count of each execution, or <code>Statement.SUCCESS_NO_INFO</code> if unknown
+     * @throws SQLException
+     */
+    public synchronized int[] executeBatch(ParameterBinder[] binders, List<Serializable[]> paramValuesList) throws SQLException
+    {
+        boolean done = false;
+        try
+        {
+            for (Serializable[] paramValues : paramValuesList)
+            {
+                setParamValues(binders, paramValues);
+                preparedStatement.addBatch();
+            }
+            getConnection().enterBusyState();
+            int[] counts = preparedStatement.executeBatch();
+            done = true;
+            return counts;
+        }
+        finally
+        {
+            getConnection().leaveBusyState();
+            if (!done)
+            {
+                // don't leave pending parameters on a pooled statement
+                preparedStatement.clearBatch();
+            }
+        }
+    }
+
     private void setParamValues(Serializable[] paramValues) throws SQLException
+    {
+        setParamValues(null, paramValues);
+    }
+
+    private void setParamValues(ParameterBinder[] binders, Serializable[] paramValues) throws SQLException
     {
         if (logger.isTraceEnabled())
         {
             logger.trace("params-{}", Arrays.asList(paramValues));
         }
-        for (int i = 0; i < paramValues.length; ++i)
+        int typed = binders == null ? 0 : Math.min(binders.length, paramValues.length);
+        for (int i = 0; i < typed; ++i)
+        {
+            binders[i].bind(preparedStatement, i + 1, paramValues[i]);
+        }
+        for (int i = typed; i < paramValues.length; ++i)
         {
             preparedStatement.setObject(i + 1, paramValues[i]);
         }
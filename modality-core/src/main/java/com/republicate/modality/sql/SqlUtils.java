@@ -24,6 +24,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -116,6 +117,152 @@ public class SqlUtils
         return sqlTypeToClass.get(type);
     }
 
+    /**
+     * Get the binder for parameters of a given SQL type. Values of the expected Java classes are bound with
+     * the matching typed setter, and null values with <code>setNull</code> and the SQL type; other values
+     * are left to the driver with <code>setObject</code>.
+     * @param type java.sql.Types type
+     * @return parameter binder
+     */
+    public static ParameterBinder getParameterBinder(int type)
+    {
+        ParameterBinder binder;
+        switch (type)
+        {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof Boolean) statement.setBoolean(index, (Boolean)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof Integer || value instanceof Short || value instanceof Byte) statement.setInt(index, ((Number)value).intValue());
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.BIGINT:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) statement.setLong(index, ((Number)value).longValue());
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof Double) statement.setDouble(index, (Double)value);
+                    else if (value instanceof Float) statement.setFloat(index, (Float)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof BigDecimal) statement.setBigDecimal(index, (BigDecimal)value);
+                    else if (value instanceof Long || value instanceof Integer) statement.setLong(index, ((Number)value).longValue());
+                    else if (value instanceof Double) statement.setDouble(index, (Double)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof String) statement.setString(index, (String)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.DATE:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof java.sql.Date) statement.setDate(index, (java.sql.Date)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.TIME:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof java.sql.Time) statement.setTime(index, (java.sql.Time)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.TIMESTAMP:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof java.sql.Timestamp) statement.setTimestamp(index, (java.sql.Timestamp)value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                binder = (statement, index, value) ->
+                {
+                    if (value instanceof byte[]) statement.setBytes(index, (byte[])value);
+                    else statement.setObject(index, value);
+                };
+                break;
+            default:
+                // vendor specific types are left to the driver, nulls included
+                return ParameterBinder.GENERIC;
+        }
+        ParameterBinder typed = binder;
+        return (statement, index, value) ->
+        {
+            if (value == null) statement.setNull(index, type);
+            else typed.bind(statement, index, value);
+        };
+    }
+
+    /**
+     * Whether a java.sql.Types type holds large objects, binary or character ones
+     * @param type sql type
+     * @return LOB flag
+     */
+    public static boolean isLobType(int type)
+    {
+        return isBinaryLobType(type) || isCharacterLobType(type);
+    }
+
+    public static boolean isBinaryLobType(int type)
+    {
+        switch (type)
+        {
+            case Types.BLOB:
+            case Types.LONGVARBINARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isCharacterLobType(int type)
+    {
+        switch (type)
+        {
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * @param query
      * @param identifierQuoteChar
@@ -263,4 +410,76 @@ public class SqlUtils
     {
         return splitStatements(query, identifierQuoteChar).size() > 1;
     }
+
+    /**
+     * Find the <code>?</code> parameter placeholders of a SQL fragment. String literals (with <code>''</code>
+     * escapes), quoted identifiers, <code>--</code> and <code>/&#42; &#42;/</code> comments are skipped, along with
+     * the PostgreSQL <code>??</code>, <code>?|</code> and <code>?&amp;</code> operators.
+     * @param sql SQL fragment
+     * @param identifierQuoteChar identifier quote character, or null
+     * @param backslashEscapes whether backslashes escape characters in string literals
+     * @return placeholders positions
+     */
+    public static List<Integer> findPlaceholders(String sql, Character identifierQuoteChar, boolean backslashEscapes)
+    {
+        List<Integer> ret = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+            if (c == '\'' || c == '"' || identifierQuoteChar != null && c == identifierQuoteChar)
+            {
+                // literal or quoted identifier, where doubled quotes stand for themselves
+                ++i;
+                while (i < length)
+                {
+                    char d = sql.charAt(i++);
+                    if (d == '\\' && c == '\'' && backslashEscapes)
+                    {
+                        ++i;
+                    }
+                    else if (d == c)
+                    {
+                        if (i < length && sql.charAt(i) == c)
+                        {
+                            ++i;
+                        }
+                        else
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+            else if (c == '-' && next == '-')
+            {
+                int end = sql.indexOf('\n', i);
+                i = end == -1 ? length : end + 1;
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = sql.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+            }
+            else if (c == '?')
+            {
+                if (next == '?' || next == '&' || next == '|' && (i + 2 >= length || sql.charAt(i + 2) != '|'))
+                {
+                    // PostgreSQL jsonb operators, '?' being escaped as '??'
+                    i += 2;
+                }
+                else
+                {
+                    ret.add(i++);
+                }
+            }
+            else
+            {
+                ++i;
+            }
+        }
+        return ret;
+    }
 }
@@ -25,9 +25,8 @@ import com.republicate.modality.util.MultiMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -64,10 +63,12 @@ public class StatementPool implements /* Runnable, */ Pool
      * get a PooledStatement associated with this query.
      *
      * @param query an SQL query
+     * @param update whether the statement is an update
+     * @param hint server or client side preparation hint, honored when the statement is created, or null
      * @exception SQLException thrown by the database engine
      * @return a valid statement
      */
-    protected synchronized PooledStatement prepareStatement(String query, boolean update) throws SQLException
+    protected synchronized PooledStatement prepareStatement(String query, boolean update, PrepareHint hint) throws SQLException
     {
         logger.trace("prepare-{}", query);
 
@@ -75,9 +76,11 @@ public class StatementPool implements /* Runnable, */ Pool
         ConnectionWrapper connection = getCurrentTransactionConnection(modelId);
         boolean insideTransaction = false;
 
+        // statements prepared with other flags or hints are not interchangeable
+        List<Object> key = Arrays.asList(query, update, hint);
         if (connection == null)
         {
-            List available = statementsMap.get(query);
+            List available = statementsMap.get(key);
             for (Iterator it = available.iterator(); it.hasNext(); )
             {
                 statement = (PooledStatement) it.next();
@@ -114,16 +117,10 @@ public class StatementPool implements /* Runnable, */ Pool
             insideTransaction = true;
         }
 
-        statement = new PooledStatement(connection,
-                update ?
-                    connection.prepareStatement(
-                            query, connection.getDriverInfos().getLastInsertIdPolicy() == DriverInfos.LastInsertIdPolicy.GENERATED_KEYS ?
-                                    Statement.RETURN_GENERATED_KEYS :
-                                    Statement.NO_GENERATED_KEYS) :
-                    connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+        statement = new PooledStatement(connection, connection.prepareStatement(query, update, hint));
         if (!insideTransaction)
         {
-            statementsMap.put(query, statement);
+            statementsMap.put(key, statement);
         }
         statement.notifyInUse();
         return statement;
@@ -131,12 +128,22 @@ public class StatementPool implements /* Runnable, */ Pool
 
     public synchronized PooledStatement prepareQuery(String query) throws SQLException
     {
-        return prepareStatement(query, false);
+        return prepareStatement(query, false, null);
+    }
+
+    public synchronized PooledStatement prepareQuery(String query, PrepareHint hint) throws SQLException
+    {
+        return prepareStatement(query, false, hint);
     }
 
     public synchronized PooledStatement prepareUpdate(String query) throws SQLException
     {
-        return prepareStatement(query, true);
+        return prepareStatement(query, true, null);
+    }
+
+    public synchronized PooledStatement prepareUpdate(String query, PrepareHint hint) throws SQLException
+    {
+        return prepareStatement(query, true, hint);
     }
 
     /**
@@ -269,9 +276,9 @@ public class StatementPool implements /* Runnable, */ Pool
     private int count = 0;
 
     /**
-     * map queries -&gt; statements.
+     * map (query, update flag, hint) -&gt; statements.
      */
-    private MultiMap statementsMap = new HashMultiMap();    // query -> PooledStatement
+    private MultiMap statementsMap = new HashMultiMap();    // [query, update, hint] -> PooledStatement
 
     /**
      * running thread.
@@ -0,0 +1,326 @@
+package com.republicate.modality.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.lang3.ClassUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>Property of a POJO class, accessed through generated functions rather than through reflection.</p>
+ * <p>Accessors are generated with <code>LambdaMetafactory</code> when the POJO class is visible from
+ * the class loader of this class, and fall back to method handles otherwise.</p>
+ */
+
+public class BeanProperty
+{
+    /**
+     * Build a property from its descriptor
+     * @param descriptor property descriptor
+     */
+    public BeanProperty(PropertyDescriptor descriptor)
+    {
+        name = descriptor.getName();
+        readMethod = descriptor.getReadMethod();
+        writeMethod = descriptor.getWriteMethod();
+        type = writeMethod == null ? null : writeMethod.getParameterTypes()[0];
+        wrapperType = type == null ? null : ClassUtils.primitiveToWrapper(type);
+        getter = readMethod == null ? null : getter(readMethod);
+        setter = writeMethod == null ? null : setter(writeMethod);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Get the setter parameter type
+     * @return property type, or null if the property is read-only
+     */
+    public Class getType()
+    {
+        return type;
+    }
+
+    public boolean isReadable()
+    {
+        return getter != null;
+    }
+
+    public boolean isWritable()
+    {
+        return setter != null;
+    }
+
+    public Method getReadMethod()
+    {
+        return readMethod;
+    }
+
+    public Method getWriteMethod()
+    {
+        return writeMethod;
+    }
+
+    public Object get(Object bean)
+    {
+        return getter.apply(bean);
+    }
+
+    /**
+     * Set the property value. Values of primitive properties are unboxed and widened as needed, like with
+     * <code>Method.invoke()</code>, since generated setters cast their argument to the exact wrapper class.
+     * @param bean target bean
+     * @param value property value, of the setter parameter type or convertible to it by a widening conversion
+     * @return whatever the setter returns, or null
+     */
+    public Object set(Object bean, Object value)
+    {
+        if (value != null && type != null && type.isPrimitive() && value.getClass() != wrapperType)
+        {
+            value = widen(type, value);
+        }
+        return setter.apply(bean, value);
+    }
+
+    /**
+     * Apply a widening primitive conversion towards a primitive type
+     * @param primitive target primitive type
+     * @param value boxed numeric or character value
+     * @return value boxed in the wrapper of the target type, or the value itself if it cannot be converted
+     */
+    private static Object widen(Class primitive, Object value)
+    {
+        if (value instanceof Character && primitive != char.class)
+        {
+            value = (int)(Character)value;
+        }
+        if (value instanceof Number)
+        {
+            Number number = (Number)value;
+            if (primitive == long.class)
+            {
+                return number.longValue();
+            }
+            else if (primitive == int.class)
+            {
+                return number.intValue();
+            }
+            else if (primitive == double.class)
+            {
+                return number.doubleValue();
+            }
+            else if (primitive == float.class)
+            {
+                return number.floatValue();
+            }
+            else if (primitive == short.class)
+            {
+                return number.shortValue();
+            }
+        }
+        // let the setter report incompatible values
+        return value;
+    }
+
+    /**
+     * Get a supplier creating instances of a class with its public no-argument constructor
+     * @param clazz class
+     * @param <T> class type
+     * @return instance supplier
+     * @throws NoSuchMethodException if there is no public no-argument constructor
+     */
+    public static <T> Supplier<T> constructor(Class<T> clazz) throws NoSuchMethodException
+    {
+        try
+        {
+            MethodHandle handle = LOOKUP.findConstructor(clazz, MethodType.methodType(void.class));
+            if (isVisible(clazz))
+            {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(clazz));
+                return (Supplier<T>)site.getTarget().invoke();
+            }
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            return () -> (T)invoke(() -> generic.invokeExact());
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            throw nsme;
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException("could not build constructor of class " + clazz.getName(), t);
+        }
+    }
+
+    /**
+     * Get a supplier calling a static no-argument factory method
+     * @param method factory method
+     * @return instance supplier
+     */
+    public static Supplier<Object> factory(Method method)
+    {
+        try
+        {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            if (isVisible(method.getDeclaringClass()) && isVisible(method.getReturnType()))
+            {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(method.getReturnType()));
+                return (Supplier<Object>)site.getTarget().invoke();
+            }
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            return () -> invoke(() -> generic.invokeExact());
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException("could not build factory for " + method, t);
+        }
+    }
+
+    private static Function<Object, Object> getter(Method method)
+    {
+        Class owner = method.getDeclaringClass();
+        try
+        {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            if (isVisible(owner) && isVisible(method.getReturnType()))
+            {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), handle,
+                    MethodType.methodType(ClassUtils.primitiveToWrapper(method.getReturnType()), owner));
+                return (Function<Object, Object>)site.getTarget().invoke();
+            }
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+            return bean -> invoke(() -> generic.invokeExact(bean));
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException("could not build getter for " + method, t);
+        }
+    }
+
+    private static BiFunction<Object, Object, Object> setter(Method method)
+    {
+        Class owner = method.getDeclaringClass();
+        Class param = ClassUtils.primitiveToWrapper(method.getParameterTypes()[0]);
+        try
+        {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            if (isVisible(owner) && isVisible(param) && isVisible(method.getReturnType()))
+            {
+                if (method.getReturnType() == void.class)
+                {
+                    CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class), handle,
+                        MethodType.methodType(void.class, owner, param));
+                    BiConsumer<Object, Object> consumer = (BiConsumer<Object, Object>)site.getTarget().invoke();
+                    return (bean, value) ->
+                    {
+                        consumer.accept(bean, value);
+                        return null;
+                    };
+                }
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(BiFunction.class),
+                    MethodType.methodType(Object.class, Object.class, Object.class), handle,
+                    MethodType.methodType(ClassUtils.primitiveToWrapper(method.getReturnType()), owner, param));
+                return (BiFunction<Object, Object, Object>)site.getTarget().invoke();
+            }
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            return (bean, value) -> invoke(() -> generic.invokeExact(bean, value));
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException("could not build setter for " + method, t);
+        }
+    }
+
+    /**
+     * Generated classes are defined in the package and class loader of this class, so they must be able to see
+     * and access the POJO class.
+     */
+    private static boolean isVisible(Class clazz)
+    {
+        if (clazz.isPrimitive())
+        {
+            return true;
+        }
+        for (Class enclosing = clazz; enclosing != null; enclosing = enclosing.getEnclosingClass())
+        {
+            if (!Modifier.isPublic(enclosing.getModifiers()))
+            {
+                return false;
+            }
+        }
+        try
+        {
+            return Class.forName(clazz.getName(), false, BeanProperty.class.getClassLoader()) == clazz;
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface HandleCall
+    {
+        Object call() throws Throwable;
+    }
+
+    private static Object invoke(HandleCall call)
+    {
+        try
+        {
+            return call.call();
+        }
+        catch (RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable t)
+        {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final String name;
+    private final Class type;
+    private final Class wrapperType;
+    private final Method readMethod;
+    private final Method writeMethod;
+    private final Function<Object, Object> getter;
+    private final BiFunction<Object, Object, Object> setter;
+}
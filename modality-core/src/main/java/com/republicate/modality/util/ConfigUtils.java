@@ -0,0 +1,101 @@
+package com.republicate.modality.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.config.ConfigurationException;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of configuration values with units.
+ */
+
+public class ConfigUtils
+{
+    /**
+     * Parse a duration, with an optional <code>ms</code>, <code>s</code>, <code>m</code> or <code>h</code> unit.
+     * @param duration duration string
+     * @param defaultUnit unit of durations given without any unit
+     * @return duration in milliseconds
+     */
+    public static long parseDuration(String duration, TimeUnit defaultUnit)
+    {
+        String value = duration.trim().toLowerCase(Locale.ROOT);
+        long unit = defaultUnit.toMillis(1L);
+        if (value.endsWith("ms"))
+        {
+            unit = 1L;
+            value = value.substring(0, value.length() - 2);
+        }
+        else if (value.endsWith("s"))
+        {
+            unit = 1000L;
+            value = value.substring(0, value.length() - 1);
+        }
+        else if (value.endsWith("m"))
+        {
+            unit = 60L * 1000L;
+            value = value.substring(0, value.length() - 1);
+        }
+        else if (value.endsWith("h"))
+        {
+            unit = 60L * 60L * 1000L;
+            value = value.substring(0, value.length() - 1);
+        }
+        try
+        {
+            return Long.parseLong(value.trim()) * unit;
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new ConfigurationException("invalid duration: " + duration, nfe);
+        }
+    }
+
+    /**
+     * Parse a size, with an optional <code>k</code>, <code>m</code> or <code>g</code> unit suffix.
+     * @param size size string
+     * @return size in bytes
+     */
+    public static long parseSize(String size)
+    {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        switch (value.charAt(value.length() - 1))
+        {
+            case 'k': unit = 1024L; break;
+            case 'm': unit = 1024L * 1024L; break;
+            case 'g': unit = 1024L * 1024L * 1024L; break;
+        }
+        if (unit > 1)
+        {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try
+        {
+            return Long.parseLong(value) * unit;
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new ConfigurationException("invalid size: " + size, nfe);
+        }
+    }
+}
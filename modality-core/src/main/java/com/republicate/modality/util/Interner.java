@@ -0,0 +1,101 @@
+package com.republicate.modality.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Bounded canonicalization table, so that equal values read from a low cardinality column share a single instance.</p>
+ * <p>When the table overflows, the column is considered as a high cardinality one: the table is dropped,
+ * and values are not interned anymore.</p>
+ */
+
+public class Interner implements Serializable
+{
+    /**
+     * Default maximum number of distinct values
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    public Interner()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public Interner(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the canonical instance of a value
+     * @param value value
+     * @return canonical value
+     */
+    public Serializable intern(Serializable value)
+    {
+        Map<Serializable, Serializable> table = this.table;
+        if (table == null)
+        {
+            return value;
+        }
+        Serializable canonical = table.putIfAbsent(value, value);
+        if (canonical != null)
+        {
+            return canonical;
+        }
+        if (table.size() > maxSize)
+        {
+            this.table = null;
+            overflowed = true;
+        }
+        return value;
+    }
+
+    /**
+     * Whether values are still interned
+     * @return false if the table did overflow
+     */
+    public boolean isActive()
+    {
+        return table != null;
+    }
+
+    public int size()
+    {
+        Map<Serializable, Serializable> table = this.table;
+        return table == null ? 0 : table.size();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        // the table itself is not serialized, it is filled again by the values read
+        table = overflowed ? null : new ConcurrentHashMap<>();
+    }
+
+    private final int maxSize;
+    private volatile boolean overflowed = false;
+    private transient volatile Map<Serializable, Serializable> table = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,652 @@
+package com.republicate.modality.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>Slot map backed by an array of values, whose keys are given by a layout shared among all maps
+ * of the same shape (typically all the instances of an entity).</p>
+ * <p>Keys absent from the layout are kept in a sorted overflow map. Layout keys are iterated first,
+ * in layout order, then overflow keys.</p>
+ * <p>A typed layout also gives the expected class of each key: integral and floating point values are then
+ * held in primitive slots, and only the other keys get a slot in the values array. A primitive value is boxed
+ * by the first <code>get()</code> of its key, and the box is kept until the value changes. The
+ * <code>getLong()</code> and <code>getDouble()</code> accessors read primitive slots without boxing.</p>
+ * <p>Timestamps are kept as references: they are allocated by the JDBC driver anyway, and are mutable, so
+ * that a box could not be shared between readers.</p>
+ */
+
+public class SlotArrayMap extends AbstractMap<String, Serializable> implements SlotMap
+{
+    /**
+     * Shared mapping between keys and value indices.
+     */
+    public static final class Layout implements Serializable
+    {
+        public static final Layout EMPTY = new Layout(Collections.emptyList());
+
+        public Layout(List<String> keys)
+        {
+            this(keys, null);
+        }
+
+        /**
+         * Build a typed layout
+         * @param keys keys
+         * @param classes expected value class for each key (or null entries), or null for an untyped layout
+         */
+        public Layout(List<String> keys, List<Class> classes)
+        {
+            this.keys = keys.toArray(new String[keys.size()]);
+            this.indices = new HashMap<>();
+            this.kinds = new byte[this.keys.length];
+            this.slots = new int[this.keys.length];
+            int objects = 0;
+            int primitives = 0;
+            for (int i = 0; i < this.keys.length; ++i)
+            {
+                indices.put(this.keys[i], i);
+                Class clazz = classes == null ? null : classes.get(i);
+                if (clazz == Byte.class || clazz == Short.class || clazz == Integer.class || clazz == Long.class || clazz == BigInteger.class)
+                {
+                    kinds[i] = INTEGRAL;
+                }
+                else if (clazz == Float.class || clazz == Double.class)
+                {
+                    kinds[i] = FLOATING;
+                }
+                slots[i] = kinds[i] == OBJECT ? objects++ : primitives++;
+            }
+            this.objectsCount = objects;
+            this.primitivesCount = primitives;
+        }
+
+        public int size()
+        {
+            return keys.length;
+        }
+
+        public String getKey(int index)
+        {
+            return keys[index];
+        }
+
+        public int indexOf(Object key)
+        {
+            Integer index = indices.get(key);
+            return index == null ? -1 : index;
+        }
+
+        /**
+         * Check whether another layout maps the same keys to the same slots
+         * @param other other layout
+         * @return whether both layouts are equivalent
+         */
+        public boolean isEquivalent(Layout other)
+        {
+            return other == this || Arrays.equals(keys, other.keys) && Arrays.equals(kinds, other.kinds);
+        }
+
+        private Object readResolve()
+        {
+            return keys.length == 0 ? EMPTY : this;
+        }
+
+        private final String[] keys;
+        private final Map<String, Integer> indices;
+        private final byte[] kinds;
+        // index in the values array for object keys, or in the primitives array for primitive keys
+        private final int[] slots;
+        private final int objectsCount;
+        private final int primitivesCount;
+
+        private static final long serialVersionUID = -7441820733385265329L;
+    }
+
+    public SlotArrayMap()
+    {
+        this(Layout.EMPTY);
+    }
+
+    public SlotArrayMap(Layout layout)
+    {
+        this.layout = layout;
+        this.values = new Serializable[layout.objectsCount];
+        this.present = new BitSet(layout.size());
+        if (layout.primitivesCount > 0)
+        {
+            primitives = new long[layout.primitivesCount];
+            boxes = new byte[layout.primitivesCount];
+        }
+    }
+
+    public SlotArrayMap(Map<? extends String, ? extends Serializable> m)
+    {
+        this();
+        putAll(m);
+    }
+
+    public Layout getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Bind this map to an equivalent layout, like the shared layout of its entity after deserialization,
+     * so that it can share values with maps of this layout again.
+     * @param layout equivalent layout
+     */
+    protected void rebindLayout(Layout layout)
+    {
+        if (!layout.isEquivalent(this.layout))
+        {
+            throw new IllegalArgumentException("cannot rebind map to a different layout");
+        }
+        this.layout = layout;
+    }
+
+    /**
+     * Share the storage of another map with the same layout. Storage is copied by whichever of the two maps
+     * is modified first, so that they never see each other's changes.
+     * @param source source map
+     */
+    protected void shareValues(SlotArrayMap source)
+    {
+        if (source.layout != layout)
+        {
+            throw new IllegalArgumentException("cannot share values of a map with a different layout");
+        }
+        values = source.values;
+        present = source.present;
+        primitives = source.primitives;
+        boxes = source.boxes;
+        boxed = source.boxed;
+        extra = source.extra;
+        shared = source.shared = true;
+    }
+
+    /**
+     * Called before any modification
+     */
+    protected void beforeWrite()
+    {
+        if (shared)
+        {
+            values = values.clone();
+            present = (BitSet)present.clone();
+            if (primitives != null)
+            {
+                primitives = primitives.clone();
+                boxes = boxes.clone();
+            }
+            if (boxed != null)
+            {
+                boxed = boxed.clone();
+            }
+            if (extra != null)
+            {
+                extra = new TreeMap<>(extra);
+            }
+            shared = false;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return present.cardinality() + (extra == null ? 0 : extra.size());
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        int index = layout.indexOf(key);
+        if (index != -1)
+        {
+            return present.get(index);
+        }
+        return extra != null && key instanceof String && extra.containsKey(key);
+    }
+
+    @Override
+    public Serializable get(Object key)
+    {
+        int index = layout.indexOf(key);
+        if (index != -1)
+        {
+            return getSlot(index);
+        }
+        return extra == null || !(key instanceof String) ? null : extra.get(key);
+    }
+
+    /**
+     * Get an integral value, without boxing it if it is held in a primitive slot
+     * @param key key
+     * @param defaultValue value returned for null or missing values
+     * @return value
+     */
+    public long getLong(String key, long defaultValue)
+    {
+        int slot = unboxedSlot(key);
+        if (slot != -1)
+        {
+            switch (boxes[slot])
+            {
+                case FLOAT_BOX:
+                case DOUBLE_BOX:
+                    return (long)Double.longBitsToDouble(primitives[slot]);
+                default:
+                    return primitives[slot];
+            }
+        }
+        Long value = TypeUtils.toLong(get(key));
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Get a floating point value, without boxing it if it is held in a primitive slot
+     * @param key key
+     * @param defaultValue value returned for null or missing values
+     * @return value
+     */
+    public double getDouble(String key, double defaultValue)
+    {
+        int slot = unboxedSlot(key);
+        if (slot != -1)
+        {
+            switch (boxes[slot])
+            {
+                case FLOAT_BOX:
+                case DOUBLE_BOX:
+                    return Double.longBitsToDouble(primitives[slot]);
+                default:
+                    return primitives[slot];
+            }
+        }
+        Double value = TypeUtils.toDouble(get(key));
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Get a timestamp value
+     * @param key key
+     * @return timestamp, or null
+     */
+    public Timestamp getTimestamp(String key)
+    {
+        Serializable value = get(key);
+        if (value == null || value instanceof Timestamp)
+        {
+            return (Timestamp)value;
+        }
+        Date date = TypeUtils.toDate(value);
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    @Override
+    public Serializable put(String key, Serializable value)
+    {
+        int index = layout.indexOf(key);
+        if (index != -1)
+        {
+            return setSlot(index, value);
+        }
+        Objects.requireNonNull(key);
+        beforeWrite();
+        if (extra == null)
+        {
+            extra = new TreeMap<>();
+        }
+        return extra.put(key, value);
+    }
+
+    @Override
+    public Serializable remove(Object key)
+    {
+        int index = layout.indexOf(key);
+        if (index != -1)
+        {
+            Serializable previous = getSlot(index);
+            clearSlot(index);
+            return previous;
+        }
+        if (extra == null || !(key instanceof String))
+        {
+            return null;
+        }
+        beforeWrite();
+        return extra.remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        beforeWrite();
+        Arrays.fill(values, null);
+        if (boxes != null)
+        {
+            Arrays.fill(boxes, OBJECT);
+        }
+        boxed = null;
+        present.clear();
+        extra = null;
+    }
+
+    private Serializable getSlot(int index)
+    {
+        int slot = layout.slots[index];
+        if (layout.kinds[index] == OBJECT)
+        {
+            return values[slot];
+        }
+        // boxes are immutable, so a racy update of the cache by concurrent readers is harmless
+        Serializable[] cache = boxed;
+        if (cache != null && cache[slot] != null || boxes[slot] == OBJECT)
+        {
+            return cache == null ? null : cache[slot];
+        }
+        long primitive = primitives[slot];
+        Serializable value;
+        switch (boxes[slot])
+        {
+            case BYTE_BOX: value = (byte)primitive; break;
+            case SHORT_BOX: value = (short)primitive; break;
+            case INTEGER_BOX: value = (int)primitive; break;
+            case LONG_BOX: value = primitive; break;
+            case FLOAT_BOX: value = (float)Double.longBitsToDouble(primitive); break;
+            case DOUBLE_BOX: value = Double.longBitsToDouble(primitive); break;
+            default: throw new IllegalStateException("invalid slot");
+        }
+        if (cache == null)
+        {
+            boxed = cache = new Serializable[primitives.length];
+        }
+        cache[slot] = value;
+        return value;
+    }
+
+    private Serializable setSlot(int index, Serializable value)
+    {
+        beforeWrite();
+        Serializable previous = present.get(index) ? getSlot(index) : null;
+        present.set(index);
+        int slot = layout.slots[index];
+        byte box = OBJECT;
+        if (value != null)
+        {
+            Class clazz = value.getClass();
+            switch (layout.kinds[index])
+            {
+                case OBJECT:
+                    values[slot] = value;
+                    return previous;
+                case INTEGRAL:
+                    box = clazz == Integer.class ? INTEGER_BOX : clazz == Long.class ? LONG_BOX : clazz == Short.class ? SHORT_BOX : clazz == Byte.class ? BYTE_BOX : OBJECT;
+                    if (box != OBJECT)
+                    {
+                        primitives[slot] = ((Number)value).longValue();
+                    }
+                    break;
+                case FLOATING:
+                    box = clazz == Double.class ? DOUBLE_BOX : clazz == Float.class ? FLOAT_BOX : OBJECT;
+                    if (box != OBJECT)
+                    {
+                        primitives[slot] = Double.doubleToRawLongBits(((Number)value).doubleValue());
+                    }
+                    break;
+            }
+        }
+        else if (layout.kinds[index] == OBJECT)
+        {
+            values[slot] = null;
+            return previous;
+        }
+        boxes[slot] = box;
+        if (box == OBJECT && value != null)
+        {
+            // values which do not fit in the primitive slot are kept in the boxes cache
+            if (boxed == null)
+            {
+                boxed = new Serializable[primitives.length];
+            }
+            boxed[slot] = value;
+        }
+        else if (boxed != null)
+        {
+            boxed[slot] = null;
+        }
+        return previous;
+    }
+
+    private void clearSlot(int index)
+    {
+        beforeWrite();
+        int slot = layout.slots[index];
+        if (layout.kinds[index] == OBJECT)
+        {
+            values[slot] = null;
+        }
+        else
+        {
+            boxes[slot] = OBJECT;
+            if (boxed != null)
+            {
+                boxed[slot] = null;
+            }
+        }
+        present.clear(index);
+    }
+
+    private int unboxedSlot(String key)
+    {
+        if (boxes == null)
+        {
+            return -1;
+        }
+        int index = layout.indexOf(key);
+        if (index == -1)
+        {
+            return -1;
+        }
+        if (layout.kinds[index] == OBJECT)
+        {
+            return -1;
+        }
+        int slot = layout.slots[index];
+        return boxes[slot] != OBJECT ? slot : -1;
+    }
+
+    @Override
+    public Set<Entry<String, Serializable>> entrySet()
+    {
+        return new AbstractSet<Entry<String, Serializable>>()
+        {
+            @Override
+            public Iterator<Entry<String, Serializable>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return SlotArrayMap.this.size();
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, Serializable>>
+    {
+        @Override
+        public boolean hasNext()
+        {
+            return next != -1 || extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Serializable> next()
+        {
+            if (next != -1)
+            {
+                current = next;
+                extraKey = null;
+                next = present.nextSetBit(next + 1);
+                if (next == -1 && extra != null)
+                {
+                    extraIterator = extra.entrySet().iterator();
+                }
+                return new SlotEntry(current);
+            }
+            if (extraIterator == null)
+            {
+                throw new NoSuchElementException();
+            }
+            Entry<String, Serializable> entry = extraIterator.next();
+            current = -1;
+            extraKey = entry.getKey();
+            // entries are detached from the extra map, which may be shared
+            return new SimpleEntry<String, Serializable>(entry)
+            {
+                @Override
+                public Serializable setValue(Serializable value)
+                {
+                    super.setValue(value);
+                    return put(getKey(), value);
+                }
+            };
+        }
+
+        @Override
+        public void remove()
+        {
+            // current and extraKey are reset by each removal, so that removing twice the same entry fails
+            if (current != -1)
+            {
+                clearSlot(current);
+                current = -1;
+            }
+            else if (extraKey != null)
+            {
+                // the extra map may have been copied since the iterator creation
+                SlotArrayMap.this.remove(extraKey);
+                extraIterator = extra == null ? null : extra.tailMap(extraKey, false).entrySet().iterator();
+                extraKey = null;
+            }
+            else
+            {
+                throw new IllegalStateException();
+            }
+        }
+
+        private int next = present.nextSetBit(0);
+        private int current = -1;
+        private String extraKey = null;
+        private Iterator<Entry<String, Serializable>> extraIterator = next == -1 && extra != null ? extra.entrySet().iterator() : null;
+    }
+
+    private final class SlotEntry implements Entry<String, Serializable>
+    {
+        private SlotEntry(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return layout.getKey(index);
+        }
+
+        @Override
+        public Serializable getValue()
+        {
+            return getSlot(index);
+        }
+
+        @Override
+        public Serializable setValue(Serializable value)
+        {
+            return setSlot(index, value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Entry && Objects.equals(getKey(), ((Entry)o).getKey()) && Objects.equals(getValue(), ((Entry)o).getValue());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+
+        private final int index;
+    }
+
+    private static final byte OBJECT = 0;
+
+    // layout kinds
+    private static final byte INTEGRAL = 1;
+    private static final byte FLOATING = 2;
+
+    // boxed classes of values held in primitive slots
+    private static final byte BYTE_BOX = 1;
+    private static final byte SHORT_BOX = 2;
+    private static final byte INTEGER_BOX = 3;
+    private static final byte LONG_BOX = 4;
+    private static final byte FLOAT_BOX = 5;
+    private static final byte DOUBLE_BOX = 6;
+
+    private Layout layout;
+    private Serializable[] values;
+    private BitSet present;
+    private long[] primitives = null;
+    private byte[] boxes = null;
+    // boxed primitive values, and values of primitive slots which are not of a primitive type
+    private Serializable[] boxed = null;
+    private TreeMap<String, Serializable> extra = null;
+    private transient boolean shared = false;
+
+    private static final long serialVersionUID = 4017385566132078613L;
+}
@@ -19,28 +19,72 @@ package com.republicate.modality;
  * under the License.
  */
 
+import com.republicate.modality.cache.OffHeapRowStore;
 import com.republicate.modality.config.ConfigurationException;
 import com.republicate.modality.filter.Filter;
 import com.republicate.modality.filter.ValueFilters;
+import com.republicate.modality.impl.AttributeHolder;
+import com.republicate.modality.impl.IdGenerator;
+import com.republicate.modality.impl.WriteBehindQueue;
+import com.republicate.modality.sql.SqlUtils;
+import com.republicate.modality.util.BeanProperty;
+import com.republicate.modality.util.Interner;
+import com.republicate.modality.util.SlotArrayMap;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.sql.DataSource;
 
@@ -80,6 +124,97 @@ public class BasicModelToolTests extends BaseBookshelfTests
     {
 
     }
+    public static class MyGauge
+    {
+        public long getId() { return id; }
+        public void setId(long id) { this.id = id; }
+        public int getLevel() { return level; }
+        public void setLevel(int level) { this.level = level; }
+        public long getTotal() { return total; }
+        public void setTotal(long total) { this.total = total; }
+        public double getRatio() { return ratio; }
+        public void setRatio(double ratio) { this.ratio = ratio; }
+        private long id;
+        private int level;
+        private long total;
+        private double ratio;
+    }
+    public static class MyProbe extends ScalarAttribute
+    {
+        public MyProbe(AttributeHolder parent)
+        {
+            super("probe", parent);
+            addQueryPart("select 1");
+            setCoalesce(true);
+            initialize();
+        }
+
+        public Timestamp evaluate(Callable<Timestamp> execution) throws SQLException
+        {
+            return coalesce(new Serializable[0], () ->
+            {
+                try
+                {
+                    return execution.call();
+                }
+                catch (SQLException sqle)
+                {
+                    throw sqle;
+                }
+                catch (Exception e)
+                {
+                    throw new SQLException(e);
+                }
+            }, timestamp -> (Timestamp)timestamp.clone());
+        }
+    }
+    public static class MyBinding extends ScalarAttribute
+    {
+        public MyBinding(AttributeHolder parent)
+        {
+            super("count_books", parent);
+            addQueryPart("select count(*) from book where publisher_id = ");
+            addParameter("publisher_id");
+            addQueryPart(" and price < ");
+            addParameter("price");
+            addQueryPart(" and (author_id = ");
+            addParameter("author_id");
+            addQueryPart(" or translator_id = ");
+            addParameter("author_id");
+            addQueryPart(")");
+            initialize();
+        }
+
+        public Serializable[] bind(Serializable... params) throws SQLException
+        {
+            return getParamValues(params);
+        }
+
+        public Serializable[] bind(Map source, Serializable... params) throws SQLException
+        {
+            return params.length == 0 ? getParamValues(source) : getParamValues(source, params);
+        }
+    }
+    public static class MyLedger
+    {
+        public long getId() { return id; }
+        public void setId(long id) { this.id = id; }
+        public String getLabel() { return label; }
+        public void setLabel(String label) { this.label = label; }
+        public long getVersion() { return version; }
+        public void setVersion(long version) { this.version = version; }
+        private long id;
+        private String label;
+        private long version;
+    }
+    public static class MyModel extends Model
+    {
+        public void shutdown()
+        {
+            getShutdownHook().run();
+        }
+    }
+
     public static class MyFactory
     {
         public static MyAuthor createAuthor()
@@ -95,6 +230,41 @@ public class BasicModelToolTests extends BaseBookshelfTests
         BaseBookshelfTests.populateDataSource("bookshelf.sql");
     }
 
+    private static <T extends Serializable> T serializedCopy(T object) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            return (T)in.readObject();
+        }
+    }
+
+    private static Properties getRecordingProperties() throws Exception
+    {
+        RecordingDriver.register();
+        Properties props = new Properties();
+        props.load(getResourceReader(Model.MODALITY_DEFAULTS_PATH));
+        props.put("model.credentials.user", "sa");
+        props.put("model.credentials.password", "");
+        props.put("model.database", RecordingDriver.URL_PREFIX + ".");
+        return props;
+    }
+
+    private static void executeStatements(DataSource dataSource, String... statements) throws Exception
+    {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement())
+        {
+            for (String sql : statements)
+            {
+                statement.execute(sql);
+            }
+        }
+    }
+
     public @Test void testAction() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -156,6 +326,37 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertNotNull(wrapped);
     }
 
+    public @Test void testBeanProperty() throws Exception
+    {
+        Map<String, BeanProperty> properties = new HashMap<>();
+        for (PropertyDescriptor descriptor : Introspector.getBeanInfo(MyGauge.class).getPropertyDescriptors())
+        {
+            properties.put(descriptor.getName(), new BeanProperty(descriptor));
+        }
+        MyGauge gauge = BeanProperty.constructor(MyGauge.class).get();
+        assertNotNull(gauge);
+
+        // generated setters widen values like Method.invoke() does
+        properties.get("id").set(gauge, 1L);
+        properties.get("level").set(gauge, (short)3);
+        properties.get("total").set(gauge, 42);
+        properties.get("ratio").set(gauge, 0.5f);
+        assertEquals(1L, gauge.getId());
+        assertEquals(3, gauge.getLevel());
+        assertEquals(42L, gauge.getTotal());
+        assertEquals(0.5, gauge.getRatio(), 0.0);
+
+        // generated getters return what the reflective ones return
+        for (BeanProperty property : properties.values())
+        {
+            assertEquals(property.getName(), property.getReadMethod().invoke(gauge), property.get(gauge));
+        }
+
+        // factory methods are generated too
+        Object author = BeanProperty.factory(MyFactory.class.getMethod("createAuthor")).get();
+        assertTrue(author instanceof MyAuthor);
+    }
+
     public @Test void testBadTransaction() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -203,6 +404,132 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertEquals(oneBook, otherBook);
     }
 
+    public @Test void testCacheSnapshots() throws Exception
+    {
+        File directory = Files.createTempDirectory("snapshots").toFile();
+        try
+        {
+            Properties props = getRecordingProperties();
+            props.put("model.cache_snapshots", directory.getPath());
+            MyModel model = new MyModel();
+            model.configure(props);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(getResourceReader("test_cache.xml"));
+            Instance oneBook = model.getEntity("book").fetch(1);
+            assertNotNull(oneBook);
+            // caches are saved when the JVM shuts down
+            model.shutdown();
+
+            // the reloaded cache answers without any query
+            Model reloaded = new Model().configure(props);
+            reloaded.setReverseMode(Model.ReverseMode.COLUMNS);
+            reloaded.initialize(getResourceReader("test_cache.xml"));
+            int queries = RecordingDriver.getExecutedQueries().size();
+            Instance cachedBook = reloaded.getEntity("book").fetch(1);
+            assertEquals(queries, RecordingDriver.getExecutedQueries().size());
+            assertEquals(oneBook, cachedBook);
+            reloaded.close();
+
+            // snapshots of another rows layout or codec version are ignored
+            OffHeapRowStore store = new OffHeapRowStore(1024 * 1024);
+            store.put(new Serializable[] { 1L }, new Serializable[] { 1L, "title" });
+            File snapshot = new File(directory, "store.snapshot");
+            assertEquals(1, store.writeSnapshot(snapshot, "book_id:4,title:12", "1"));
+            OffHeapRowStore loaded = new OffHeapRowStore(1024 * 1024);
+            assertEquals(-1, loaded.loadSnapshot(snapshot, "book_id:4,name:12", "1"));
+            assertEquals(-1, loaded.loadSnapshot(snapshot, "book_id:4,title:12", "2"));
+            assertEquals(0, loaded.size());
+            assertEquals(1, loaded.loadSnapshot(snapshot, "book_id:4,title:12", "1"));
+            assertArrayEquals(new Serializable[] { 1L, "title" }, loaded.get(new Serializable[] { 1L }));
+        }
+        finally
+        {
+            for (File file : directory.listFiles())
+            {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    public @Test void testCoalesce() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.initialize(getResourceReader("test_mixed_params.xml"));
+        MyProbe probe = new MyProbe(model);
+        Timestamp shared = new Timestamp(1000L);
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<FutureTask<Timestamp>> calls = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i)
+        {
+            FutureTask<Timestamp> call = new FutureTask<>(() -> probe.evaluate(() ->
+            {
+                executions.incrementAndGet();
+                release.await();
+                return shared;
+            }));
+            Thread thread = new Thread(call);
+            calls.add(call);
+            threads.add(thread);
+            thread.start();
+        }
+        // wait for the first caller to be in the execution, and the others to wait for its result
+        while (threads.stream().anyMatch(thread -> thread.getState() != Thread.State.WAITING))
+        {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        Set<Timestamp> results = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (FutureTask<Timestamp> call : calls)
+        {
+            Timestamp result = call.get();
+            assertEquals(shared, result);
+            assertNotSame(shared, result);
+            results.add(result);
+        }
+        assertEquals(1, executions.get());
+        assertEquals("each caller should get its own copy", 4, results.size());
+
+        // failures are reported to all callers
+        CountDownLatch failure = new CountDownLatch(1);
+        calls.clear();
+        threads.clear();
+        for (int i = 0; i < 2; ++i)
+        {
+            FutureTask<Timestamp> call = new FutureTask<>(() -> probe.evaluate(() ->
+            {
+                failure.await();
+                throw new SQLException("no such thing", "42000");
+            }));
+            Thread thread = new Thread(call);
+            calls.add(call);
+            threads.add(thread);
+            thread.start();
+        }
+        while (threads.stream().anyMatch(thread -> thread.getState() != Thread.State.WAITING))
+        {
+            Thread.sleep(10);
+        }
+        failure.countDown();
+        for (FutureTask<Timestamp> call : calls)
+        {
+            try
+            {
+                call.get();
+                fail("SQLException expected");
+            }
+            catch (ExecutionException ee)
+            {
+                assertTrue(ee.getCause() instanceof SQLException);
+                assertEquals("42000", ((SQLException)ee.getCause()).getSQLState());
+            }
+        }
+    }
+
     public @Test void testCollision() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -273,6 +600,139 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertEquals("The Astonishing Life of Duncan Moonwalker", book.getString("title"));
     }
 
+    public @Test void testDriverProperties() throws Exception
+    {
+        Properties props = getRecordingProperties();
+        props.put("model.driver.connection_properties", "recorded_property=some value");
+        props.put("model.driver.fetch_size", "50");
+        props.put("model.driver.prepare_hints", "prepare_threshold");
+        Model model = new Model().configure(props);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(new StringReader(
+            "<model identifiers.mapping=\"lowercase\"><book>" +
+            "<scalar name=\"title_of\" prepare=\"server\">select title from book where book_id = <book_id/></scalar>" +
+            "<scalar name=\"plain_title_of\">select title from book where book_id = <book_id/></scalar>" +
+            "</book></model>"));
+        Entity book = model.getEntity("book");
+        assertNotNull(book);
+        // a pooled statement prepared without hint is not reused for the same query with a hint
+        assertNotNull(book.evaluate("plain_title_of", 1));
+        int thresholds = Collections.frequency(RecordingDriver.getStatementCalls(), "setPrepareThreshold(1)");
+        assertNotNull(book.evaluate("title_of", 1));
+        assertEquals(thresholds + 1, Collections.frequency(RecordingDriver.getStatementCalls(), "setPrepareThreshold(1)"));
+        Properties connectionProperties = RecordingDriver.getLastConnectionProperties();
+        assertNotNull(connectionProperties);
+        assertEquals("some value", connectionProperties.getProperty("recorded_property"));
+        assertEquals("sa", connectionProperties.getProperty("user"));
+        List<String> calls = RecordingDriver.getStatementCalls();
+        assertTrue(calls.contains("setFetchSize(50)"));
+    }
+
+    public @Test void testEntityCache() throws Exception
+    {
+        Properties props = getRecordingProperties();
+        Model model = new Model().configure(props);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(getResourceReader("test_cache.xml"));
+        Entity book = model.getEntity("book");
+        assertTrue(book.isCached());
+        Instance oneBook = book.fetch(1);
+        assertNotNull(oneBook);
+        int queries = RecordingDriver.getExecutedQueries().size();
+        Instance cachedBook = book.fetch("1");
+        assertEquals("cached row fetched again", queries, RecordingDriver.getExecutedQueries().size());
+        assertNotSame(oneBook, cachedBook);
+        assertEquals(oneBook, cachedBook);
+        assertEquals("The Astonishing Life of Duncan Moonwalker", cachedBook.getString("title"));
+        assertEquals(Date.class, cachedBook.get("published").getClass());
+
+        // cached rows are invalidated by updates
+        cachedBook.put("title", "Another Title");
+        cachedBook.update();
+        assertEquals("Another Title", book.fetch(1).getString("title"));
+        cachedBook.put("title", oneBook.getString("title"));
+        cachedBook.update();
+        assertEquals(oneBook, book.fetch(1));
+
+        // misses are remembered until an insert
+        Entity author = model.getEntity("author");
+        assertNull(author.fetch(1000));
+        assertNull(author.retrieve("by_name", "Jane Doe"));
+        queries = RecordingDriver.getExecutedQueries().size();
+        assertNull(author.fetch(1000));
+        assertNull(author.retrieve("by_name", "Jane Doe"));
+        assertEquals("remembered misses queried again", queries, RecordingDriver.getExecutedQueries().size());
+        Instance newAuthor = author.newInstance();
+        newAuthor.put("name", "Jane Doe");
+        newAuthor.insert();
+        try
+        {
+            Instance found = author.retrieve("by_name", "Jane Doe");
+            assertNotNull(found);
+            assertEquals(newAuthor.get("author_id"), found.get("author_id"));
+            assertEquals(found, author.fetch(newAuthor.get("author_id")));
+        }
+        finally
+        {
+            newAuthor.delete();
+        }
+    }
+
+    public @Test void testFrozenInstances() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(getResourceReader("test_cache.xml"));
+        Entity publisher = model.getEntity("publisher");
+        Instance onePublisher = publisher.fetch(1);
+        assertNotNull(onePublisher);
+        assertTrue(onePublisher.isFrozen());
+        assertSame(onePublisher, publisher.fetch(1));
+        try
+        {
+            onePublisher.put("name", "Red Penguin Books");
+            fail("frozen instance should not be modifiable");
+        }
+        catch (UnsupportedOperationException uoe)
+        {
+        }
+
+        // forks share values until modified
+        Instance fork = onePublisher.fork();
+        assertFalse(fork.isFrozen());
+        assertEquals(onePublisher, fork);
+        String name = fork.getString("name");
+        fork.put("name", "Red Penguin Books");
+        assertEquals(name, onePublisher.getString("name"));
+        fork.update();
+        Instance updated = publisher.fetch(1);
+        assertNotSame(onePublisher, updated);
+        assertEquals("Red Penguin Books", updated.getString("name"));
+        fork.put("name", name);
+        fork.update();
+        assertEquals(name, publisher.fetch(1).getString("name"));
+
+        // deserialized instances share the entity layout again, and can be forked
+        Instance copy = serializedCopy(onePublisher);
+        assertSame(onePublisher.getLayout(), copy.getLayout());
+        assertEquals(onePublisher, copy.fork());
+
+        // identity maps get modifiable instances
+        model.withIdentityMap(() ->
+        {
+            Instance known = publisher.fetch(1);
+            assertFalse(known.isFrozen());
+            assertSame(known, publisher.fetch(1));
+            known.put("name", "Red Penguin Books");
+            assertEquals("Red Penguin Books", publisher.fetch(1).getString("name"));
+        });
+        Instance shared = publisher.fetch(1);
+        assertTrue(shared.isFrozen());
+        assertEquals(name, shared.getString("name"));
+    }
+
     public @Test void testGeneratedColumns() throws Exception
     {
         Model model = new Model();
@@ -330,6 +790,144 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertEquals(title, newtitle);
     }
 
+    public @Test void testIdGenerator() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE SEQUENCE author_seq START WITH 1000 INCREMENT BY 10");
+        try
+        {
+            Model model = new Model();
+            model.setDataSource(dataSource);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><author id-generator=\"sequence:author_seq,block=10\"/></model>"));
+            Entity author = model.getEntity("author");
+            assertEquals(10, author.getIdGenerator().getBlockSize());
+
+            // keys are known before insertion, so that new instances are inserted in batches
+            List<Instance> authors = new ArrayList<>();
+            for (int i = 0; i < 15; ++i)
+            {
+                Instance newAuthor = author.newInstance();
+                newAuthor.put("name", "Generated Author " + i);
+                authors.add(newAuthor);
+            }
+            int[] counts = author.insertAll(authors);
+            assertEquals(15, counts.length);
+            for (int i = 0; i < 15; ++i)
+            {
+                assertEquals(1000 + i, authors.get(i).getInteger("author_id").intValue());
+                assertFalse(authors.get(i).isDirty());
+            }
+            assertEquals("Generated Author 12", author.fetch(1012).getString("name"));
+
+            Instance single = author.newInstance();
+            single.put("name", "Generated Author 15");
+            single.insert();
+            assertEquals(1015, single.getInteger("author_id").intValue());
+            assertEquals(16, author.deleteWhere("name LIKE ?", "Generated Author %"));
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP SEQUENCE author_seq");
+        }
+    }
+
+    public @Test void testIdGeneratorHilo() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE TABLE modality_ids (entity VARCHAR(100) PRIMARY KEY, next_id BIGINT NOT NULL)");
+        try
+        {
+            String config = "<model identifiers.mapping=\"lowercase\"><author id-generator=\"hilo,block=5\"/></model>";
+            Model model = new Model();
+            model.setDataSource(dataSource);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader(config));
+            Entity author = model.getEntity("author");
+            assertEquals(IdGenerator.Strategy.HILO, author.getIdGenerator().getStrategy());
+
+            // the first block starts after existing keys
+            List<Instance> authors = new ArrayList<>();
+            for (int i = 0; i < 3; ++i)
+            {
+                Instance newAuthor = author.newInstance();
+                newAuthor.put("name", "Hilo Author " + i);
+                authors.add(newAuthor);
+            }
+            author.insertAll(authors);
+            for (int i = 0; i < 3; ++i)
+            {
+                assertEquals(3 + i, authors.get(i).getInteger("author_id").intValue());
+            }
+
+            // another process gets the next block
+            Model other = new Model();
+            other.setDataSource(dataSource);
+            other.setReverseMode(Model.ReverseMode.COLUMNS);
+            other.initialize(new StringReader(config));
+            Instance otherAuthor = other.getEntity("author").newInstance();
+            otherAuthor.put("name", "Hilo Author 3");
+            otherAuthor.insert();
+            assertEquals(8, otherAuthor.getInteger("author_id").intValue());
+
+            // blocks are allocated in their own transaction, which survives a rollback of the caller transaction
+            try
+            {
+                model.attempt(() ->
+                {
+                    for (int i = 4; i < 7; ++i)
+                    {
+                        Instance newAuthor = author.newInstance();
+                        newAuthor.put("name", "Hilo Author " + i);
+                        newAuthor.insert();
+                    }
+                    throw new SQLException("rollback");
+                });
+                fail("SQLException expected");
+            }
+            catch (SQLException sqle)
+            {
+                assertEquals("rollback", sqle.getMessage());
+            }
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT next_id FROM modality_ids WHERE entity = 'author'"))
+            {
+                assertTrue(rs.next());
+                assertEquals(18, rs.getLong(1));
+            }
+            assertEquals(4, author.deleteWhere("name LIKE ?", "Hilo Author %"));
+
+            // closing the models releases their hilo connections
+            model.close();
+            other.close();
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE modality_ids");
+        }
+    }
+
+    public @Test void testIdentityMap() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(getResourceReader("test_init_model.xml"));
+        Entity book = model.getEntity("book");
+        model.withIdentityMap(() ->
+        {
+            Instance oneBook = book.fetch(1);
+            assertNotNull(oneBook);
+            assertSame(oneBook, book.fetch(1));
+            Iterator<Instance> books = book.iterate();
+            assertSame(oneBook, books.next());
+            assertFalse(books.hasNext());
+        });
+        assertNull(model.getCurrentIdentityMap());
+        assertNotSame(book.fetch(1), book.fetch(1));
+    }
+
     public @Test void testInputFilter() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -360,6 +958,34 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertEquals("2018-05-09", ymd.format(book.get("published")));
     }
 
+    public @Test void testInterning() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.FULL);
+        model.initialize(getResourceReader("test_interning.xml"));
+        Entity book = model.getEntity("book");
+        assertTrue(book.getColumn("title").isInterned());
+        assertFalse(book.getColumn("published").isInterned());
+        Instance first = book.fetch(1);
+        Instance second = book.fetch(1);
+        assertNotSame(first, second);
+        assertSame(first.get("title"), second.get("title"));
+
+        // interning survives serialization, unless the table did overflow
+        Interner interner = new Interner(2);
+        Interner copy = serializedCopy(interner);
+        assertTrue(copy.isActive());
+        String value = new String("b");
+        assertSame(value, copy.intern(value));
+        assertSame(value, copy.intern(new String("b")));
+        interner.intern("b");
+        interner.intern("c");
+        assertFalse(interner.isActive());
+        assertFalse(serializedCopy(interner).isActive());
+    }
+
     public @Test void testJdbc() throws Exception
     {
         Model model = new Model().setDatabaseURL("jdbc:hsqldb:.");
@@ -369,6 +995,59 @@ public class BasicModelToolTests extends BaseBookshelfTests
     }
 
 
+    public @Test void testJsonSerializer() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.FULL);
+        model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><rowset name=\"book_titles\" result=\"book\" columns=\"title\"/></model>"));
+        StringWriter json = new StringWriter();
+        JsonSerializer serializer = new JsonSerializer(json, 64);
+        long rows = model.getRowsetAttribute("book_titles").queryJson(serializer);
+        serializer.flush();
+        assertEquals(1, rows);
+        assertEquals("[{\"book_id\":1,\"title\":\"The Astonishing Life of Duncan Moonwalker\"}]", json.toString());
+    }
+
+    public @Test void testJsonSerializerLazyLobs() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        char[] text = new char[100];
+        Arrays.fill(text, 'x');
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte)7);
+        executeStatements(dataSource, "CREATE TABLE document (document_id INTEGER PRIMARY KEY, content CLOB, data BLOB)");
+        try (Connection connection = dataSource.getConnection())
+        {
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO document VALUES (1, ?, ?)"))
+            {
+                insert.setString(1, new String(text));
+                insert.setBytes(2, data);
+                insert.executeUpdate();
+            }
+        }
+        try
+        {
+            Model model = new Model();
+            model.setDataSource(dataSource);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><document lob_mode=\"lazy\" lob_inline_threshold=\"8\"><rowset name=\"all\" result=\"document\">select * from document</rowset></document></model>"));
+
+            // values above the inline threshold are streamed from the result set
+            StringWriter json = new StringWriter();
+            JsonSerializer serializer = new JsonSerializer(json, 64);
+            long rows = model.getEntity("document").getRowsetAttribute("all").queryJson(serializer);
+            serializer.flush();
+            assertEquals(1, rows);
+            assertEquals("[{\"document_id\":1,\"content\":\"" + new String(text) + "\",\"data\":\"" + Base64.getEncoder().encodeToString(data) + "\"}]", json.toString());
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE document");
+        }
+    }
+
     public @Test void testKeysComparison() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -418,6 +1097,125 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertEquals(3, longId);
     }
 
+    public @Test void testLazyLobs() throws Exception
+    {
+        assertTrue(SqlUtils.isBinaryLobType(Types.BLOB));
+        assertTrue(SqlUtils.isBinaryLobType(Types.LONGVARBINARY));
+        assertFalse(SqlUtils.isBinaryLobType(Types.BINARY));
+        assertFalse(SqlUtils.isBinaryLobType(Types.VARBINARY));
+        assertEquals("[content]", new LobHandle("content", false).toString());
+
+        DataSource dataSource = getDataSource();
+        char[] text = new char[100];
+        Arrays.fill(text, 'x');
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte)7);
+        byte[] digest = new byte[16];
+        Arrays.fill(digest, (byte)3);
+        executeStatements(dataSource, "CREATE TABLE document (document_id INTEGER PRIMARY KEY, content CLOB, data BLOB, digest VARBINARY(16))");
+        try (Connection connection = dataSource.getConnection())
+        {
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO document VALUES (1, ?, ?, ?)"))
+            {
+                insert.setString(1, new String(text));
+                insert.setBytes(2, data);
+                insert.setBytes(3, digest);
+                insert.executeUpdate();
+            }
+        }
+        try
+        {
+            Properties props = getRecordingProperties();
+            Model model = new Model().configure(props);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><document lob_mode=\"lazy\" lob_inline_threshold=\"8\"/></model>"));
+            Instance document = model.getEntity("document").fetch(1);
+
+            // short binary columns are not large objects
+            assertArrayEquals(digest, (byte[])document.get("digest"));
+
+            // rendering handles doesn't read their content
+            int queries = RecordingDriver.getExecutedQueries().size();
+            LobHandle content = (LobHandle)document.get("content");
+            LobHandle binary = (LobHandle)document.get("data");
+            assertEquals("[content]", content.toString());
+            assertEquals("[content]", document.getString("content"));
+            assertEquals("[data]", binary.toString());
+            assertEquals(queries, RecordingDriver.getExecutedQueries().size());
+
+            assertEquals(new String(text), content.getString());
+            assertArrayEquals(data, binary.getBytes());
+            assertEquals(queries + 2, RecordingDriver.getExecutedQueries().size());
+
+            // streams hold their statement until they are closed, once
+            InputStream stream = binary.getBinaryStream();
+            assertEquals(7, stream.read());
+            stream.close();
+            stream.close();
+            Reader reader = content.getCharacterStream();
+            assertEquals('x', reader.read());
+            reader.close();
+            reader.close();
+            assertEquals(new String(text), content.getString());
+
+            // forks get their own handles
+            LobHandle forked = (LobHandle)document.fork().get("content");
+            assertNotSame(content, forked);
+            assertEquals(new String(text), forked.getString());
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE document");
+        }
+    }
+
+    public @Test void testMergeQuery() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><scalar name=\"count_rows\">select count(*) from @table</scalar></model>"));
+        ScalarAttribute countRows = model.getScalarAttribute("count_rows");
+
+        // concurrent merges with different contexts don't see each other's query
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (String[] table : new String[][] { { "book", "1" }, { "author", "2" } })
+            {
+                results.add(executor.submit(() ->
+                {
+                    for (int i = 0; i < 200; ++i)
+                    {
+                        ScalarAttribute merged = countRows.getMergedAttribute(Collections.singletonMap("table", table[0]));
+                        if (Integer.parseInt(table[1]) != ((Number)merged.evaluate()).intValue())
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results)
+            {
+                assertTrue(result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals("select count(*) from @table", countRows.getQuery());
+        assertSame(countRows, countRows.getMergedAttribute(Collections.singletonMap("other", "book")));
+
+        // in-place merges switch the attribute query
+        countRows.mergeQuery(Collections.singletonMap("table", "book"));
+        assertEquals("select count(*) from book", countRows.getQuery());
+        assertEquals(1, ((Number)countRows.evaluate()).intValue());
+    }
+
     public @Test void testMixedParams() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -507,6 +1305,348 @@ public class BasicModelToolTests extends BaseBookshelfTests
         }
     }
 
+    public @Test void testOptimisticLocking() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE TABLE counter (counter_id INTEGER PRIMARY KEY, label VARCHAR(50), version INTEGER NOT NULL)");
+        try
+        {
+            Model model = new Model();
+            model.setDataSource(dataSource);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><counter version=\"version\"/></model>"));
+            Entity counter = model.getEntity("counter");
+            assertEquals("version", counter.getVersionColumn().name);
+
+            // inserted rows get the initial version
+            Instance created = counter.newInstance();
+            created.put("counter_id", 1);
+            created.put("label", "created");
+            created.insert();
+            assertEquals(1, counter.fetch(1).getInteger("version").intValue());
+
+            // the first update wins, the concurrent one is rejected
+            Instance mine = counter.fetch(1);
+            Instance theirs = counter.fetch(1);
+            mine.put("label", "mine");
+            mine.update();
+            assertEquals(2, mine.getInteger("version").intValue());
+            theirs.put("label", "theirs");
+            try
+            {
+                theirs.update();
+                fail("OptimisticLockException expected");
+            }
+            catch (OptimisticLockException ole)
+            {
+                assertEquals("counter", ole.getEntityName());
+                assertEquals(1, ((Number)ole.getVersion()).intValue());
+                assertEquals(OptimisticLockException.SQL_STATE, ole.getSQLState());
+            }
+            assertEquals("mine", counter.fetch(1).getString("label"));
+
+            // batched updates check versions too
+            theirs = counter.fetch(1);
+            mine.put("label", "mine again");
+            theirs.put("label", "theirs again");
+            counter.updateAll(Arrays.asList(theirs));
+            assertEquals(3, theirs.getInteger("version").intValue());
+            try
+            {
+                counter.updateAll(Arrays.asList(mine));
+                fail("OptimisticLockException expected");
+            }
+            catch (OptimisticLockException ole)
+            {
+                assertEquals(2, mine.getInteger("version").intValue());
+            }
+
+            // conflicts are still detected when the driver doesn't report batch counts
+            RecordingDriver.setBatchCountsReported(false);
+            try
+            {
+                Properties props = getRecordingProperties();
+                Model recordingModel = new Model().configure(props);
+                recordingModel.setReverseMode(Model.ReverseMode.COLUMNS);
+                recordingModel.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><counter version=\"version\"/></model>"));
+                Entity recordingCounter = recordingModel.getEntity("counter");
+                Instance stale = recordingCounter.fetch(1);
+                Instance fresh = recordingCounter.fetch(1);
+                stale.put("version", 1);
+                stale.put("label", "stale");
+                try
+                {
+                    recordingCounter.updateAll(Arrays.asList(stale));
+                    fail("OptimisticLockException expected");
+                }
+                catch (OptimisticLockException ole)
+                {
+                    assertEquals(1, ((Number)ole.getVersion()).intValue());
+                }
+                fresh.put("label", "fresh");
+                int[] counts = recordingCounter.updateAll(Arrays.asList(fresh));
+                assertEquals(1, counts[0]);
+                assertEquals(4, fresh.getInteger("version").intValue());
+                theirs = counter.fetch(1);
+            }
+            finally
+            {
+                RecordingDriver.setBatchCountsReported(true);
+            }
+
+            // set-based updates bump versions
+            Map<String, Object> set = new HashMap<>();
+            set.put("label", "bulk");
+            assertEquals(1, counter.updateWhere(set, "counter_id = ?", 1));
+            assertEquals(5, counter.fetch(1).getInteger("version").intValue());
+            try
+            {
+                theirs.delete();
+                fail("OptimisticLockException expected");
+            }
+            catch (OptimisticLockException ole)
+            {
+                assertEquals(4, ((Number)ole.getVersion()).intValue());
+            }
+            counter.fetch(1).delete();
+            assertNull(counter.fetch(1));
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE counter");
+        }
+    }
+
+    public @Test void testOptimisticLockingPojo() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE TABLE ledger (id INTEGER PRIMARY KEY, label VARCHAR(50), version INTEGER NOT NULL)", "INSERT INTO ledger VALUES (1, 'first', 1)");
+        try
+        {
+            Properties props = new Properties();
+            props.put("model.datasource", dataSource);
+            props.put("model.instances.classes.ledger", MyLedger.class);
+            Model model = new Model().configure(props);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><ledger version=\"version\"/></model>"));
+            Entity ledger = model.getEntity("ledger");
+
+            // values held by the wrapped object are bound by versioned batches
+            Instance mine = ledger.fetch(1);
+            Instance theirs = ledger.fetch(1);
+            assertTrue(mine instanceof WrappingInstance);
+            mine.put("label", "mine");
+            int[] counts = ledger.updateAll(Arrays.asList(mine));
+            assertEquals(1, counts[0]);
+            assertEquals(2L, ((WrappingInstance)mine).unwrap(MyLedger.class).getVersion());
+            Instance stored = ledger.fetch(1);
+            assertEquals("mine", stored.getString("label"));
+            assertEquals(2, stored.getInteger("version").intValue());
+
+            theirs.put("label", "theirs");
+            try
+            {
+                ledger.updateAll(Arrays.asList(theirs));
+                fail("OptimisticLockException expected");
+            }
+            catch (OptimisticLockException ole)
+            {
+                assertEquals(1, ((Number)ole.getVersion()).intValue());
+            }
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE ledger");
+        }
+    }
+
+    public @Test void testParameterBindings() throws Exception
+    {
+        MyBinding attribute = new MyBinding(new Model());
+        Serializable[] expected = { 1, 10.0, 2, 2 };
+        Map<String, Serializable> source = new HashMap<>();
+        source.put("publisher_id", 1);
+        source.put("author_id", 2);
+
+        // repeated parameters are bound to each of their placeholders
+        assertArrayEquals(expected, attribute.bind(1, 10.0, 2));
+
+        // parameters missing from the source are taken from additional parameters
+        assertArrayEquals(expected, attribute.bind(source, 10.0));
+        source.put("price", 10.0);
+        assertArrayEquals(expected, attribute.bind(source));
+
+        // values arrays are cache keys, and must never be shared between calls
+        assertNotSame(attribute.bind(source), attribute.bind(source));
+    }
+
+    public @Test void testParameterSetters() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE TABLE measure (measure_id INTEGER PRIMARY KEY, label VARCHAR(20), amount BIGINT, ratio DOUBLE, price DECIMAL(10,2), taken TIMESTAMP, digest VARBINARY(16), active BOOLEAN)");
+        try
+        {
+            Properties props = getRecordingProperties();
+            Model model = new Model().configure(props);
+            model.setReverseMode(Model.ReverseMode.COLUMNS);
+            model.initialize(new StringReader("<model identifiers.mapping=\"lowercase\"><measure/></model>"));
+            Entity measure = model.getEntity("measure");
+            Instance instance = measure.newInstance();
+            instance.put("measure_id", 1);
+            instance.put("label", "length");
+            instance.put("amount", 12L);
+            instance.put("ratio", 0.5);
+            instance.put("price", new BigDecimal("9.99"));
+            instance.put("taken", new Timestamp(1000L));
+            instance.put("digest", new byte[] { 1, 2, 3 });
+            instance.put("active", null);
+            int setters = RecordingDriver.getParameterSetters().size();
+            instance.insert();
+            List<String> calls = RecordingDriver.getParameterSetters();
+            calls = calls.subList(setters, calls.size());
+            assertEquals(8, calls.size());
+            assertEquals(new HashSet<>(Arrays.asList("setInt", "setString", "setLong", "setDouble", "setBigDecimal", "setTimestamp", "setBytes", "setNull(" + Types.BOOLEAN + ")")), new HashSet<>(calls));
+
+            // values of another type are left to the driver
+            setters = RecordingDriver.getParameterSetters().size();
+            assertNotNull(measure.fetch("1"));
+            calls = RecordingDriver.getParameterSetters();
+            assertEquals(Collections.singletonList("setObject"), calls.subList(setters, calls.size()));
+            instance.delete();
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE measure");
+        }
+    }
+
+    public @Test void testPojoPrimitiveSetters() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        executeStatements(dataSource, "CREATE TABLE gauge (id INTEGER PRIMARY KEY, level SMALLINT, total INTEGER, ratio DOUBLE)", "INSERT INTO gauge VALUES (1, 3, 42, 0.5)");
+        try
+        {
+            Properties props = new Properties();
+            props.put("model.datasource", dataSource);
+            props.put("model.reverse", "full");
+            props.put("model.identifiers.mapping.*", "lowercase");
+            props.put("model.identifiers.mapping.*.*", "lowercase");
+            props.put("model.instances.classes.gauge", MyGauge.class);
+            Model model = new Model().configure(props).initialize();
+
+            // narrower column values are widened towards primitive setters
+            Instance gauge = model.getEntity("gauge").fetch(1);
+            assertTrue(gauge instanceof WrappingInstance);
+            MyGauge pojo = ((WrappingInstance)gauge).unwrap(MyGauge.class);
+            assertEquals(1L, pojo.getId());
+            assertEquals(3, pojo.getLevel());
+            assertEquals(42L, pojo.getTotal());
+            assertEquals(0.5, pojo.getRatio(), 0.0);
+            gauge.put("total", 7);
+            gauge.put("level", (short)4);
+            gauge.put("ratio", 1.5f);
+            assertEquals(7L, pojo.getTotal());
+            assertEquals(4, pojo.getLevel());
+            assertEquals(1.5, pojo.getRatio(), 0.0);
+        }
+        finally
+        {
+            executeStatements(dataSource, "DROP TABLE gauge");
+        }
+    }
+
+    public @Test void testProjection() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.FULL);
+        model.initialize(getResourceReader("test_projection.xml"));
+        Entity book = model.getEntity("book");
+        List<Instance> books = new ArrayList<>();
+        book.iterate("title").forEachRemaining(books::add);
+        assertEquals(1, books.size());
+        Instance partial = books.get(0);
+        assertTrue(partial.isPartial());
+        assertTrue(partial.isLoaded("book_id"));
+        assertTrue(partial.isLoaded("title"));
+        assertFalse(partial.isLoaded("published"));
+        try
+        {
+            partial.get("publisher_id");
+            fail("access to a column which is not loaded should fail");
+        }
+        catch (IllegalStateException ise)
+        {
+        }
+        partial.complete();
+        assertFalse(partial.isPartial());
+        assertEquals(1, partial.getInteger("publisher_id").intValue());
+
+        partial = book.fetch(new Serializable[] { 1 }, "title");
+        assertTrue(partial.isPartial());
+        partial.put("title", "The Whale");
+        partial.update();
+        assertTrue(partial.isPartial());
+        assertEquals("The Whale", book.fetch(1).getString("title"));
+        partial.put("title", "The Astonishing Life of Duncan Moonwalker");
+        partial.update();
+
+        Iterator<Instance> titles = model.query("book_titles");
+        assertTrue(titles.hasNext());
+        partial = titles.next();
+        assertFalse(titles.hasNext());
+        assertTrue(partial.isPartial());
+        assertEquals("The Astonishing Life of Duncan Moonwalker", partial.getString("title"));
+
+        book.setLazyCompletion(true);
+        try
+        {
+            assertEquals(1, partial.getInteger("publisher_id").intValue());
+            assertFalse(partial.isPartial());
+        }
+        finally
+        {
+            book.setLazyCompletion(false);
+        }
+
+        Model indented = new Model();
+        indented.setDataSource(dataSource);
+        indented.setReverseMode(Model.ReverseMode.FULL);
+        indented.initialize(new StringReader(
+            "<model identifiers.mapping=\"lowercase\">\n" +
+            "  <rowset name=\"first_titles\" result=\"book\" columns=\"title\">\n" +
+            "    SELECT * FROM book WHERE book_id = 1\n" +
+            "  </rowset>\n" +
+            "</model>"));
+        titles = indented.query("first_titles");
+        assertTrue(titles.hasNext());
+        partial = titles.next();
+        assertTrue(partial.isPartial());
+        assertFalse(partial.isLoaded("publisher_id"));
+        assertEquals("The Astonishing Life of Duncan Moonwalker", partial.getString("title"));
+    }
+
+    public @Test void testQueryColumnar() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.FULL);
+        model.initialize(getResourceReader("test_mixed_params.xml"));
+        Entity book = model.getEntity("book");
+        Instance moonwalker = book.fetch(1);
+        ColumnarResult result = book.getRowsetAttribute("find_similar_books_1").queryColumnar((Map)moonwalker, "2018-01-01", "2018-12-01");
+        assertEquals(1, result.getRowCount());
+        ColumnarResult.Column ids = result.getColumn("book_id");
+        assertNotNull(ids);
+        assertEquals(1L, ids.getLong(0));
+        assertFalse(ids.isNull(0));
+        assertArrayEquals(new long[] { 1L }, (long[])ids.toArray());
+        Map<String, Serializable> row = result.getRow(0);
+        assertEquals(moonwalker.get("title"), row.get("title"));
+    }
+
     public @Test void testRealData() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -569,6 +1709,147 @@ public class BasicModelToolTests extends BaseBookshelfTests
         assertNotNull(books.next());
     }
 
+    public @Test void testSlotArrayMapContract() throws Exception
+    {
+        SlotArrayMap map = new SlotArrayMap(new SlotArrayMap.Layout(Arrays.asList("id", "name", "score")));
+        Map<String, Serializable> reference = new HashMap<>();
+        for (Map<String, Serializable> target : Arrays.asList(map, reference))
+        {
+            target.put("zeta", "z");
+            target.put("score", 12);
+            target.put("alpha", "a");
+            target.put("id", 1);
+            target.put("name", null);
+        }
+        assertEquals(5, map.size());
+        assertEquals(reference, map);
+        assertEquals(map, reference);
+        assertEquals(reference.hashCode(), map.hashCode());
+        assertTrue(map.containsKey("name"));
+        assertNull(map.get("name"));
+        assertFalse(map.containsKey("other"));
+        assertNull(map.get(42));
+        assertTrue(map.containsValue("z"));
+
+        // layout keys come first, in layout order, then other keys in natural order
+        assertEquals(Arrays.asList("id", "name", "score", "alpha", "zeta"), new ArrayList<>(map.keySet()));
+        assertEquals("{id=1, name=null, score=12, alpha=a, zeta=z}", map.toString());
+
+        // entries write through
+        for (Map.Entry<String, Serializable> entry : map.entrySet())
+        {
+            if (entry.getKey().equals("score") || entry.getKey().equals("zeta"))
+            {
+                entry.setValue("updated");
+            }
+        }
+        assertEquals("updated", map.get("score"));
+        assertEquals("updated", map.get("zeta"));
+
+        // iterator removal, of layout and other keys
+        Iterator<Map.Entry<String, Serializable>> it = map.entrySet().iterator();
+        try
+        {
+            it.remove();
+            fail("IllegalStateException expected");
+        }
+        catch (IllegalStateException ise)
+        {
+        }
+        List<String> seen = new ArrayList<>();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Serializable> entry = it.next();
+            seen.add(entry.getKey());
+            if (entry.getKey().equals("name") || entry.getKey().equals("alpha"))
+            {
+                it.remove();
+                try
+                {
+                    it.remove();
+                    fail("IllegalStateException expected");
+                }
+                catch (IllegalStateException ise)
+                {
+                }
+            }
+        }
+        assertEquals(Arrays.asList("id", "name", "score", "alpha", "zeta"), seen);
+        assertEquals(Arrays.asList("id", "score", "zeta"), new ArrayList<>(map.keySet()));
+        try
+        {
+            it.next();
+            fail("NoSuchElementException expected");
+        }
+        catch (NoSuchElementException nsee)
+        {
+        }
+
+        // removal through views
+        assertEquals(1, map.remove("id"));
+        assertNull(map.remove("id"));
+        assertTrue(map.keySet().remove("zeta"));
+        assertTrue(map.values().remove("updated"));
+        assertTrue(map.isEmpty());
+        assertEquals(new HashMap<>(), map);
+
+        map.put("other", 3);
+        map.put("id", 4);
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    public @Test void testSlotArrayMapTypedStorage() throws Exception
+    {
+        SlotArrayMap.Layout layout = new SlotArrayMap.Layout(Arrays.asList("id", "ratio", "name", "created"),
+            Arrays.<Class>asList(Long.class, Double.class, String.class, Timestamp.class));
+        SlotArrayMap map = new SlotArrayMap(layout);
+
+        // primitive values are boxed once
+        map.put("id", 12345678L);
+        assertEquals(12345678L, map.getLong("id", 0L));
+        assertEquals(12345678L, map.get("id"));
+        assertSame(map.get("id"), map.get("id"));
+        map.put("id", 3);
+        assertEquals(Integer.class, map.get("id").getClass());
+        assertEquals(3.0, map.getDouble("id", 0.0), 0.0);
+        map.put("ratio", 0.5f);
+        assertEquals(0.5f, map.get("ratio"));
+        assertSame(map.get("ratio"), map.get("ratio"));
+
+        // values of another type still fit in primitive slots
+        BigInteger big = new BigInteger("123456789012345678901234567890");
+        map.put("id", big);
+        assertSame(big, map.get("id"));
+        map.put("ratio", "1.5");
+        assertEquals(1.5, map.getDouble("ratio", 0.0), 0.0);
+
+        // timestamps are kept as is
+        Timestamp created = new Timestamp(1000L);
+        created.setNanos(123456789);
+        map.put("created", created);
+        assertSame(created, map.get("created"));
+        assertSame(created, map.getTimestamp("created"));
+
+        map.put("id", 7L);
+        map.put("ratio", null);
+        assertTrue(map.containsKey("ratio"));
+        assertNull(map.get("ratio"));
+        assertEquals(-1.0, map.getDouble("ratio", -1.0), 0.0);
+        assertEquals(3, map.size());
+
+        SlotArrayMap copy = serializedCopy(map);
+        assertEquals(map, copy);
+        assertEquals(7L, copy.getLong("id", 0L));
+
+        map.remove("id");
+        assertFalse(map.containsKey("id"));
+        assertNull(map.get("id"));
+        assertEquals(-1L, map.getLong("id", -1L));
+        assertEquals(2, map.size());
+    }
+
     public @Test void testSuccessfulManualTransaction() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -643,6 +1924,75 @@ public class BasicModelToolTests extends BaseBookshelfTests
         }
     }
 
+    public @Test void testUpdateAll() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(getResourceReader("test_cache.xml"));
+        Entity author = model.getEntity("author");
+        Instance first = author.fetch(1);
+        Instance second = author.fetch(2);
+        Instance clean = author.fetch(2);
+        String firstName = first.getString("name"), secondName = second.getString("name");
+        first.put("name", "First Author");
+        second.put("name", "Second Author");
+        int[] counts = author.updateAll(Arrays.asList(first, clean, second));
+        assertEquals(3, counts.length);
+        assertTrue(counts[0] == 1 || counts[0] == Statement.SUCCESS_NO_INFO);
+        assertEquals(0, counts[1]);
+        assertTrue(counts[2] == 1 || counts[2] == Statement.SUCCESS_NO_INFO);
+        assertEquals("First Author", author.fetch(1).getString("name"));
+        assertEquals("Second Author", author.fetch(2).getString("name"));
+        first.put("name", firstName);
+        second.put("name", secondName);
+        author.updateAll(Arrays.asList(first, second));
+        assertEquals(firstName, author.fetch(1).getString("name"));
+        assertEquals(secondName, author.fetch(2).getString("name"));
+    }
+
+    public @Test void testUpdateWhere() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.COLUMNS);
+        model.initialize(getResourceReader("test_cache.xml"));
+        Entity book = model.getEntity("book");
+        Instance oneBook = book.fetch(1);
+        String title = oneBook.getString("title");
+
+        // set-based updates invalidate cached rows
+        Map<String, Object> set = new HashMap<>();
+        set.put("title", "Another Title");
+        assertEquals(1, book.updateWhere(set, "book_id = ? AND title <> 'it''s ?' -- why ?\n AND /* not ? */ title IS NOT NULL", 1));
+        assertEquals("Another Title", book.fetch(1).getString("title"));
+        set.put("title", title);
+        assertEquals(1, book.updateWhere(set, "publisher_id = ?", 1));
+        assertEquals(title, book.fetch(1).getString("title"));
+
+        Entity author = model.getEntity("author");
+        for (String name : new String[] { "Jane Doe", "John Doe" })
+        {
+            Instance newAuthor = author.newInstance();
+            newAuthor.put("name", name);
+            newAuthor.insert();
+        }
+        assertEquals(0, author.deleteWhere("name LIKE ?", "Nobody%"));
+        assertEquals(2, author.deleteWhere("name LIKE ?", "% Doe"));
+        assertNull(author.retrieve("by_name", "Jane Doe"));
+
+        // placeholders scanning
+        assertEquals(Arrays.asList(4, 32), SqlUtils.findPlaceholders("a = ? and b = 'it''s ?' and c = ?", '"', false));
+        assertEquals(Arrays.asList(4, 24), SqlUtils.findPlaceholders("a = ? -- why ?\n and b = ?", '"', false));
+        assertEquals(Arrays.asList(4, 27), SqlUtils.findPlaceholders("a = ? /* what ? */ and b = ?", '"', false));
+        assertEquals(Arrays.asList(18), SqlUtils.findPlaceholders("a = 'c:\\' and b = ?", '"', false));
+        assertEquals(Arrays.asList(22), SqlUtils.findPlaceholders("a = 'it\\'s ?' and b = ?", '"', true));
+        assertEquals(Arrays.asList(40), SqlUtils.findPlaceholders("d ?| e and d ?& f and d ?? g and \"h?\" = ?", '"', false));
+        assertEquals(Arrays.asList(4), SqlUtils.findPlaceholders("a = ?||'b'", '"', false));
+    }
+
     public @Test void testUpsert() throws Exception
     {
         DataSource dataSource = getDataSource();
@@ -789,4 +2139,43 @@ public class BasicModelToolTests extends BaseBookshelfTests
         }
     }
 
+    public @Test void testWriteBehind() throws Exception
+    {
+        DataSource dataSource = getDataSource();
+        Model model = new Model();
+        model.setDataSource(dataSource);
+        model.setReverseMode(Model.ReverseMode.TABLES);
+        model.initialize(new StringReader(
+            "<model identifiers.mapping=\"lowercase\">" +
+            "<action name=\"hit\" async=\"coalesce\" flush_interval=\"1h\" batch_size=\"1000\">insert into author (name) values (<name/>)</action>" +
+            "</model>"));
+        Action hit = model.getAction("hit");
+        for (int i = 0; i < 10; ++i)
+        {
+            assertEquals(0, hit.perform("Visitor " + i));
+        }
+        WriteBehindQueue queue = hit.getWriteBehindQueue();
+        assertNotNull(queue);
+        assertEquals(10, queue.getDepth());
+        assertEquals(Arrays.asList(queue), model.getWriteBehindQueues());
+
+        // pending calls are flushed as a single batch when the model is closed
+        model.close();
+        assertEquals(0, queue.getDepth());
+        assertEquals(10, queue.getFlushedCount());
+        assertEquals(1, queue.getFlushCount());
+        // closing is idempotent, for the shutdown hook and the webapp listener
+        model.close();
+        assertEquals(1, queue.getFlushCount());
+        assertEquals(10, model.getEntity("author").deleteWhere("name LIKE ?", "Visitor %"));
+        try
+        {
+            hit.perform("Late Visitor");
+            fail("closed write-behind queue should refuse calls");
+        }
+        catch (SQLException sqle)
+        {
+        }
+    }
+
 }
@@ -0,0 +1,231 @@
+package com.republicate.modality;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * <p>JDBC driver stub for <code>jdbc:recording:</code> URLs, delegating to HSQLDB, which records the properties
+ * given to new connections, the tuning calls made on prepared statements, the setters used to bind parameters
+ * and the executed queries.</p>
+ * <p>Prepared statements also implement {@link PrepareThreshold}, like PostgreSQL ones.</p>
+ */
+
+public class RecordingDriver implements Driver
+{
+    public static final String URL_PREFIX = "jdbc:recording:";
+
+    public interface PrepareThreshold
+    {
+        void setPrepareThreshold(int threshold) throws SQLException;
+    }
+
+    static
+    {
+        try
+        {
+            DriverManager.registerDriver(new RecordingDriver());
+        }
+        catch (SQLException sqle)
+        {
+            throw new ExceptionInInitializerError(sqle);
+        }
+    }
+
+    /**
+     * Ensure the driver is registered
+     */
+    public static void register()
+    {
+    }
+
+    public static Properties getLastConnectionProperties()
+    {
+        return lastConnectionProperties;
+    }
+
+    public static List<String> getStatementCalls()
+    {
+        synchronized (statementCalls)
+        {
+            return new ArrayList<>(statementCalls);
+        }
+    }
+
+    /**
+     * Whether batches report the updated rows count of each statement, or only <code>Statement.SUCCESS_NO_INFO</code>
+     * @param reported whether counts are reported
+     */
+    public static void setBatchCountsReported(boolean reported)
+    {
+        batchCountsReported = reported;
+    }
+
+    /**
+     * Get the setters called so far to bind parameters of prepared statements, like <code>setInt</code>,
+     * or <code>setNull(12)</code> for a null with its SQL type
+     * @return parameter setters
+     */
+    public static List<String> getParameterSetters()
+    {
+        synchronized (parameterSetters)
+        {
+            return new ArrayList<>(parameterSetters);
+        }
+    }
+
+    /**
+     * Get the SQL of the queries executed so far through prepared statements
+     * @return executed queries
+     */
+    public static List<String> getExecutedQueries()
+    {
+        synchronized (executedQueries)
+        {
+            return new ArrayList<>(executedQueries);
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException
+    {
+        if (!acceptsURL(url))
+        {
+            return null;
+        }
+        Properties properties = new Properties();
+        properties.putAll(info);
+        lastConnectionProperties = properties;
+        Connection connection = DriverManager.getConnection("jdbc:hsqldb:" + url.substring(URL_PREFIX.length()), info.getProperty("user"), info.getProperty("password"));
+        return (Connection)Proxy.newProxyInstance(RecordingDriver.class.getClassLoader(), new Class[] { Connection.class }, (proxy, method, args) ->
+        {
+            Object ret = delegate(connection, method, args);
+            return ret instanceof PreparedStatement ? recordingStatement((PreparedStatement)ret, (String)args[0]) : ret;
+        });
+    }
+
+    private static PreparedStatement recordingStatement(PreparedStatement statement, String sql)
+    {
+        return (PreparedStatement)Proxy.newProxyInstance(RecordingDriver.class.getClassLoader(), new Class[] { PreparedStatement.class, PrepareThreshold.class }, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "setPrepareThreshold":
+                    statementCalls.add("setPrepareThreshold(" + args[0] + ")");
+                    return null;
+                case "setFetchSize":
+                    statementCalls.add("setFetchSize(" + args[0] + ")");
+                    break;
+                case "executeQuery":
+                    executedQueries.add(sql);
+                    break;
+                case "executeBatch":
+                    if (!batchCountsReported)
+                    {
+                        int[] counts = (int[])delegate(statement, method, args);
+                        Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                        return counts;
+                    }
+                    break;
+                default:
+                    if (method.getName().startsWith("set") && args != null && args.length >= 2 && method.getParameterTypes()[0] == int.class)
+                    {
+                        parameterSetters.add(method.getName().equals("setNull") ? "setNull(" + args[1] + ")" : method.getName());
+                    }
+                    break;
+            }
+            return delegate(statement, method, args);
+        });
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException ite)
+        {
+            throw ite.getCause();
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException
+    {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException
+    {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant()
+    {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException("not using JDK logging");
+    }
+
+    private static volatile Properties lastConnectionProperties = null;
+
+    private static volatile boolean batchCountsReported = true;
+
+    private static final List<String> statementCalls = Collections.synchronizedList(new ArrayList<>());
+
+    private static final List<String> parameterSetters = Collections.synchronizedList(new ArrayList<>());
+
+    private static final List<String> executedQueries = Collections.synchronizedList(new ArrayList<>());
+}
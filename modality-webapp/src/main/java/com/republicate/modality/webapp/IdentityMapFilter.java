@@ -0,0 +1,71 @@
+package com.republicate.modality.webapp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.Model;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * <p>Filter binding an identity map to each request: while rendering a page, fetching several times
+ * the same row (like <code>$book.author</code> and <code>$model.author.fetch($id)</code>) gives back
+ * the same instance, and only hits the database once.</p>
+ * <p>The maximum number of instances per request is given by the <code>model.identity_map_size</code>
+ * configuration property.</p>
+ */
+
+public class IdentityMapFilter extends ModalityFilter
+{
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (request.getAttribute(SCOPE_ATTRIBUTE) != null)
+        {
+            // nested dispatch of a request which already has its identity map
+            chain.doFilter(request, response);
+            return;
+        }
+        Model model = getModel();
+        try
+        {
+            request.setAttribute(SCOPE_ATTRIBUTE, Boolean.TRUE);
+            // discard any map left over on this pooled thread, so that the request starts with an empty one
+            model.closeIdentityMap();
+            model.openIdentityMap();
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            model.closeIdentityMap();
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+        }
+    }
+
+    private static final String SCOPE_ATTRIBUTE = IdentityMapFilter.class.getName() + ".scope";
+
+    @Override
+    public void destroy()
+    {
+    }
+}
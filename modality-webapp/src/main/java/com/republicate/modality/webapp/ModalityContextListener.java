@@ -0,0 +1,64 @@
+package com.republicate.modality.webapp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.republicate.modality.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * <p>Context listener closing the models registered in the servlet context when the webapp is stopped, so that
+ * write-behind queues are flushed and caches snapshots are saved.</p>
+ * <p>It is automatically installed by containers which scan annotations, and should otherwise be declared
+ * in <code>web.xml</code>.</p>
+ */
+
+@WebListener
+public class ModalityContextListener implements ServletContextListener
+{
+    protected static Logger logger = LoggerFactory.getLogger("modality");
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce)
+    {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce)
+    {
+        ServletContext servletContext = sce.getServletContext();
+        for (String name : Collections.list(servletContext.getAttributeNames()))
+        {
+            Object value = servletContext.getAttribute(name);
+            if (value instanceof Model)
+            {
+                Model model = (Model)value;
+                logger.info("closing model {}", model.getModelId());
+                model.close();
+            }
+        }
+    }
+}
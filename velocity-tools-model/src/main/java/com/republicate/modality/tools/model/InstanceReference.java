@@ -72,25 +72,25 @@ public class InstanceReference implements Reference, SlotMap
     @Override
     public Serializable put(String key, Serializable value)
     {
-        return instance.put(key, value);
+        return getWritableInstance().put(key, value);
     }
 
     @Override
     public Serializable remove(Object key)
     {
-        return instance.remove(key);
+        return getWritableInstance().remove(key);
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends Serializable> m)
     {
-        instance.putAll(m);
+        getWritableInstance().putAll(m);
     }
 
     @Override
     public void clear()
     {
-        instance.clear();
+        getWritableInstance().clear();
     }
 
     @Override
@@ -260,7 +260,7 @@ public class InstanceReference implements Reference, SlotMap
     {
         try
         {
-            instance.delete();
+            getWritableInstance().delete();
             return true;
         }
         catch (SQLException sqle)
@@ -287,7 +287,7 @@ public class InstanceReference implements Reference, SlotMap
     {
         try
         {
-            instance.insert();
+            getWritableInstance().insert();
             return true;
         }
         catch (SQLException sqle)
@@ -314,7 +314,7 @@ public class InstanceReference implements Reference, SlotMap
     {
         try
         {
-            instance.update();
+            getWritableInstance().update();
             return true;
         }
         catch (SQLException sqle)
@@ -341,7 +341,7 @@ public class InstanceReference implements Reference, SlotMap
     {
         try
         {
-            instance.upsert();
+            getWritableInstance().upsert();
             return true;
         }
         catch (SQLException sqle)
@@ -373,6 +373,19 @@ public class InstanceReference implements Reference, SlotMap
         return instance;
     }
 
+    /**
+     * Get the referenced instance, forking it first if it is a shared frozen instance
+     * @return modifiable instance
+     */
+    protected Instance getWritableInstance()
+    {
+        if (instance.isFrozen())
+        {
+            instance = instance.fork();
+        }
+        return instance;
+    }
+
     private Instance instance;
 
     private ModelTool modelReference;